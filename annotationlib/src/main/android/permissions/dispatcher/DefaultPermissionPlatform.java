@@ -0,0 +1,68 @@
+package permissions.dispatcher;
+
+import android.annotation.TargetApi;
+import android.app.Activity;
+import android.app.Fragment;
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.os.Build;
+import android.support.v13.app.FragmentCompat;
+import android.support.v4.app.ActivityCompat;
+import android.support.v4.content.PermissionChecker;
+import android.util.Log;
+
+/**
+ * PermissionPlatform backed by the framework and the support library.
+ */
+final class DefaultPermissionPlatform implements PermissionPlatform {
+
+    static final DefaultPermissionPlatform INSTANCE = new DefaultPermissionPlatform();
+
+    private static final String TAG = PermissionUtils.class.getSimpleName();
+
+    private DefaultPermissionPlatform() {
+    }
+
+    @Override
+    public int getSdkVersion() {
+        return Build.VERSION.SDK_INT;
+    }
+
+    @TargetApi(Build.VERSION_CODES.DONUT)
+    @Override
+    public int getTargetSdkVersion(Context context) {
+        try {
+            PackageInfo packageInfo = context.getPackageManager().getPackageInfo(context.getPackageName(), 0);
+            return packageInfo.applicationInfo.targetSdkVersion;
+        } catch (PackageManager.NameNotFoundException ignored) {
+            Log.e(TAG, ignored.getMessage());
+            return -1;
+        }
+    }
+
+    @Override
+    public int checkSelfPermission(Context context, String permission) {
+        return PermissionChecker.checkSelfPermission(context, permission);
+    }
+
+    @Override
+    public boolean shouldShowRequestPermissionRationale(Activity activity, String permission) {
+        return ActivityCompat.shouldShowRequestPermissionRationale(activity, permission);
+    }
+
+    @Override
+    public boolean shouldShowRequestPermissionRationale(Fragment fragment, String permission) {
+        return FragmentCompat.shouldShowRequestPermissionRationale(fragment, permission);
+    }
+
+    @Override
+    public void requestPermissions(Activity activity, String[] permissions, int requestCode) {
+        ActivityCompat.requestPermissions(activity, permissions, requestCode);
+    }
+
+    @Override
+    public void requestPermissions(Fragment fragment, String[] permissions, int requestCode) {
+        FragmentCompat.requestPermissions(fragment, permissions, requestCode);
+    }
+}
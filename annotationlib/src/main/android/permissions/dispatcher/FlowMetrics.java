@@ -0,0 +1,72 @@
+package permissions.dispatcher;
+
+import android.support.v4.util.SimpleArrayMap;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reports flow stages to the installed {@link PermissionMetrics}, and remembers when the running flows started.
+ * <p>
+ * Nothing is recorded while no listener is installed.
+ */
+final class FlowMetrics {
+
+    static volatile PermissionMetrics listener;
+
+    // Platform checks made since the listener was installed
+    static final AtomicInteger PLATFORM_CHECKS = new AtomicInteger();
+
+    // Start of every running flow, weakly keyed by target, guarded by the map
+    private static final Map<Object, SimpleArrayMap<Integer, Start>> FLOWS = new WeakHashMap<>();
+
+    private FlowMetrics() {
+    }
+
+    static void flowStarted(PermissionMetrics listener, Object target, int requestCode) {
+        long now = System.nanoTime();
+        synchronized (FLOWS) {
+            SimpleArrayMap<Integer, Start> flows = FLOWS.get(target);
+            if (flows == null) {
+                flows = new SimpleArrayMap<>(2);
+                FLOWS.put(target, flows);
+            }
+            flows.put(requestCode, new Start(now, PLATFORM_CHECKS.get()));
+        }
+        listener.onFlowStarted(target, requestCode, now);
+    }
+
+    static void flowFinished(PermissionMetrics listener, Object target, int requestCode, PermissionOutcome.Result result) {
+        long now = System.nanoTime();
+        Start start;
+        synchronized (FLOWS) {
+            SimpleArrayMap<Integer, Start> flows = FLOWS.get(target);
+            start = flows != null ? flows.remove(requestCode) : null;
+            if (flows != null && flows.isEmpty()) {
+                FLOWS.remove(target);
+            }
+        }
+        if (start != null) {
+            listener.onFlowFinished(target, requestCode, result, now, now - start.nanos, PLATFORM_CHECKS.get() - start.platformChecks);
+        } else {
+            listener.onFlowFinished(target, requestCode, result, now, -1L, -1);
+        }
+    }
+
+    static void clear() {
+        synchronized (FLOWS) {
+            FLOWS.clear();
+        }
+    }
+
+    private static final class Start {
+        final long nanos;
+        final int platformChecks;
+
+        Start(long nanos, int platformChecks) {
+            this.nanos = nanos;
+            this.platformChecks = platformChecks;
+        }
+    }
+}
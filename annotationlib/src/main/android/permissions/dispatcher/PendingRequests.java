@@ -0,0 +1,178 @@
+package permissions.dispatcher;
+
+import android.app.Activity;
+import android.os.SystemClock;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Holds the requests of methods with parameters while their permissions are being requested.
+ * <p>
+ * Requests are keyed by the identity of their target and their request code, so several instances of the same
+ * Activity or Fragment, e.g. in multi-window mode, don't overwrite each other. Targets are referenced weakly.
+ * The request and the arguments it captured are released when the result arrives, when the request is cancelled,
+ * when the hosting Activity is destroyed, when it expires, or when newer requests push it out of the table.
+ * A request doesn't survive the recreation of its target.
+ */
+public final class PendingRequests {
+
+    public static final int DEFAULT_MAX_SIZE = 32;
+
+    private static final PendingRequests INSTANCE = new PendingRequests();
+
+    // Ordered from oldest to newest
+    private final List<Entry> entries = new ArrayList<>();
+
+    private int maxSize = DEFAULT_MAX_SIZE;
+
+    private long expiryMillis;
+
+    private long evictedRequests;
+
+    private PendingRequests() {
+    }
+
+    public static PendingRequests getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Sets the maximum number of retained requests. If the table is full, the oldest request is dropped.
+     *
+     * @param maxSize maximum number of requests, at least 1
+     */
+    public synchronized void setMaxSize(int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be at least 1");
+        }
+        this.maxSize = maxSize;
+        trimTo(maxSize);
+    }
+
+    /**
+     * Sets the time after which a request is dropped, even if its result hasn't arrived yet.
+     *
+     * @param expiryMillis expiry in milliseconds, 0 to keep requests until their result arrives
+     */
+    public synchronized void setExpiryMillis(long expiryMillis) {
+        this.expiryMillis = Math.max(expiryMillis, 0L);
+    }
+
+    /**
+     * Stores a request, replacing an earlier one of the same target and request code.
+     *
+     * @param activity    Activity hosting the target
+     * @param target      Activity or Fragment the request belongs to
+     * @param requestCode request code of the target's dispatcher
+     * @param request     request
+     */
+    public synchronized void put(Activity activity, Object target, int requestCode, GrantableRequest request) {
+        if (activity != null) {
+            PermissionUtils.registerLifecycleCallbacks(activity);
+        }
+        purge();
+        removeEntry(target, requestCode);
+        this.entries.add(new Entry(activity, target, requestCode, request));
+        trimTo(this.maxSize);
+    }
+
+    /**
+     * Removes the request of the given target and request code.
+     *
+     * @return the request, or null if there is none or it has been dropped
+     */
+    public synchronized GrantableRequest remove(Object target, int requestCode) {
+        purge();
+        Entry entry = removeEntry(target, requestCode);
+        return entry != null ? entry.request : null;
+    }
+
+    /**
+     * Removes the given request, e.g. when it has been cancelled.
+     */
+    public synchronized void remove(GrantableRequest request) {
+        for (Iterator<Entry> iterator = this.entries.iterator(); iterator.hasNext(); ) {
+            if (iterator.next().request == request) {
+                iterator.remove();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of requests currently retained, including the arguments they captured.
+     */
+    public synchronized int getRetainedCount() {
+        purge();
+        return this.entries.size();
+    }
+
+    /**
+     * Returns the number of requests dropped before their result arrived, because they expired,
+     * their target was garbage collected or destroyed, or the table was full.
+     */
+    public synchronized long getEvictedCount() {
+        return this.evictedRequests;
+    }
+
+    synchronized void onActivityDestroyed(Activity activity) {
+        for (Iterator<Entry> iterator = this.entries.iterator(); iterator.hasNext(); ) {
+            Entry entry = iterator.next();
+            if (entry.activity.get() == activity || entry.target.get() == activity) {
+                iterator.remove();
+                this.evictedRequests++;
+            }
+        }
+    }
+
+    /**
+     * Drops the requests whose target is gone or which have expired.
+     */
+    private void purge() {
+        long now = this.expiryMillis > 0 ? SystemClock.uptimeMillis() : 0L;
+        for (Iterator<Entry> iterator = this.entries.iterator(); iterator.hasNext(); ) {
+            Entry entry = iterator.next();
+            if (entry.target.get() == null || (this.expiryMillis > 0 && now - entry.createdAt > this.expiryMillis)) {
+                iterator.remove();
+                this.evictedRequests++;
+            }
+        }
+    }
+
+    private void trimTo(int size) {
+        while (this.entries.size() > size) {
+            this.entries.remove(0);
+            this.evictedRequests++;
+        }
+    }
+
+    private Entry removeEntry(Object target, int requestCode) {
+        for (Iterator<Entry> iterator = this.entries.iterator(); iterator.hasNext(); ) {
+            Entry entry = iterator.next();
+            if (entry.requestCode == requestCode && entry.target.get() == target) {
+                iterator.remove();
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    private static final class Entry {
+        final WeakReference<Activity> activity;
+        final WeakReference<Object> target;
+        final int requestCode;
+        final GrantableRequest request;
+        final long createdAt;
+
+        Entry(Activity activity, Object target, int requestCode, GrantableRequest request) {
+            this.activity = new WeakReference<>(activity);
+            this.target = new WeakReference<>(target);
+            this.requestCode = requestCode;
+            this.request = request;
+            this.createdAt = SystemClock.uptimeMillis();
+        }
+    }
+}
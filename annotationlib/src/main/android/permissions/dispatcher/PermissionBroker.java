@@ -0,0 +1,421 @@
+package permissions.dispatcher;
+
+import android.app.Activity;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * Schedules and coalesces the permission requests of the generated dispatchers per Activity.
+ * <p>
+ * Requests arriving within one main thread message are merged into a single system request
+ * for the union of their permissions, and the result is delivered to every waiting dispatcher.
+ * While a system request is in flight, requests for permissions it covers wait for its result,
+ * and all others are queued until it has finished, so the Activity never has two dialogs pending.
+ * The queue is issued as soon as the result arrives, ordered by priority, so the permissions of
+ * higher priority requests are asked first. Queued requests whose deadline has passed are dropped.
+ * <p>
+ * All methods have to be called on the main thread.
+ */
+public final class PermissionBroker {
+
+    /**
+     * Issues system requests and receives their results on behalf of a generated dispatcher.
+     *
+     * @param <T> type of the Activity or Fragment the dispatcher is generated for
+     */
+    public interface Client<T> {
+
+        void requestPermissions(T target, String[] permissions, int requestCode);
+
+        void onRequestPermissionsResult(T target, int requestCode, int[] grantResults);
+    }
+
+    private static final PermissionBroker INSTANCE = new PermissionBroker();
+
+    private static final int[] NO_RESULTS = new int[0];
+
+    // Weakly keyed, so requests whose result never arrives don't keep the Activity alive
+    private final Map<Activity, Host> hosts = new WeakHashMap<>();
+
+    private Handler handler;
+
+    private final Comparator<Entry> byPriority = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry lhs, Entry rhs) {
+            return lhs.priority < rhs.priority ? 1 : (lhs.priority == rhs.priority ? 0 : -1);
+        }
+    };
+
+    // Counters reported by getMetrics()
+    private int maxQueueDepth;
+    private long issuedRequests;
+    private long coalescedRequests;
+    private long expiredRequests;
+    private long totalWaitMillis;
+    private long maxWaitMillis;
+
+    private PermissionBroker() {
+    }
+
+    public static PermissionBroker getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Requests the given permissions with default priority and without deadline.
+     *
+     * @see #request(Activity, Object, String[], int, int, long, Client)
+     */
+    public <T> void request(Activity activity, T target, String[] permissions, int requestCode, Client<T> client) {
+        request(activity, target, permissions, requestCode, 0, 0L, client);
+    }
+
+    /**
+     * Requests the given permissions, possibly together with other requests of the same Activity.
+     *
+     * @param activity      Activity hosting the target
+     * @param target        Activity or Fragment receiving the result
+     * @param permissions   permissions to request
+     * @param requestCode   request code of the target's dispatcher
+     * @param priority      priority among the queued requests of the Activity, higher priorities are asked first
+     * @param timeoutMillis maximum time to wait for earlier requests, 0 to wait indefinitely
+     * @param client        client of the target's dispatcher
+     */
+    public <T> void request(Activity activity, T target, String[] permissions, int requestCode,
+                            int priority, long timeoutMillis, Client<T> client) {
+        PermissionMetrics metrics = FlowMetrics.listener;
+        if (metrics != null) {
+            metrics.onPermissionsRequested(target, requestCode, System.nanoTime());
+        }
+        if (activity == null) {
+            // Detached Fragment, there is nothing to coalesce with
+            client.requestPermissions(target, permissions, requestCode);
+            return;
+        }
+        PermissionUtils.registerLifecycleCallbacks(activity);
+        Host host = this.hosts.get(activity);
+        if (host == null) {
+            host = new Host();
+            this.hosts.put(activity, host);
+        }
+        if (host.isWaiting(target, requestCode)) {
+            // Repeated request, e.g. a double tap
+            return;
+        }
+        @SuppressWarnings("unchecked")
+        Entry entry = new Entry(target, permissions, requestCode, priority, timeoutMillis, (Client<Object>) client);
+        if (host.inFlight != null && host.inFlight.covers(permissions)) {
+            host.inFlight.entries.add(entry);
+            this.coalescedRequests++;
+            return;
+        }
+        if (host.pending == null) {
+            host.pending = new Batch();
+            if (host.inFlight == null) {
+                schedule(host);
+            }
+        }
+        host.pending.entries.add(entry);
+        this.maxQueueDepth = Math.max(this.maxQueueDepth, queueDepth());
+    }
+
+    /**
+     * Returns a snapshot of the scheduling metrics of all Activities.
+     */
+    public Metrics getMetrics() {
+        return new Metrics(queueDepth(), this.maxQueueDepth, this.issuedRequests, this.coalescedRequests,
+                this.expiredRequests, this.totalWaitMillis, this.maxWaitMillis);
+    }
+
+    /**
+     * Delivers the result of a system request issued by the broker to all requests waiting for it.
+     *
+     * @param activity     Activity hosting the target that received the result
+     * @param requestCode  request code of the result
+     * @param grantResults grant results of the result
+     * @return true if the result belonged to the broker and has been delivered, false if the dispatcher has to handle it
+     */
+    public boolean onRequestPermissionsResult(Activity activity, int requestCode, int[] grantResults) {
+        Host host = activity != null ? this.hosts.get(activity) : null;
+        if (host == null || host.inFlight == null || host.inFlight.requestCode != requestCode) {
+            return false;
+        }
+        Batch batch = host.inFlight;
+        host.inFlight = null;
+        PermissionUtils.recordResults(activity, batch.permissions, grantResults);
+        if (host.pending != null) {
+            schedule(host);
+        }
+        // The dispatchers call back into the broker, which doesn't claim the result anymore
+        for (Entry entry : batch.entries) {
+            Object target = entry.target.get();
+            if (target != null) {
+                int[] results = batch.resultsOf(entry, grantResults);
+                if (FlowMetrics.listener != null) {
+                    PermissionUtils.flowFinished(target, entry.requestCode, PermissionUtils.resultOf(entry.permissions, results));
+                }
+                entry.client.onRequestPermissionsResult(target, entry.requestCode, results);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gives up a request that didn't deliver its result before the Activity resumed,
+     * e.g. because the requesting Fragment has been detached, so it doesn't block later requests.
+     */
+    void onActivityResumed(Activity activity) {
+        Host host = this.hosts.get(activity);
+        if (host == null || host.inFlight == null || !host.inFlight.paused) {
+            return;
+        }
+        host.inFlight = null;
+        if (host.pending != null) {
+            schedule(host);
+        }
+    }
+
+    void onActivityPaused(Activity activity) {
+        Host host = this.hosts.get(activity);
+        if (host != null && host.inFlight != null) {
+            host.inFlight.paused = true;
+        }
+    }
+
+    private int queueDepth() {
+        int depth = 0;
+        for (Host host : this.hosts.values()) {
+            if (host.pending != null) {
+                depth += host.pending.entries.size();
+            }
+        }
+        return depth;
+    }
+
+    private void schedule(final Host host) {
+        if (this.handler == null) {
+            this.handler = new Handler(Looper.getMainLooper());
+        }
+        this.handler.post(new Runnable() {
+            @Override
+            public void run() {
+                issue(host);
+            }
+        });
+    }
+
+    private void issue(Host host) {
+        Batch batch = host.pending;
+        if (batch == null || host.inFlight != null) {
+            return;
+        }
+        host.pending = null;
+        // Stable, so requests of equal priority keep their order
+        Collections.sort(batch.entries, this.byPriority);
+        long now = SystemClock.uptimeMillis();
+        List<Entry> expired = new ArrayList<>();
+        // The first request whose target is still alive issues the system request
+        Entry issuer = null;
+        Object issuerTarget = null;
+        Set<String> permissions = new LinkedHashSet<>();
+        for (Entry entry : batch.entries) {
+            Object target = entry.target.get();
+            if (target == null) {
+                continue;
+            }
+            if (now > entry.deadline) {
+                expired.add(entry);
+                continue;
+            }
+            long waitMillis = now - entry.requestedAt;
+            this.totalWaitMillis += waitMillis;
+            this.maxWaitMillis = Math.max(this.maxWaitMillis, waitMillis);
+            if (issuer == null) {
+                issuer = entry;
+                issuerTarget = target;
+            }
+            for (String permission : entry.permissions) {
+                permissions.add(permission);
+            }
+        }
+        batch.entries.removeAll(expired);
+        // Expired requests end like requests interrupted by the platform. They are delivered before the batch
+        // is in flight, so the broker doesn't claim their results when the dispatchers pass them on
+        this.expiredRequests += expired.size();
+        for (Entry entry : expired) {
+            Object target = entry.target.get();
+            if (target != null) {
+                PermissionUtils.flowFinished(target, entry.requestCode, PermissionOutcome.Result.DENIED);
+                entry.client.onRequestPermissionsResult(target, entry.requestCode, NO_RESULTS);
+            }
+        }
+        if (issuer != null) {
+            batch.permissions = permissions.toArray(new String[permissions.size()]);
+            batch.requestCode = issuer.requestCode;
+            host.inFlight = batch;
+            this.issuedRequests++;
+            this.coalescedRequests += batch.entries.size() - 1;
+            issuer.client.requestPermissions(issuerTarget, batch.permissions, batch.requestCode);
+        }
+    }
+
+    /**
+     * Snapshot of the scheduling metrics, summed up over all Activities.
+     */
+    public static final class Metrics {
+        private final int queueDepth;
+        private final int maxQueueDepth;
+        private final long issuedRequests;
+        private final long coalescedRequests;
+        private final long expiredRequests;
+        private final long totalWaitMillis;
+        private final long maxWaitMillis;
+
+        Metrics(int queueDepth, int maxQueueDepth, long issuedRequests, long coalescedRequests,
+                long expiredRequests, long totalWaitMillis, long maxWaitMillis) {
+            this.queueDepth = queueDepth;
+            this.maxQueueDepth = maxQueueDepth;
+            this.issuedRequests = issuedRequests;
+            this.coalescedRequests = coalescedRequests;
+            this.expiredRequests = expiredRequests;
+            this.totalWaitMillis = totalWaitMillis;
+            this.maxWaitMillis = maxWaitMillis;
+        }
+
+        /**
+         * Returns the number of requests currently queued for the next system request.
+         */
+        public int getQueueDepth() {
+            return this.queueDepth;
+        }
+
+        public int getMaxQueueDepth() {
+            return this.maxQueueDepth;
+        }
+
+        /**
+         * Returns the number of system requests issued.
+         */
+        public long getIssuedRequests() {
+            return this.issuedRequests;
+        }
+
+        /**
+         * Returns the number of requests answered by the system request of another request.
+         */
+        public long getCoalescedRequests() {
+            return this.coalescedRequests;
+        }
+
+        /**
+         * Returns the number of requests dropped because their deadline passed while they were queued.
+         */
+        public long getExpiredRequests() {
+            return this.expiredRequests;
+        }
+
+        /**
+         * Returns the total time issued requests spent in the queue, in milliseconds.
+         */
+        public long getTotalWaitMillis() {
+            return this.totalWaitMillis;
+        }
+
+        public long getMaxWaitMillis() {
+            return this.maxWaitMillis;
+        }
+    }
+
+    private static final class Host {
+        // Requests collected for the next system request
+        Batch pending;
+        // Requests waiting for the result of the current system request
+        Batch inFlight;
+
+        boolean isWaiting(Object target, int requestCode) {
+            return (this.pending != null && this.pending.contains(target, requestCode))
+                    || (this.inFlight != null && this.inFlight.contains(target, requestCode));
+        }
+    }
+
+    private static final class Batch {
+        final List<Entry> entries = new ArrayList<>();
+        // Set once the system request has been issued
+        String[] permissions;
+        int requestCode;
+        boolean paused;
+
+        boolean contains(Object target, int requestCode) {
+            for (Entry entry : this.entries) {
+                if (entry.requestCode == requestCode && entry.target.get() == target) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        boolean covers(String[] requested) {
+            for (String permission : requested) {
+                if (indexOf(permission) < 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Picks the results of the given request out of the results of the system request.
+         */
+        int[] resultsOf(Entry entry, int[] grantResults) {
+            if (grantResults.length != this.permissions.length) {
+                // The request has been interrupted
+                return NO_RESULTS;
+            }
+            int[] results = new int[entry.permissions.length];
+            for (int i = 0; i < results.length; i++) {
+                results[i] = grantResults[indexOf(entry.permissions[i])];
+            }
+            return results;
+        }
+
+        private int indexOf(String permission) {
+            for (int i = 0; i < this.permissions.length; i++) {
+                if (this.permissions[i].equals(permission)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    private static final class Entry {
+        final WeakReference<Object> target;
+        final String[] permissions;
+        final int requestCode;
+        final int priority;
+        final long requestedAt;
+        final long deadline;
+        final Client<Object> client;
+
+        Entry(Object target, String[] permissions, int requestCode, int priority, long timeoutMillis, Client<Object> client) {
+            this.target = new WeakReference<>(target);
+            this.permissions = permissions;
+            this.requestCode = requestCode;
+            this.priority = priority;
+            this.requestedAt = SystemClock.uptimeMillis();
+            this.deadline = timeoutMillis > 0 ? this.requestedAt + timeoutMillis : Long.MAX_VALUE;
+            this.client = client;
+        }
+    }
+}
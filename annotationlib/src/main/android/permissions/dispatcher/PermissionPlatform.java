@@ -0,0 +1,40 @@
+package permissions.dispatcher;
+
+import android.app.Activity;
+import android.app.Fragment;
+import android.content.Context;
+
+/**
+ * Calls into the Android platform made by the runtime.
+ * <p>
+ * The default implementation delegates to the framework and the support library. Another one can be installed
+ * with {@link PermissionUtils#setPlatform(PermissionPlatform)}, e.g. to run the runtime on the JVM in benchmarks.
+ * Implementations have to be thread-safe.
+ */
+public interface PermissionPlatform {
+
+    /**
+     * Returns the API level of the device, as Build.VERSION.SDK_INT.
+     */
+    int getSdkVersion();
+
+    /**
+     * Returns the target SDK version of the app, or -1 if it can't be determined.
+     */
+    int getTargetSdkVersion(Context context);
+
+    /**
+     * Checks a single permission.
+     *
+     * @return PackageManager.PERMISSION_GRANTED or PackageManager.PERMISSION_DENIED
+     */
+    int checkSelfPermission(Context context, String permission);
+
+    boolean shouldShowRequestPermissionRationale(Activity activity, String permission);
+
+    boolean shouldShowRequestPermissionRationale(Fragment fragment, String permission);
+
+    void requestPermissions(Activity activity, String[] permissions, int requestCode);
+
+    void requestPermissions(Fragment fragment, String[] permissions, int requestCode);
+}
@@ -0,0 +1,196 @@
+package permissions.dispatcher;
+
+import android.app.Activity;
+import android.content.Context;
+
+/**
+ * Permissions of a dispatcher or module, addressed by the ordinals assigned at compile time.
+ * <p>
+ * Generated code passes sets of permissions as bitmasks of ordinals. The table caches the grant state of all its
+ * permissions in two words, so checking permissions that have been checked before is a single volatile read
+ * and a few bitwise operations. The cache is dropped by {@link PermissionUtils#invalidate()}.
+ */
+public final class PermissionTable {
+
+    private static final State EMPTY = new State(-1, 0L, 0L);
+
+    private final String[] permissions;
+    // Permissions that don't exist in this SDK version, and thus don't need to be granted
+    private final long notExisting;
+
+    private volatile State state = EMPTY;
+
+    public PermissionTable(String... permissions) {
+        checkSize(permissions);
+        this.permissions = permissions;
+        long notExisting = 0;
+        for (int i = 0; i < permissions.length; i++) {
+            if (!PermissionUtils.permissionExists(permissions[i])) {
+                notExisting |= 1L << i;
+            }
+        }
+        this.notExisting = notExisting;
+    }
+
+    /**
+     * Creates a table from the API levels the permissions have to be granted from, as known at compile time.
+     * Unlike {@link #PermissionTable(String...)}, this doesn't look the permissions up in PermissionUtils.
+     *
+     * @param minSdkVersions API level of each permission, in the same order
+     * @param permissions    permissions, in ordinal order
+     */
+    public PermissionTable(int[] minSdkVersions, String... permissions) {
+        checkSize(permissions);
+        if (minSdkVersions.length != permissions.length) {
+            throw new IllegalArgumentException("Expected " + permissions.length + " API levels");
+        }
+        this.permissions = permissions;
+        int sdkVersion = PermissionUtils.getPlatform().getSdkVersion();
+        long notExisting = 0;
+        for (int i = 0; i < minSdkVersions.length; i++) {
+            if (sdkVersion < minSdkVersions[i]) {
+                notExisting |= 1L << i;
+            }
+        }
+        this.notExisting = notExisting;
+    }
+
+    private static void checkSize(String[] permissions) {
+        if (permissions.length > Long.SIZE) {
+            throw new IllegalArgumentException("At most " + Long.SIZE + " permissions are supported");
+        }
+    }
+
+    /**
+     * Returns the permission with the given ordinal.
+     */
+    public String getPermission(int ordinal) {
+        return this.permissions[ordinal];
+    }
+
+    /**
+     * Returns true if the Activity or Fragment has access to all permissions of the given mask.
+     *
+     * @param context context
+     * @param mask    permission ordinals
+     * @return returns true if the Activity or Fragment has access to all permissions of the given mask.
+     */
+    public boolean hasSelfPermissions(Context context, long mask) {
+        long required = mask & ~this.notExisting;
+        return (grantedMask(context, required) & required) == required;
+    }
+
+    /**
+     * Returns true if the Activity or Fragment has access to the permission with the given ordinal.
+     * Generated code calls this instead of {@link #hasSelfPermissions(Context, long)} for methods needing one permission.
+     *
+     * @param context context
+     * @param ordinal permission ordinal
+     * @return returns true if the Activity or Fragment has access to the permission with the given ordinal.
+     */
+    public boolean hasSelfPermission(Context context, int ordinal) {
+        long bit = 1L << ordinal;
+        if ((this.notExisting & bit) != 0) {
+            return true;
+        }
+        State current = this.state;
+        if (current.generation != PermissionUtils.generation() || (current.known & bit) == 0) {
+            current = refresh(context, bit);
+        }
+        return (current.granted & bit) != 0;
+    }
+
+    /**
+     * Returns the subset of the given mask that has been granted or doesn't exist in this SDK version.
+     *
+     * @param context context
+     * @param mask    permission ordinals
+     * @return granted permission ordinals
+     */
+    public long grantedMask(Context context, long mask) {
+        long required = mask & ~this.notExisting;
+        State current = this.state;
+        if (current.generation != PermissionUtils.generation() || (current.known & required) != required) {
+            current = refresh(context, required);
+        }
+        return (current.granted & mask) | (this.notExisting & mask);
+    }
+
+    /**
+     * Queries the grant and rationale state of the permissions of the given mask as one snapshot.
+     * Rationales are only queried for permissions that haven't been granted.
+     *
+     * @param activity activity
+     * @param mask     permission ordinals
+     * @return combination of {@link PermissionUtils#STATUS_GRANTED} and {@link PermissionUtils#STATUS_SHOW_RATIONALE}
+     */
+    public int queryStates(Activity activity, long mask) {
+        long denied = mask & ~grantedMask(activity, mask);
+        if (denied == 0) {
+            return PermissionUtils.STATUS_GRANTED;
+        }
+        PermissionPlatform platform = PermissionUtils.getPlatform();
+        for (int ordinal = 0; denied != 0; ordinal++, denied >>>= 1) {
+            if ((denied & 1L) != 0 && platform.shouldShowRequestPermissionRationale(activity, this.permissions[ordinal])) {
+                return PermissionUtils.STATUS_SHOW_RATIONALE;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Queries the grant and rationale state of the permission with the given ordinal.
+     *
+     * @param activity activity
+     * @param ordinal  permission ordinal
+     * @return combination of {@link PermissionUtils#STATUS_GRANTED} and {@link PermissionUtils#STATUS_SHOW_RATIONALE}
+     * @see #queryStates(Activity, long)
+     */
+    public int queryState(Activity activity, int ordinal) {
+        if (hasSelfPermission(activity, ordinal)) {
+            return PermissionUtils.STATUS_GRANTED;
+        }
+        return PermissionUtils.getPlatform().shouldShowRequestPermissionRationale(activity, this.permissions[ordinal])
+                ? PermissionUtils.STATUS_SHOW_RATIONALE : 0;
+    }
+
+    private State refresh(Context context, long required) {
+        PermissionUtils.registerLifecycleCallbacks(context);
+        // Read the generation before asking the platform, so an invalidation during the checks discards the result
+        int generation = PermissionUtils.generation();
+        State current = this.state;
+        long known = current.generation == generation ? current.known : 0L;
+        long granted = current.generation == generation ? current.granted : 0L;
+        long unknown = required & ~known;
+        for (int ordinal = 0; unknown != 0; ordinal++, unknown >>>= 1) {
+            if ((unknown & 1L) == 0) {
+                continue;
+            }
+            int result = PermissionUtils.checkSelfPermission(context, this.permissions[ordinal]);
+            if (result == PermissionUtils.CHECK_FAILED) {
+                // Reported as denied this time, but left unknown so the next call asks the platform again
+                continue;
+            }
+            long bit = 1L << ordinal;
+            if (result == PermissionUtils.CHECK_GRANTED) {
+                granted |= bit;
+            }
+            known |= bit;
+        }
+        State updated = new State(generation, known, granted);
+        this.state = updated;
+        return updated;
+    }
+
+    private static final class State {
+        final int generation;
+        final long known;
+        final long granted;
+
+        State(int generation, long known, long granted) {
+            this.generation = generation;
+            this.known = known;
+            this.granted = granted;
+        }
+    }
+}
@@ -1,38 +1,69 @@
 package permissions.dispatcher;
 
-import android.annotation.TargetApi;
 import android.app.Activity;
+import android.app.Application;
 import android.content.Context;
-import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
+import android.os.AsyncTask;
 import android.os.Build;
-import android.support.v4.app.ActivityCompat;
+import android.os.Bundle;
 import android.support.v4.util.SimpleArrayMap;
-import android.util.Log;
 
-import static android.support.v4.content.PermissionChecker.checkSelfPermission;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public final class PermissionUtils {
 
-    private static final String TAG = PermissionUtils.class.getSimpleName();
-    // Map of dangerous permissions introduced in later framework versions.
-    // Used to conditionally bypass permission-hold checks on older devices.
-    private static final SimpleArrayMap<String, Integer> MIN_SDK_PERMISSIONS;
+    /**
+     * Index of the bitset of granted permissions in the buffer filled by {@link #queryStates(Activity, String[], long[])}.
+     */
+    public static final int STATES_GRANTED = 0;
+    /**
+     * Index of the bitset of permissions needing a rationale.
+     */
+    public static final int STATES_SHOW_RATIONALE = 1;
+    /**
+     * Index of the bitset of permissions that don't exist in this SDK version, and thus don't need to be granted.
+     */
+    public static final int STATES_NOT_EXISTING = 2;
+    /**
+     * Minimum size of the buffer filled by the query methods.
+     */
+    public static final int STATES_SIZE = 3;
 
-    static {
-        MIN_SDK_PERMISSIONS = new SimpleArrayMap<>(8);
-        MIN_SDK_PERMISSIONS.put("com.android.voicemail.permission.ADD_VOICEMAIL", Build.VERSION_CODES.ICE_CREAM_SANDWICH);
-        MIN_SDK_PERMISSIONS.put("android.permission.BODY_SENSORS", Build.VERSION_CODES.KITKAT);
-        MIN_SDK_PERMISSIONS.put("android.permission.READ_CALL_LOG", Build.VERSION_CODES.JELLY_BEAN);
-        MIN_SDK_PERMISSIONS.put("android.permission.READ_EXTERNAL_STORAGE", Build.VERSION_CODES.JELLY_BEAN);
-        MIN_SDK_PERMISSIONS.put("android.permission.USE_SIP", Build.VERSION_CODES.GINGERBREAD);
-        MIN_SDK_PERMISSIONS.put("android.permission.WRITE_CALL_LOG", Build.VERSION_CODES.JELLY_BEAN);
-        MIN_SDK_PERMISSIONS.put("android.permission.SYSTEM_ALERT_WINDOW", Build.VERSION_CODES.M);
-        MIN_SDK_PERMISSIONS.put("android.permission.WRITE_SETTINGS", Build.VERSION_CODES.M);
-    }
+    /**
+     * Status flag set if all permissions have been granted or don't exist in this SDK version.
+     */
+    public static final int STATUS_GRANTED = 1;
+    /**
+     * Status flag set if at least one of the permissions needs a rationale.
+     */
+    public static final int STATUS_SHOW_RATIONALE = 2;
+
+    // Results of checkSelfPermission(Context, String)
+    static final int CHECK_DENIED = 0;
+    static final int CHECK_GRANTED = 1;
+    static final int CHECK_FAILED = 2;
+
+    private static volatile PermissionPlatform platform = DefaultPermissionPlatform.INSTANCE;
 
     private static volatile int targetSdkVersion = -1;
 
+    // Process-wide cache of checkSelfPermission() results, which are binder calls.
+    // Invalidation swaps in a new map, so a check racing with it can only populate the discarded one
+    private static volatile ConcurrentHashMap<String, Boolean> grantStates = new ConcurrentHashMap<>();
+    private static final AtomicBoolean LIFECYCLE_REGISTERED = new AtomicBoolean();
+    // Incremented by every invalidation, lets PermissionTable instances detect that their cache is outdated
+    private static final AtomicInteger GENERATION = new AtomicInteger();
+    // Permissions denied with "never ask again" since the process started, reported by the PermissionBroker
+    private static final Set<String> NEVER_ASK_AGAIN = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
     private PermissionUtils() {
     }
 
@@ -54,18 +85,29 @@ public final class PermissionUtils {
         return true;
     }
 
+    /**
+     * Checks the single permission of a request has been granted.
+     *
+     * @param grantResults results of a request for one permission
+     * @return returns true if the permission has been granted.
+     * @see #verifyPermissions(int...)
+     */
+    public static boolean verifyPermission(int[] grantResults) {
+        return grantResults.length == 1 && grantResults[0] == PackageManager.PERMISSION_GRANTED;
+    }
+
     /**
      * Returns true if the permission exists in this SDK version
      *
      * @param permission permission
      * @return returns true if the permission exists in this SDK version
      */
-    private static boolean permissionExists(String permission) {
+    static boolean permissionExists(String permission) {
         // Check if the permission could potentially be missing on this device
-        Integer minVersion = MIN_SDK_PERMISSIONS.get(permission);
+        Integer minVersion = MinSdkPermissions.MAP.get(permission);
         // If null was returned from the above call, there is no need for a device API level check for the permission;
         // otherwise, we check if its minimum API level requirement is met
-        return minVersion == null || Build.VERSION.SDK_INT >= minVersion;
+        return minVersion == null || platform.getSdkVersion() >= minVersion;
     }
 
     /**
@@ -76,6 +118,7 @@ public final class PermissionUtils {
      * @return returns true if the Activity or Fragment has access to all given permissions.
      */
     public static boolean hasSelfPermissions(Context context, String... permissions) {
+        registerLifecycleCallbacks(context);
         for (String permission : permissions) {
             if (permissionExists(permission) && !hasSelfPermission(context, permission)) {
                 return false;
@@ -84,6 +127,106 @@ public final class PermissionUtils {
         return true;
     }
 
+    /**
+     * Queries the grant state of all given permissions in a single pass.
+     * <p>
+     * If a buffer is given, bit i of states[STATES_GRANTED] is set if permissions[i] has been granted,
+     * and bit i of states[STATES_NOT_EXISTING] is set if it doesn't exist in this SDK version.
+     * Only the first 64 permissions are reported in the buffer, the returned status covers all of them.
+     *
+     * @param context     context
+     * @param permissions permission list
+     * @param states      optional buffer of at least {@link #STATES_SIZE} elements, may be null
+     * @return {@link #STATUS_GRANTED} if the Activity or Fragment has access to all given permissions, 0 otherwise
+     */
+    public static int queryGrantStates(Context context, String[] permissions, long[] states) {
+        registerLifecycleCallbacks(context);
+        int status = STATUS_GRANTED;
+        long granted = 0;
+        long notExisting = 0;
+        for (int i = 0; i < permissions.length; i++) {
+            String permission = permissions[i];
+            if (!permissionExists(permission)) {
+                notExisting |= bit(i);
+            } else if (hasSelfPermission(context, permission)) {
+                granted |= bit(i);
+            } else {
+                status = 0;
+            }
+        }
+        if (states != null) {
+            states[STATES_GRANTED] = granted;
+            states[STATES_SHOW_RATIONALE] = 0;
+            states[STATES_NOT_EXISTING] = notExisting;
+        }
+        return status;
+    }
+
+    /**
+     * Queries the grant and rationale state of all given permissions in a single pass.
+     * <p>
+     * Rationales are only queried for permissions that haven't been granted.
+     * If a buffer is given, bit i of states[STATES_SHOW_RATIONALE] is additionally set if permissions[i] needs a rationale.
+     *
+     * @param activity    activity
+     * @param permissions permission list
+     * @param states      optional buffer of at least {@link #STATES_SIZE} elements, may be null
+     * @return combination of {@link #STATUS_GRANTED} and {@link #STATUS_SHOW_RATIONALE}
+     * @see #queryGrantStates(Context, String[], long[])
+     */
+    public static int queryStates(Activity activity, String[] permissions, long[] states) {
+        registerLifecycleCallbacks(activity);
+        int status = STATUS_GRANTED;
+        long granted = 0;
+        long showRationale = 0;
+        long notExisting = 0;
+        for (int i = 0; i < permissions.length; i++) {
+            String permission = permissions[i];
+            if (!permissionExists(permission)) {
+                notExisting |= bit(i);
+            } else if (hasSelfPermission(activity, permission)) {
+                granted |= bit(i);
+            } else {
+                status &= ~STATUS_GRANTED;
+                if (platform.shouldShowRequestPermissionRationale(activity, permission)) {
+                    status |= STATUS_SHOW_RATIONALE;
+                    showRationale |= bit(i);
+                }
+            }
+        }
+        if (states != null) {
+            states[STATES_GRANTED] = granted;
+            states[STATES_SHOW_RATIONALE] = showRationale;
+            states[STATES_NOT_EXISTING] = notExisting;
+        }
+        return status;
+    }
+
+    // Map of dangerous permissions introduced in later framework versions.
+    // Used to conditionally bypass permission-hold checks on older devices.
+    // Generated code gets these API levels from the processor, so the map is only built
+    // once a permission is checked by name.
+    // Keep in sync with the processor's permission-metadata.txt
+    private static final class MinSdkPermissions {
+        static final SimpleArrayMap<String, Integer> MAP;
+
+        static {
+            MAP = new SimpleArrayMap<>(8);
+            MAP.put("com.android.voicemail.permission.ADD_VOICEMAIL", Build.VERSION_CODES.ICE_CREAM_SANDWICH);
+            MAP.put("android.permission.BODY_SENSORS", Build.VERSION_CODES.KITKAT);
+            MAP.put("android.permission.READ_CALL_LOG", Build.VERSION_CODES.JELLY_BEAN);
+            MAP.put("android.permission.READ_EXTERNAL_STORAGE", Build.VERSION_CODES.JELLY_BEAN);
+            MAP.put("android.permission.USE_SIP", Build.VERSION_CODES.GINGERBREAD);
+            MAP.put("android.permission.WRITE_CALL_LOG", Build.VERSION_CODES.JELLY_BEAN);
+            MAP.put("android.permission.SYSTEM_ALERT_WINDOW", Build.VERSION_CODES.M);
+            MAP.put("android.permission.WRITE_SETTINGS", Build.VERSION_CODES.M);
+        }
+    }
+
+    private static long bit(int index) {
+        return index < Long.SIZE ? 1L << index : 0L;
+    }
+
     /**
      * Determine context has access to the given permission.
      * <p>
@@ -95,12 +238,332 @@ public final class PermissionUtils {
      * @return returns true if context has access to the given permission, false otherwise.
      * @see #hasSelfPermissions(Context, String...)
      */
-    private static boolean hasSelfPermission(Context context, String permission) {
+    static boolean hasSelfPermission(Context context, String permission) {
+        return checkSelfPermission(context, permission) == CHECK_GRANTED;
+    }
+
+    /**
+     * Determine context has access to the given permission, telling a denied permission from a failed check.
+     * Failed checks aren't cached.
+     *
+     * @param context    context
+     * @param permission permission
+     * @return {@link #CHECK_GRANTED}, {@link #CHECK_DENIED}, or {@link #CHECK_FAILED} if the platform threw
+     * @see #hasSelfPermission(Context, String)
+     */
+    static int checkSelfPermission(Context context, String permission) {
+        ConcurrentHashMap<String, Boolean> states = grantStates;
+        Boolean cached = states.get(permission);
+        if (cached != null) {
+            return cached ? CHECK_GRANTED : CHECK_DENIED;
+        }
+        int result = askPlatform(context, permission);
+        // Don't cache failures, the next check may succeed
+        if (result != CHECK_FAILED) {
+            states.put(permission, result == CHECK_GRANTED);
+        }
+        return result;
+    }
+
+    /**
+     * Like {@link #checkSelfPermission(Context, String)}, but always asks the platform and updates the cache.
+     * <p>
+     * For checks that don't run while an Activity is in the foreground, which is when the cache is invalidated.
+     * A permission granted in the system settings meanwhile is no longer reported as denied with "never ask again".
+     *
+     * @param context    context
+     * @param permission permission
+     * @return {@link #CHECK_GRANTED}, {@link #CHECK_DENIED}, or {@link #CHECK_FAILED} if the platform threw
+     */
+    static int refreshSelfPermission(Context context, String permission) {
+        ConcurrentHashMap<String, Boolean> states = grantStates;
+        int result = askPlatform(context, permission);
+        if (result == CHECK_FAILED) {
+            return result;
+        }
+        boolean granted = result == CHECK_GRANTED;
+        Boolean cached = states.put(permission, granted);
+        if (cached != null && cached != granted) {
+            // The PermissionTables cached the outdated state as well
+            invalidate();
+        }
+        if (granted) {
+            NEVER_ASK_AGAIN.remove(permission);
+        }
+        return result;
+    }
+
+    private static int askPlatform(Context context, String permission) {
+        PermissionMetrics metrics = FlowMetrics.listener;
+        long start = 0L;
+        if (metrics != null) {
+            FlowMetrics.PLATFORM_CHECKS.incrementAndGet();
+            start = System.nanoTime();
+            metrics.onPlatformCheckStarted(permission, start);
+        }
+        boolean granted;
         try {
-            return checkSelfPermission(context, permission) == PackageManager.PERMISSION_GRANTED;
+            granted = platform.checkSelfPermission(context, permission) == PackageManager.PERMISSION_GRANTED;
         } catch (RuntimeException t) {
-            return false;
+            if (metrics != null) {
+                long end = System.nanoTime();
+                metrics.onPlatformCheckFailed(permission, t, end, end - start);
+            }
+            return CHECK_FAILED;
+        }
+        if (metrics != null) {
+            long end = System.nanoTime();
+            metrics.onPlatformCheckFinished(permission, granted, end, end - start);
+        }
+        return granted ? CHECK_GRANTED : CHECK_DENIED;
+    }
+
+    /**
+     * Installs the listener receiving the stages of permission flows and the platform checks,
+     * replacing the current one.
+     *
+     * @param metrics listener, or null to stop reporting
+     */
+    public static void setMetrics(PermissionMetrics metrics) {
+        FlowMetrics.listener = metrics;
+        FlowMetrics.clear();
+    }
+
+    /**
+     * Reports the start of a flow to the {@link PermissionMetrics} listener, if any. Called by the generated dispatchers.
+     */
+    public static void flowStarted(Object target, int requestCode) {
+        PermissionMetrics metrics = FlowMetrics.listener;
+        if (metrics != null) {
+            FlowMetrics.flowStarted(metrics, target, requestCode);
+        }
+    }
+
+    /**
+     * Reports a rationale to the {@link PermissionMetrics} listener, if any. Called by the generated dispatchers.
+     */
+    public static void rationaleShown(Object target, int requestCode) {
+        PermissionMetrics metrics = FlowMetrics.listener;
+        if (metrics != null) {
+            metrics.onRationaleShown(target, requestCode, System.nanoTime());
+        }
+    }
+
+    /**
+     * Reports the end of a flow to the {@link PermissionMetrics} listener, if any. Called by the generated dispatchers.
+     */
+    public static void flowFinished(Object target, int requestCode, PermissionOutcome.Result result) {
+        PermissionMetrics metrics = FlowMetrics.listener;
+        if (metrics != null) {
+            FlowMetrics.flowFinished(metrics, target, requestCode, result);
+        }
+    }
+
+    /**
+     * Discards all cached grant states, so the next check asks the platform again.
+     * <p>
+     * The generated dispatchers call this when a permission result arrives, and it is called whenever
+     * an Activity resumes, since the user may have changed permissions in the system settings meanwhile.
+     * Call it yourself after granting or revoking permissions by other means.
+     */
+    public static void invalidate() {
+        grantStates = new ConcurrentHashMap<>();
+        GENERATION.incrementAndGet();
+    }
+
+    static int generation() {
+        return GENERATION.get();
+    }
+
+    /**
+     * Registers the callbacks invalidating the cache when an Activity resumes, once per process.
+     * They also let the PermissionBroker notice requests whose result got lost.
+     */
+    static void registerLifecycleCallbacks(Context context) {
+        if (LIFECYCLE_REGISTERED.get()) {
+            return;
+        }
+        Context applicationContext = context.getApplicationContext();
+        if (!(applicationContext instanceof Application) || !LIFECYCLE_REGISTERED.compareAndSet(false, true)) {
+            return;
         }
+        ((Application) applicationContext).registerActivityLifecycleCallbacks(new Application.ActivityLifecycleCallbacks() {
+            @Override
+            public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+            }
+
+            @Override
+            public void onActivityStarted(Activity activity) {
+            }
+
+            @Override
+            public void onActivityResumed(Activity activity) {
+                invalidate();
+                PermissionBroker.getInstance().onActivityResumed(activity);
+            }
+
+            @Override
+            public void onActivityPaused(Activity activity) {
+                PermissionBroker.getInstance().onActivityPaused(activity);
+            }
+
+            @Override
+            public void onActivityStopped(Activity activity) {
+            }
+
+            @Override
+            public void onActivitySaveInstanceState(Activity activity, Bundle outState) {
+            }
+
+            @Override
+            public void onActivityDestroyed(Activity activity) {
+                PendingRequests.getInstance().onActivityDestroyed(activity);
+            }
+        });
+    }
+
+    /**
+     * Resolves the target SDK version and the grant state of every indexed permission on a background thread,
+     * so the first checks on the main thread don't have to ask the platform.
+     * Call this from {@link Application#onCreate()}.
+     *
+     * @param context context
+     * @see #prefetch(Context, Executor)
+     */
+    public static void prefetch(Context context) {
+        prefetch(context, AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    /**
+     * Resolves the target SDK version and the grant state of every indexed permission on the given executor.
+     * <p>
+     * The permissions are taken from the {@link PermissionIndex} services, which the processor generates
+     * for every module in compact mode. The results are published to the same caches the checks read from,
+     * so the first checks on the main thread don't have to ask the platform.
+     *
+     * @param context  context
+     * @param executor executor running the queries
+     */
+    public static void prefetch(Context context, Executor executor) {
+        final Context applicationContext = context.getApplicationContext();
+        registerLifecycleCallbacks(applicationContext);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                getTargetSdkVersion(applicationContext);
+                for (String permission : indexedPermissions()) {
+                    if (permissionExists(permission)) {
+                        hasSelfPermission(applicationContext, permission);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the permissions of all modules' {@link PermissionIndex} services.
+     */
+    static Set<String> indexedPermissions() {
+        Set<String> permissions = new LinkedHashSet<>();
+        for (PermissionIndex index : ServiceLoader.load(PermissionIndex.class, PermissionIndex.class.getClassLoader())) {
+            for (String permission : index.getPermissions()) {
+                permissions.add(permission);
+            }
+        }
+        return permissions;
+    }
+
+    /**
+     * Checks the given permissions on the given executor, without involving the main thread.
+     * <p>
+     * The outcome is {@link PermissionOutcome.Result#GRANTED} if all permissions have been granted or don't exist
+     * in this SDK version, {@link PermissionOutcome.Result#NEVER_ASK_AGAIN} if one of them has been denied with
+     * "never ask again" in a request since the process started, and {@link PermissionOutcome.Result#DENIED} otherwise.
+     * The check is skipped if the outcome has been cancelled before it runs.
+     * <p>
+     * Since background code may run long after the last Activity was in the foreground, the permissions are
+     * checked with the platform rather than read from the cache, which gets their fresh states in turn.
+     *
+     * @param context     context
+     * @param executor    executor running the check and completing the outcome
+     * @param permissions permission list
+     * @return outcome of the check
+     */
+    public static PermissionOutcome checkAsync(Context context, Executor executor, final String... permissions) {
+        final Context applicationContext = context.getApplicationContext();
+        registerLifecycleCallbacks(applicationContext);
+        final PermissionOutcome outcome = PermissionOutcome.create();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!outcome.isDone()) {
+                    outcome.complete(resultOf(applicationContext, permissions));
+                }
+            }
+        });
+        return outcome;
+    }
+
+    /**
+     * Returns the outcome of a request, given its results.
+     */
+    static PermissionOutcome.Result resultOf(String[] permissions, int[] grantResults) {
+        if (verifyPermissions(grantResults)) {
+            return PermissionOutcome.Result.GRANTED;
+        }
+        if (grantResults.length == permissions.length) {
+            for (int i = 0; i < permissions.length; i++) {
+                if (grantResults[i] != PackageManager.PERMISSION_GRANTED && NEVER_ASK_AGAIN.contains(permissions[i])) {
+                    return PermissionOutcome.Result.NEVER_ASK_AGAIN;
+                }
+            }
+        }
+        return PermissionOutcome.Result.DENIED;
+    }
+
+    private static PermissionOutcome.Result resultOf(Context context, String... permissions) {
+        PermissionOutcome.Result result = PermissionOutcome.Result.GRANTED;
+        for (String permission : permissions) {
+            if (!permissionExists(permission) || refreshSelfPermission(context, permission) == CHECK_GRANTED) {
+                continue;
+            }
+            if (NEVER_ASK_AGAIN.contains(permission)) {
+                return PermissionOutcome.Result.NEVER_ASK_AGAIN;
+            }
+            result = PermissionOutcome.Result.DENIED;
+        }
+        return result;
+    }
+
+    /**
+     * Remembers which permissions of a request have been denied with "never ask again",
+     * which can only be told apart from the state before the first request once a result has arrived.
+     */
+    static void recordResults(Activity activity, String[] permissions, int[] grantResults) {
+        if (grantResults.length != permissions.length) {
+            // The request has been interrupted
+            return;
+        }
+        for (int i = 0; i < permissions.length; i++) {
+            String permission = permissions[i];
+            if (grantResults[i] != PackageManager.PERMISSION_GRANTED
+                    && !platform.shouldShowRequestPermissionRationale(activity, permission)) {
+                NEVER_ASK_AGAIN.add(permission);
+            } else {
+                NEVER_ASK_AGAIN.remove(permission);
+            }
+        }
+    }
+
+    /**
+     * Requests the given permissions for an Activity through the platform. Called by the generated dispatchers.
+     *
+     * @param activity    activity
+     * @param permissions permissions list
+     * @param requestCode Request code connected to the permission request
+     */
+    public static void requestPermissions(Activity activity, String[] permissions, int requestCode) {
+        platform.requestPermissions(activity, permissions, requestCode);
     }
 
     /**
@@ -112,7 +575,7 @@ public final class PermissionUtils {
      */
     public static boolean shouldShowRequestPermissionRationale(Activity activity, String... permissions) {
         for (String permission : permissions) {
-            if (ActivityCompat.shouldShowRequestPermissionRationale(activity, permission)) {
+            if (platform.shouldShowRequestPermissionRationale(activity, permission)) {
                 return true;
             }
         }
@@ -125,17 +588,29 @@ public final class PermissionUtils {
      * @param context context
      * @return target sdk version
      */
-    @TargetApi(Build.VERSION_CODES.DONUT)
     public static int getTargetSdkVersion(Context context) {
         if (targetSdkVersion != -1) {
             return targetSdkVersion;
         }
-        try {
-            PackageInfo packageInfo = context.getPackageManager().getPackageInfo(context.getPackageName(), 0);
-            targetSdkVersion = packageInfo.applicationInfo.targetSdkVersion;
-        } catch (PackageManager.NameNotFoundException ignored) {
-            Log.e(TAG,ignored.getMessage());
-        }
+        targetSdkVersion = platform.getTargetSdkVersion(context);
         return targetSdkVersion;
     }
+
+    /**
+     * Replaces the calls into the platform, e.g. to run the runtime on the JVM. Drops all cached states.
+     * <p>
+     * Install the platform before the first dispatcher is used, since permission tables
+     * read the SDK version when they are created.
+     *
+     * @param platform platform, or null to restore the default one
+     */
+    public static void setPlatform(PermissionPlatform platform) {
+        PermissionUtils.platform = platform != null ? platform : DefaultPermissionPlatform.INSTANCE;
+        targetSdkVersion = -1;
+        invalidate();
+    }
+
+    public static PermissionPlatform getPlatform() {
+        return platform;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,92 @@
+package permissions.dispatcher;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Trace;
+
+/**
+ * PermissionMetrics wrapping every platform check in an {@link Trace} section, so checks made on the main thread
+ * show up in systrace. All stages are forwarded to an optional delegate.
+ * <p>
+ * Flows span several main thread messages, while a section has to end within the message it began in,
+ * so flows aren't traced. Does nothing but forwarding below API level 18.
+ */
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+public final class TracePermissionMetrics extends PermissionMetrics {
+
+    private static final String CHECK_SECTION = "PermissionUtils.checkSelfPermission";
+
+    private final PermissionMetrics delegate;
+
+    private final boolean enabled = Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2;
+
+    public TracePermissionMetrics() {
+        this(null);
+    }
+
+    /**
+     * @param delegate listener receiving all stages as well, may be null
+     */
+    public TracePermissionMetrics(PermissionMetrics delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void onFlowStarted(Object target, int requestCode, long timestampNanos) {
+        if (this.delegate != null) {
+            this.delegate.onFlowStarted(target, requestCode, timestampNanos);
+        }
+    }
+
+    @Override
+    public void onRationaleShown(Object target, int requestCode, long timestampNanos) {
+        if (this.delegate != null) {
+            this.delegate.onRationaleShown(target, requestCode, timestampNanos);
+        }
+    }
+
+    @Override
+    public void onPermissionsRequested(Object target, int requestCode, long timestampNanos) {
+        if (this.delegate != null) {
+            this.delegate.onPermissionsRequested(target, requestCode, timestampNanos);
+        }
+    }
+
+    @Override
+    public void onFlowFinished(Object target, int requestCode, PermissionOutcome.Result result, long timestampNanos,
+                               long durationNanos, int platformChecks) {
+        if (this.delegate != null) {
+            this.delegate.onFlowFinished(target, requestCode, result, timestampNanos, durationNanos, platformChecks);
+        }
+    }
+
+    @Override
+    public void onPlatformCheckStarted(String permission, long timestampNanos) {
+        if (this.enabled) {
+            Trace.beginSection(CHECK_SECTION);
+        }
+        if (this.delegate != null) {
+            this.delegate.onPlatformCheckStarted(permission, timestampNanos);
+        }
+    }
+
+    @Override
+    public void onPlatformCheckFinished(String permission, boolean granted, long timestampNanos, long durationNanos) {
+        if (this.enabled) {
+            Trace.endSection();
+        }
+        if (this.delegate != null) {
+            this.delegate.onPlatformCheckFinished(permission, granted, timestampNanos, durationNanos);
+        }
+    }
+
+    @Override
+    public void onPlatformCheckFailed(String permission, RuntimeException error, long timestampNanos, long durationNanos) {
+        if (this.enabled) {
+            Trace.endSection();
+        }
+        if (this.delegate != null) {
+            this.delegate.onPlatformCheckFailed(permission, error, timestampNanos, durationNanos);
+        }
+    }
+}
@@ -1,7 +1,10 @@
 package permissions.dispatcher.v13;
 
 import android.app.Fragment;
-import android.support.v13.app.FragmentCompat;
+
+import permissions.dispatcher.PermissionPlatform;
+import permissions.dispatcher.PermissionTable;
+import permissions.dispatcher.PermissionUtils;
 
 public final class V13Access {
 
@@ -16,14 +19,86 @@ public final class V13Access {
      * @return returns true if one of the permission is needed to show rationale.
      */
     public boolean shouldShowRequestPermissionRationale(Fragment fragment, String... permissions) {
+        PermissionPlatform platform = PermissionUtils.getPlatform();
         for (String permission : permissions) {
-            if (FragmentCompat.shouldShowRequestPermissionRationale(fragment, permission)) {
+            if (platform.shouldShowRequestPermissionRationale(fragment, permission)) {
                 return true;
             }
         }
         return false;
     }
 
+    /**
+     * Queries the grant and rationale state of all given permissions in a single pass.
+     *
+     * @param fragment    fragment
+     * @param permissions permission list
+     * @param states      optional buffer of at least {@link PermissionUtils#STATES_SIZE} elements, may be null
+     * @return combination of {@link PermissionUtils#STATUS_GRANTED} and {@link PermissionUtils#STATUS_SHOW_RATIONALE}
+     * @see PermissionUtils#queryStates(android.app.Activity, String[], long[])
+     */
+    public int queryStates(Fragment fragment, String[] permissions, long[] states) {
+        int status = PermissionUtils.queryGrantStates(fragment.getActivity(), permissions, states);
+        if ((status & PermissionUtils.STATUS_GRANTED) != 0) {
+            return status;
+        }
+        // Without a buffer, the granted permissions aren't known; the platform reports no rationale for them anyway
+        long known = states == null ? 0 : states[PermissionUtils.STATES_GRANTED] | states[PermissionUtils.STATES_NOT_EXISTING];
+        long showRationale = 0;
+        PermissionPlatform platform = PermissionUtils.getPlatform();
+        for (int i = 0; i < permissions.length; i++) {
+            long bit = i < Long.SIZE ? 1L << i : 0L;
+            if ((known & bit) == 0 && platform.shouldShowRequestPermissionRationale(fragment, permissions[i])) {
+                status |= PermissionUtils.STATUS_SHOW_RATIONALE;
+                showRationale |= bit;
+            }
+        }
+        if (states != null) {
+            states[PermissionUtils.STATES_SHOW_RATIONALE] = showRationale;
+        }
+        return status;
+    }
+
+    /**
+     * Queries the grant and rationale state of the permissions of the given mask as one snapshot.
+     *
+     * @param fragment fragment
+     * @param table    table defining the permission ordinals
+     * @param mask     permission ordinals
+     * @return combination of {@link PermissionUtils#STATUS_GRANTED} and {@link PermissionUtils#STATUS_SHOW_RATIONALE}
+     * @see PermissionTable#queryStates(android.app.Activity, long)
+     */
+    public int queryStates(Fragment fragment, PermissionTable table, long mask) {
+        long denied = mask & ~table.grantedMask(fragment.getActivity(), mask);
+        if (denied == 0) {
+            return PermissionUtils.STATUS_GRANTED;
+        }
+        PermissionPlatform platform = PermissionUtils.getPlatform();
+        for (int ordinal = 0; denied != 0; ordinal++, denied >>>= 1) {
+            if ((denied & 1L) != 0 && platform.shouldShowRequestPermissionRationale(fragment, table.getPermission(ordinal))) {
+                return PermissionUtils.STATUS_SHOW_RATIONALE;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Queries the grant and rationale state of the permission with the given ordinal.
+     *
+     * @param fragment fragment
+     * @param table    table defining the permission ordinals
+     * @param ordinal  permission ordinal
+     * @return combination of {@link PermissionUtils#STATUS_GRANTED} and {@link PermissionUtils#STATUS_SHOW_RATIONALE}
+     * @see PermissionTable#queryState(android.app.Activity, int)
+     */
+    public int queryState(Fragment fragment, PermissionTable table, int ordinal) {
+        if (table.hasSelfPermission(fragment.getActivity(), ordinal)) {
+            return PermissionUtils.STATUS_GRANTED;
+        }
+        return PermissionUtils.getPlatform().shouldShowRequestPermissionRationale(fragment, table.getPermission(ordinal))
+                ? PermissionUtils.STATUS_SHOW_RATIONALE : 0;
+    }
+
     /**
      * Requests the provided permissions for a Fragment instance.
      *
@@ -32,6 +107,6 @@ public final class V13Access {
      * @param requestCode Request code connected to the permission request
      */
     public void requestPermissions(Fragment fragment, String[] permissions, int requestCode) {
-        FragmentCompat.requestPermissions(fragment, permissions, requestCode);
+        PermissionUtils.getPlatform().requestPermissions(fragment, permissions, requestCode);
     }
 }
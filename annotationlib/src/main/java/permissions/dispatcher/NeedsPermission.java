@@ -12,4 +12,16 @@ import java.lang.annotation.Target;
 @Retention(RetentionPolicy.CLASS)
 public @interface NeedsPermission {
     String[] value();
+
+    /**
+     * Priority of the request among the queued requests of the same Activity. Higher priorities are asked first.
+     */
+    int priority() default 0;
+
+    /**
+     * Maximum time in milliseconds the request may wait for earlier requests of the same Activity, 0 to wait indefinitely.
+     * A request that expires receives empty grant results, like a request interrupted by the platform,
+     * and the dispatcher calls the {@link OnPermissionDenied} method.
+     */
+    long timeoutMillis() default 0;
 }
\ No newline at end of file
@@ -0,0 +1,12 @@
+package permissions.dispatcher;
+
+/**
+ * Index of the permissions used by the {@link NeedsPermission} methods of a module.
+ * <p>
+ * In compact mode, the processor generates an implementation as part of the module's registry
+ * and registers it as service, so the indexes of all modules can be discovered at runtime.
+ */
+public interface PermissionIndex {
+
+    String[] getPermissions();
+}
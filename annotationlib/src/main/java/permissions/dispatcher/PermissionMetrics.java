@@ -0,0 +1,60 @@
+package permissions.dispatcher;
+
+/**
+ * Listener for the stages of permission flows and the platform checks they make.
+ * <p>
+ * Install a listener with {@code PermissionUtils.setMetrics()}. Without a listener, every stage costs a single
+ * volatile read. Override the methods of interest; all of them do nothing by default.
+ * <p>
+ * A flow starts with a {@code WithCheck} call and is identified by its target and request code.
+ * Timestamps are taken from {@link System#nanoTime()}, which is monotonic, so they can be subtracted
+ * but don't relate to wall-clock time. Flow stages are reported on the main thread,
+ * platform checks on the thread making them.
+ */
+public abstract class PermissionMetrics {
+
+    /**
+     * Called when a {@code WithCheck} method starts.
+     */
+    public void onFlowStarted(Object target, int requestCode, long timestampNanos) {
+    }
+
+    /**
+     * Called right before the {@link OnShowRationale} method of a flow is called.
+     */
+    public void onRationaleShown(Object target, int requestCode, long timestampNanos) {
+    }
+
+    /**
+     * Called when a flow hands its permissions to the {@link PermissionBroker}.
+     */
+    public void onPermissionsRequested(Object target, int requestCode, long timestampNanos) {
+    }
+
+    /**
+     * Called when a flow has ended, either right away because its permissions had been granted,
+     * or once the result of its request arrived, or because its rationale was cancelled.
+     *
+     * @param durationNanos  time since the flow started, or -1 if its start hasn't been reported,
+     *                       e.g. because the target has been recreated meanwhile
+     * @param platformChecks number of platform checks made by all threads while the flow ran, or -1 if unknown
+     */
+    public void onFlowFinished(Object target, int requestCode, PermissionOutcome.Result result, long timestampNanos,
+                               long durationNanos, int platformChecks) {
+    }
+
+    /**
+     * Called before a permission is checked with the platform, i.e. when its grant state isn't cached.
+     */
+    public void onPlatformCheckStarted(String permission, long timestampNanos) {
+    }
+
+    public void onPlatformCheckFinished(String permission, boolean granted, long timestampNanos, long durationNanos) {
+    }
+
+    /**
+     * Called when the platform check threw, in which case the permission is reported as not granted.
+     */
+    public void onPlatformCheckFailed(String permission, RuntimeException error, long timestampNanos, long durationNanos) {
+    }
+}
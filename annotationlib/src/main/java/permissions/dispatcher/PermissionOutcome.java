@@ -0,0 +1,285 @@
+package permissions.dispatcher;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Result of a permission check that completes asynchronously.
+ * <p>
+ * Outcomes are thread-safe and never block: {@link #getResult()} returns null until the outcome has completed,
+ * and callbacks run on the executor they were registered with. An outcome completes or is cancelled at most once.
+ * Cancelling an outcome drops its callbacks and cancels the outcomes derived from it by {@link #then(Continuation)}
+ * and {@link #all(PermissionOutcome...)}, but not the outcomes it has been derived from.
+ */
+public final class PermissionOutcome {
+
+    /**
+     * Results ordered by severity, {@link #all(PermissionOutcome...)} reports the most severe one.
+     */
+    public enum Result {
+        GRANTED,
+        DENIED,
+        /**
+         * Denied, and the user asked not to be asked again. Only reported for permissions
+         * whose request has been denied this way since the process started.
+         */
+        NEVER_ASK_AGAIN
+    }
+
+    public interface Callback {
+
+        void onResult(Result result);
+    }
+
+    /**
+     * Continues with another outcome once an outcome has completed.
+     */
+    public interface Continuation {
+
+        /**
+         * @return the next outcome, or null to pass the result on
+         */
+        PermissionOutcome then(Result result);
+    }
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    // Set once the outcome has completed, guarded by this
+    private Result result;
+
+    private boolean cancelled;
+
+    // Null once the outcome is done, guarded by this
+    private List<Listener> listeners = new ArrayList<>(2);
+
+    private PermissionOutcome() {
+    }
+
+    /**
+     * Creates a pending outcome, to be completed by {@link #complete(Result)}.
+     */
+    public static PermissionOutcome create() {
+        return new PermissionOutcome();
+    }
+
+    public static PermissionOutcome completed(Result result) {
+        PermissionOutcome outcome = new PermissionOutcome();
+        outcome.complete(result);
+        return outcome;
+    }
+
+    /**
+     * Completes the outcome and runs its callbacks.
+     *
+     * @return false if the outcome had already completed or been cancelled
+     */
+    public boolean complete(Result result) {
+        if (result == null) {
+            throw new NullPointerException("result == null");
+        }
+        List<Listener> listeners;
+        synchronized (this) {
+            if (this.listeners == null) {
+                return false;
+            }
+            this.result = result;
+            listeners = this.listeners;
+            this.listeners = null;
+        }
+        for (Listener listener : listeners) {
+            listener.onResult(result);
+        }
+        return true;
+    }
+
+    /**
+     * Cancels the outcome, its callbacks won't run.
+     *
+     * @return false if the outcome had already completed or been cancelled
+     */
+    public boolean cancel() {
+        List<Listener> listeners;
+        synchronized (this) {
+            if (this.listeners == null) {
+                return false;
+            }
+            this.cancelled = true;
+            listeners = this.listeners;
+            this.listeners = null;
+        }
+        for (Listener listener : listeners) {
+            listener.onCancel();
+        }
+        return true;
+    }
+
+    public synchronized boolean isDone() {
+        return this.listeners == null;
+    }
+
+    public synchronized boolean isCancelled() {
+        return this.cancelled;
+    }
+
+    /**
+     * Returns the result, or null if the outcome hasn't completed yet or has been cancelled.
+     */
+    public synchronized Result getResult() {
+        return this.result;
+    }
+
+    /**
+     * Runs the callback on the thread completing the outcome, or right away if it has already completed.
+     *
+     * @see #addCallback(Executor, Callback)
+     */
+    public PermissionOutcome addCallback(Callback callback) {
+        return addCallback(DIRECT, callback);
+    }
+
+    /**
+     * Runs the callback on the given executor once the outcome has completed.
+     *
+     * @return this outcome
+     */
+    public PermissionOutcome addCallback(final Executor executor, final Callback callback) {
+        addListener(new Listener() {
+            @Override
+            public void onResult(final Result result) {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onResult(result);
+                    }
+                });
+            }
+
+            @Override
+            public void onCancel() {
+            }
+        });
+        return this;
+    }
+
+    /**
+     * Continues with another outcome on the thread completing this one.
+     *
+     * @see #then(Executor, Continuation)
+     */
+    public PermissionOutcome then(Continuation continuation) {
+        return then(DIRECT, continuation);
+    }
+
+    /**
+     * Returns an outcome completing with the result of the outcome the continuation returns,
+     * which is called on the given executor once this outcome has completed.
+     */
+    public PermissionOutcome then(final Executor executor, final Continuation continuation) {
+        final PermissionOutcome derived = new PermissionOutcome();
+        addListener(new Listener() {
+            @Override
+            public void onResult(final Result result) {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (derived.isDone()) {
+                            return;
+                        }
+                        PermissionOutcome next = continuation.then(result);
+                        if (next == null) {
+                            derived.complete(result);
+                        } else {
+                            next.forwardTo(derived);
+                        }
+                    }
+                });
+            }
+
+            @Override
+            public void onCancel() {
+                derived.cancel();
+            }
+        });
+        return derived;
+    }
+
+    /**
+     * Returns an outcome completing once all given outcomes have completed, with the most severe of their results.
+     * It is cancelled as soon as one of them is cancelled. Without outcomes, it is granted right away.
+     */
+    public static PermissionOutcome all(PermissionOutcome... outcomes) {
+        final PermissionOutcome combined = new PermissionOutcome();
+        if (outcomes.length == 0) {
+            combined.complete(Result.GRANTED);
+            return combined;
+        }
+        final AtomicInteger remaining = new AtomicInteger(outcomes.length);
+        final AtomicReference<Result> worst = new AtomicReference<>(Result.GRANTED);
+        Listener listener = new Listener() {
+            @Override
+            public void onResult(Result result) {
+                Result current;
+                do {
+                    current = worst.get();
+                } while (result.ordinal() > current.ordinal() && !worst.compareAndSet(current, result));
+                if (remaining.decrementAndGet() == 0) {
+                    combined.complete(worst.get());
+                }
+            }
+
+            @Override
+            public void onCancel() {
+                combined.cancel();
+            }
+        };
+        for (PermissionOutcome outcome : outcomes) {
+            outcome.addListener(listener);
+        }
+        return combined;
+    }
+
+    private void forwardTo(final PermissionOutcome derived) {
+        addListener(new Listener() {
+            @Override
+            public void onResult(Result result) {
+                derived.complete(result);
+            }
+
+            @Override
+            public void onCancel() {
+                derived.cancel();
+            }
+        });
+    }
+
+    private void addListener(Listener listener) {
+        Result result;
+        synchronized (this) {
+            if (this.listeners != null) {
+                this.listeners.add(listener);
+                return;
+            }
+            result = this.result;
+        }
+        if (result != null) {
+            listener.onResult(result);
+        } else {
+            listener.onCancel();
+        }
+    }
+
+    private interface Listener {
+
+        void onResult(Result result);
+
+        void onCancel();
+    }
+}
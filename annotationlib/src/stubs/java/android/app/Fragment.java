@@ -0,0 +1,16 @@
+package android.app;
+
+public class Fragment {
+    private Activity activity;
+
+    public final Activity getActivity() {
+        return this.activity;
+    }
+
+    /**
+     * Not part of the framework API, stands in for the FragmentManager attaching the Fragment.
+     */
+    public void attach(Activity activity) {
+        this.activity = activity;
+    }
+}
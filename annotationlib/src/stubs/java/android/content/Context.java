@@ -0,0 +1,18 @@
+package android.content;
+
+import android.content.pm.PackageManager;
+
+public class Context {
+
+    public Context getApplicationContext() {
+        return this;
+    }
+
+    public PackageManager getPackageManager() {
+        throw new RuntimeException("Stub!");
+    }
+
+    public String getPackageName() {
+        throw new RuntimeException("Stub!");
+    }
+}
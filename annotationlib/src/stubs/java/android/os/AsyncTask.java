@@ -0,0 +1,8 @@
+package android.os;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+public abstract class AsyncTask<Params, Progress, Result> {
+    public static final Executor THREAD_POOL_EXECUTOR = Executors.newCachedThreadPool();
+}
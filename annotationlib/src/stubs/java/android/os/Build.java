@@ -0,0 +1,19 @@
+package android.os;
+
+public class Build {
+
+    public static class VERSION {
+        // Not a compile-time constant, so the runtime doesn't inline it
+        public static final int SDK_INT = Integer.getInteger("android.sdk", VERSION_CODES.M);
+    }
+
+    public static class VERSION_CODES {
+        public static final int DONUT = 4;
+        public static final int GINGERBREAD = 9;
+        public static final int ICE_CREAM_SANDWICH = 14;
+        public static final int JELLY_BEAN = 16;
+        public static final int JELLY_BEAN_MR2 = 18;
+        public static final int KITKAT = 19;
+        public static final int M = 23;
+    }
+}
@@ -0,0 +1,14 @@
+package android.os;
+
+public class Handler {
+    private final Looper looper;
+
+    public Handler(Looper looper) {
+        this.looper = looper;
+    }
+
+    public final boolean post(Runnable r) {
+        this.looper.enqueue(r);
+        return true;
+    }
+}
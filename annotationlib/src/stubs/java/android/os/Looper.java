@@ -0,0 +1,38 @@
+package android.os;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Message queue without a thread; whoever plays the main thread runs the posted messages with {@link #runPending()}.
+ */
+public final class Looper {
+    private static final Looper MAIN = new Looper();
+
+    private final Queue<Runnable> messages = new ConcurrentLinkedQueue<>();
+
+    private Looper() {
+    }
+
+    public static Looper getMainLooper() {
+        return MAIN;
+    }
+
+    void enqueue(Runnable message) {
+        this.messages.add(message);
+    }
+
+    /**
+     * Not part of the framework API, runs the posted messages, including the ones they post.
+     *
+     * @return the number of messages run
+     */
+    public int runPending() {
+        int count = 0;
+        for (Runnable message = this.messages.poll(); message != null; message = this.messages.poll()) {
+            message.run();
+            count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,14 @@
+package android.support.v13.app;
+
+import android.app.Fragment;
+
+public class FragmentCompat {
+
+    public static boolean shouldShowRequestPermissionRationale(Fragment fragment, String permission) {
+        throw new RuntimeException("Stub!");
+    }
+
+    public static void requestPermissions(Fragment fragment, String[] permissions, int requestCode) {
+        throw new RuntimeException("Stub!");
+    }
+}
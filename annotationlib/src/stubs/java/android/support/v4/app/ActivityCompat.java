@@ -0,0 +1,14 @@
+package android.support.v4.app;
+
+import android.app.Activity;
+
+public class ActivityCompat {
+
+    public static boolean shouldShowRequestPermissionRationale(Activity activity, String permission) {
+        throw new RuntimeException("Stub!");
+    }
+
+    public static void requestPermissions(Activity activity, String[] permissions, int requestCode) {
+        throw new RuntimeException("Stub!");
+    }
+}
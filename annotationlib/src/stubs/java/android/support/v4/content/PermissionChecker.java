@@ -0,0 +1,13 @@
+package android.support.v4.content;
+
+import android.content.Context;
+
+public final class PermissionChecker {
+
+    private PermissionChecker() {
+    }
+
+    public static int checkSelfPermission(Context context, String permission) {
+        throw new RuntimeException("Stub!");
+    }
+}
@@ -0,0 +1,31 @@
+package android.support.v4.util;
+
+import java.util.HashMap;
+
+public class SimpleArrayMap<K, V> {
+    private final HashMap<K, V> map;
+
+    public SimpleArrayMap(int capacity) {
+        this.map = new HashMap<>(capacity);
+    }
+
+    public V get(Object key) {
+        return this.map.get(key);
+    }
+
+    public V put(K key, V value) {
+        return this.map.put(key, value);
+    }
+
+    public V remove(Object key) {
+        return this.map.remove(key);
+    }
+
+    public boolean isEmpty() {
+        return this.map.isEmpty();
+    }
+
+    public int size() {
+        return this.map.size();
+    }
+}
@@ -0,0 +1,12 @@
+package android.util;
+
+public final class Log {
+
+    private Log() {
+    }
+
+    public static int e(String tag, String msg) {
+        System.err.println(tag + ": " + msg);
+        return 0;
+    }
+}
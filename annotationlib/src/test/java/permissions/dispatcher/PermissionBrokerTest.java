@@ -0,0 +1,130 @@
+package permissions.dispatcher;
+
+import android.app.Activity;
+import android.content.pm.PackageManager;
+import android.os.Looper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PermissionBrokerTest {
+    private static final String CAMERA = "android.permission.CAMERA";
+
+    private static final int REQUEST_CODE = 7;
+
+    private final TestPermissionPlatform platform = new TestPermissionPlatform();
+
+    private final Activity activity = new Activity();
+
+    @Before
+    public void setUp() {
+        PermissionUtils.setPlatform(this.platform);
+        PermissionUtils.invalidate();
+    }
+
+    @After
+    public void tearDown() {
+        PermissionUtils.setPlatform(DefaultPermissionPlatform.INSTANCE);
+        PermissionUtils.invalidate();
+    }
+
+    @Test
+    public void expiredRequestSharingTheRequestCodeIsNotClaimed() throws InterruptedException {
+        PermissionBroker broker = PermissionBroker.getInstance();
+        DispatcherClient client = new DispatcherClient();
+        Object issuer = new Object();
+        Object expired = new Object();
+        broker.request(this.activity, issuer, new String[]{CAMERA}, REQUEST_CODE, 1, 0L, client);
+        broker.request(this.activity, expired, new String[]{CAMERA}, REQUEST_CODE, 0, 1L, client);
+        Thread.sleep(10);
+        Looper.getMainLooper().runPending();
+
+        assertEquals(Collections.singletonList(REQUEST_CODE), this.platform.getRequestCodes());
+        assertArrayEquals(new int[0], client.results.get(expired));
+        assertFalse(client.results.containsKey(issuer));
+
+        assertTrue(broker.onRequestPermissionsResult(this.activity, REQUEST_CODE, new int[]{PackageManager.PERMISSION_GRANTED}));
+        assertArrayEquals(new int[]{PackageManager.PERMISSION_GRANTED}, client.results.get(issuer));
+    }
+
+    @Test
+    public void expiredRequestOfNeverAskedPermissionIsDenied() throws InterruptedException {
+        ResultCaseClient client = new ResultCaseClient();
+        PermissionBroker.getInstance().request(this.activity, this.activity, new String[]{CAMERA}, REQUEST_CODE, 0, 1L, client);
+        Thread.sleep(10);
+        Looper.getMainLooper().runPending();
+
+        // The permission was never asked for, so it has no rationale, which alone would mean "never ask again"
+        assertEquals(Collections.<Integer>emptyList(), this.platform.getRequestCodes());
+        assertEquals(Collections.singletonList("denied"), client.calls);
+    }
+
+    @Test
+    public void deniedResultWithoutRationaleIsNeverAskAgain() {
+        ResultCaseClient client = new ResultCaseClient();
+        client.onRequestPermissionsResult(this.activity, REQUEST_CODE, new int[]{PackageManager.PERMISSION_DENIED});
+
+        assertEquals(Collections.singletonList("neverAsk"), client.calls);
+    }
+
+    /**
+     * Hands results to the broker first, like the generated dispatchers, and records those it doesn't claim.
+     */
+    private final class DispatcherClient implements PermissionBroker.Client<Object> {
+        final Map<Object, int[]> results = new HashMap<>();
+
+        @Override
+        public void requestPermissions(Object target, String[] permissions, int requestCode) {
+            platform.requestPermissions(activity, permissions, requestCode);
+        }
+
+        @Override
+        public void onRequestPermissionsResult(Object target, int requestCode, int[] grantResults) {
+            if (!PermissionBroker.getInstance().onRequestPermissionsResult(activity, requestCode, grantResults)) {
+                this.results.put(target, Arrays.copyOf(grantResults, grantResults.length));
+            }
+        }
+    }
+
+    /**
+     * Follows the generated result case of a method with @OnPermissionDenied and @OnNeverAskAgain methods.
+     */
+    private final class ResultCaseClient implements PermissionBroker.Client<Activity> {
+        final PermissionTable table = new PermissionTable(CAMERA);
+
+        final List<String> calls = new ArrayList<>();
+
+        @Override
+        public void requestPermissions(Activity target, String[] permissions, int requestCode) {
+            platform.requestPermissions(target, permissions, requestCode);
+        }
+
+        @Override
+        public void onRequestPermissionsResult(Activity target, int requestCode, int[] grantResults) {
+            if (PermissionBroker.getInstance().onRequestPermissionsResult(target, requestCode, grantResults)) {
+                return;
+            }
+            int status = this.table.queryState(target, 0);
+            if (PermissionUtils.verifyPermission(grantResults)) {
+                this.calls.add("granted");
+            } else if (grantResults.length > 0 && (status & PermissionUtils.STATUS_SHOW_RATIONALE) == 0) {
+                this.calls.add("neverAsk");
+            } else {
+                this.calls.add("denied");
+            }
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package permissions.dispatcher;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PermissionOutcomeTest {
+
+    @Test
+    public void thenForwardsTheResultOfTheNextOutcome() {
+        PermissionOutcome first = PermissionOutcome.create();
+        final PermissionOutcome next = PermissionOutcome.create();
+        final List<PermissionOutcome.Result> seen = new ArrayList<>();
+        PermissionOutcome derived = first.then(new PermissionOutcome.Continuation() {
+            @Override
+            public PermissionOutcome then(PermissionOutcome.Result result) {
+                seen.add(result);
+                return next;
+            }
+        });
+
+        first.complete(PermissionOutcome.Result.GRANTED);
+        assertEquals(1, seen.size());
+        assertSame(PermissionOutcome.Result.GRANTED, seen.get(0));
+        assertFalse(derived.isDone());
+
+        next.complete(PermissionOutcome.Result.DENIED);
+        assertSame(PermissionOutcome.Result.DENIED, derived.getResult());
+    }
+
+    @Test
+    public void thenPassesTheResultOnWithoutNextOutcome() {
+        PermissionOutcome derived = PermissionOutcome.completed(PermissionOutcome.Result.NEVER_ASK_AGAIN)
+                .then(new PermissionOutcome.Continuation() {
+                    @Override
+                    public PermissionOutcome then(PermissionOutcome.Result result) {
+                        return null;
+                    }
+                });
+
+        assertSame(PermissionOutcome.Result.NEVER_ASK_AGAIN, derived.getResult());
+    }
+
+    @Test
+    public void thenRunsTheContinuationOnTheGivenExecutor() {
+        final List<Runnable> queue = new ArrayList<>();
+        Executor queued = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                queue.add(command);
+            }
+        };
+        PermissionOutcome first = PermissionOutcome.create();
+        PermissionOutcome derived = first.then(queued, new PermissionOutcome.Continuation() {
+            @Override
+            public PermissionOutcome then(PermissionOutcome.Result result) {
+                return PermissionOutcome.completed(PermissionOutcome.Result.DENIED);
+            }
+        });
+
+        first.complete(PermissionOutcome.Result.GRANTED);
+        assertEquals(1, queue.size());
+        assertFalse(derived.isDone());
+
+        queue.get(0).run();
+        assertSame(PermissionOutcome.Result.DENIED, derived.getResult());
+    }
+
+    @Test
+    public void allReportsTheMostSevereResult() {
+        PermissionOutcome granted = PermissionOutcome.create();
+        PermissionOutcome neverAskAgain = PermissionOutcome.create();
+        PermissionOutcome denied = PermissionOutcome.create();
+        PermissionOutcome combined = PermissionOutcome.all(granted, neverAskAgain, denied);
+
+        granted.complete(PermissionOutcome.Result.GRANTED);
+        neverAskAgain.complete(PermissionOutcome.Result.NEVER_ASK_AGAIN);
+        assertFalse(combined.isDone());
+
+        // A less severe result completing last doesn't lower the combined one
+        denied.complete(PermissionOutcome.Result.DENIED);
+        assertSame(PermissionOutcome.Result.NEVER_ASK_AGAIN, combined.getResult());
+    }
+
+    @Test
+    public void allOfCompletedOutcomesCompletesRightAway() {
+        assertSame(PermissionOutcome.Result.GRANTED, PermissionOutcome.all().getResult());
+        assertSame(PermissionOutcome.Result.DENIED, PermissionOutcome.all(
+                PermissionOutcome.completed(PermissionOutcome.Result.GRANTED),
+                PermissionOutcome.completed(PermissionOutcome.Result.DENIED)).getResult());
+    }
+
+    @Test
+    public void cancelPropagatesToDerivedOutcomes() {
+        PermissionOutcome source = PermissionOutcome.create();
+        PermissionOutcome other = PermissionOutcome.create();
+        final List<PermissionOutcome.Result> seen = new ArrayList<>();
+        PermissionOutcome derived = source.then(new PermissionOutcome.Continuation() {
+            @Override
+            public PermissionOutcome then(PermissionOutcome.Result result) {
+                seen.add(result);
+                return null;
+            }
+        });
+        PermissionOutcome chained = derived.then(new PermissionOutcome.Continuation() {
+            @Override
+            public PermissionOutcome then(PermissionOutcome.Result result) {
+                seen.add(result);
+                return null;
+            }
+        });
+        PermissionOutcome combined = PermissionOutcome.all(source, other);
+
+        assertTrue(source.cancel());
+        assertTrue(derived.isCancelled());
+        assertTrue(chained.isCancelled());
+        assertTrue(combined.isCancelled());
+        // Outcomes are only cancelled downstream
+        assertFalse(other.isCancelled());
+
+        assertFalse(source.complete(PermissionOutcome.Result.GRANTED));
+        other.complete(PermissionOutcome.Result.GRANTED);
+        assertTrue(seen.isEmpty());
+        assertNull(combined.getResult());
+    }
+
+    @Test
+    public void cancelOfTheNextOutcomeCancelsTheDerivedOne() {
+        PermissionOutcome first = PermissionOutcome.create();
+        final PermissionOutcome next = PermissionOutcome.create();
+        PermissionOutcome derived = first.then(new PermissionOutcome.Continuation() {
+            @Override
+            public PermissionOutcome then(PermissionOutcome.Result result) {
+                return next;
+            }
+        });
+
+        first.complete(PermissionOutcome.Result.GRANTED);
+        next.cancel();
+        assertTrue(derived.isCancelled());
+        assertFalse(first.isCancelled());
+    }
+
+    @Test
+    public void cancelOfADerivedOutcomeLeavesItsSourceAlone() {
+        PermissionOutcome source = PermissionOutcome.create();
+        final List<PermissionOutcome.Result> seen = new ArrayList<>();
+        PermissionOutcome derived = source.then(new PermissionOutcome.Continuation() {
+            @Override
+            public PermissionOutcome then(PermissionOutcome.Result result) {
+                seen.add(result);
+                return null;
+            }
+        });
+
+        assertTrue(derived.cancel());
+        assertFalse(source.isCancelled());
+        assertTrue(source.complete(PermissionOutcome.Result.GRANTED));
+        // The continuation of a cancelled outcome doesn't run
+        assertTrue(seen.isEmpty());
+    }
+}
@@ -0,0 +1,53 @@
+package permissions.dispatcher;
+
+import android.app.Activity;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PermissionTableTest {
+    private static final String CAMERA = "android.permission.CAMERA";
+
+    private final TestPermissionPlatform platform = new TestPermissionPlatform();
+
+    private final Activity activity = new Activity();
+
+    @Before
+    public void setUp() {
+        PermissionUtils.setPlatform(this.platform);
+        PermissionUtils.invalidate();
+    }
+
+    @After
+    public void tearDown() {
+        PermissionUtils.setPlatform(DefaultPermissionPlatform.INSTANCE);
+        PermissionUtils.invalidate();
+    }
+
+    @Test
+    public void grantStateIsCached() {
+        PermissionTable table = new PermissionTable(CAMERA);
+        this.platform.grant(CAMERA);
+
+        assertTrue(table.hasSelfPermission(this.activity, 0));
+        assertTrue(table.hasSelfPermission(this.activity, 0));
+        assertEquals(1, this.platform.getChecks());
+    }
+
+    @Test
+    public void failedCheckIsRetried() {
+        PermissionTable table = new PermissionTable(CAMERA);
+        this.platform.grant(CAMERA).fail(CAMERA, true);
+
+        assertFalse(table.hasSelfPermission(this.activity, 0));
+
+        this.platform.fail(CAMERA, false);
+        assertTrue(table.hasSelfPermission(this.activity, 0));
+        assertEquals(2, this.platform.getChecks());
+    }
+}
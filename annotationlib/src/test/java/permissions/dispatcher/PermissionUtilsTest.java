@@ -0,0 +1,67 @@
+package permissions.dispatcher;
+
+import android.app.Activity;
+import android.content.pm.PackageManager;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PermissionUtilsTest {
+    private static final String CAMERA = "android.permission.CAMERA";
+
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private final TestPermissionPlatform platform = new TestPermissionPlatform();
+
+    private final Activity activity = new Activity();
+
+    @Before
+    public void setUp() {
+        PermissionUtils.setPlatform(this.platform);
+        PermissionUtils.invalidate();
+    }
+
+    @After
+    public void tearDown() {
+        PermissionUtils.setPlatform(DefaultPermissionPlatform.INSTANCE);
+        PermissionUtils.invalidate();
+    }
+
+    @Test
+    public void checkAsyncSeesPermissionsGrantedInTheBackground() {
+        PermissionTable table = new PermissionTable(CAMERA);
+        assertEquals(PermissionOutcome.Result.DENIED, PermissionUtils.checkAsync(this.activity, DIRECT, CAMERA).getResult());
+        assertFalse(table.hasSelfPermission(this.activity, 0));
+
+        // Granted in the system settings, while no Activity resumes
+        this.platform.grant(CAMERA);
+
+        assertEquals(PermissionOutcome.Result.GRANTED, PermissionUtils.checkAsync(this.activity, DIRECT, CAMERA).getResult());
+        assertTrue(table.hasSelfPermission(this.activity, 0));
+    }
+
+    @Test
+    public void neverAskAgainIsClearedOnceGranted() {
+        PermissionUtils.recordResults(this.activity, new String[]{CAMERA}, new int[]{PackageManager.PERMISSION_DENIED});
+        assertEquals(PermissionOutcome.Result.NEVER_ASK_AGAIN, PermissionUtils.checkAsync(this.activity, DIRECT, CAMERA).getResult());
+
+        this.platform.grant(CAMERA);
+        assertEquals(PermissionOutcome.Result.GRANTED, PermissionUtils.checkAsync(this.activity, DIRECT, CAMERA).getResult());
+        // Revoked again, without a request telling whether the user chose "never ask again" this time
+        this.platform.revoke(CAMERA);
+
+        assertEquals(PermissionOutcome.Result.DENIED, PermissionUtils.checkAsync(this.activity, DIRECT, CAMERA).getResult());
+    }
+}
@@ -0,0 +1,97 @@
+package permissions.dispatcher;
+
+import android.app.Activity;
+import android.app.Fragment;
+import android.content.Context;
+import android.content.pm.PackageManager;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * PermissionPlatform of the runtime tests, recording the requests it's asked to issue.
+ * The tests call into the runtime from a single thread.
+ */
+final class TestPermissionPlatform implements PermissionPlatform {
+    private final Set<String> granted = new HashSet<>();
+
+    private final Set<String> failing = new HashSet<>();
+
+    private final List<Integer> requestCodes = new ArrayList<>();
+
+    private int checks;
+
+    TestPermissionPlatform grant(String permission) {
+        this.granted.add(permission);
+        return this;
+    }
+
+    TestPermissionPlatform revoke(String permission) {
+        this.granted.remove(permission);
+        return this;
+    }
+
+    /**
+     * Makes checks of the given permission throw, as PackageManager does on a failed binder call.
+     */
+    TestPermissionPlatform fail(String permission, boolean fail) {
+        if (fail) {
+            this.failing.add(permission);
+        } else {
+            this.failing.remove(permission);
+        }
+        return this;
+    }
+
+    int getChecks() {
+        return this.checks;
+    }
+
+    /**
+     * Returns the request codes of the requests issued so far, in order.
+     */
+    List<Integer> getRequestCodes() {
+        return this.requestCodes;
+    }
+
+    @Override
+    public int getSdkVersion() {
+        return 23;
+    }
+
+    @Override
+    public int getTargetSdkVersion(Context context) {
+        return 23;
+    }
+
+    @Override
+    public int checkSelfPermission(Context context, String permission) {
+        this.checks++;
+        if (this.failing.contains(permission)) {
+            throw new RuntimeException("Package manager has died");
+        }
+        return this.granted.contains(permission) ? PackageManager.PERMISSION_GRANTED : PackageManager.PERMISSION_DENIED;
+    }
+
+    @Override
+    public boolean shouldShowRequestPermissionRationale(Activity activity, String permission) {
+        return false;
+    }
+
+    @Override
+    public boolean shouldShowRequestPermissionRationale(Fragment fragment, String permission) {
+        return false;
+    }
+
+    @Override
+    public void requestPermissions(Activity activity, String[] permissions, int requestCode) {
+        this.requestCodes.add(requestCode);
+    }
+
+    @Override
+    public void requestPermissions(Fragment fragment, String[] permissions, int requestCode) {
+        this.requestCodes.add(requestCode);
+    }
+}
@@ -0,0 +1,40 @@
+package permissions.dispatcher.benchmark;
+
+/**
+ * Calls into the dispatchers generated by {@link DispatcherHarness}.
+ * <p>
+ * The generated dispatchers and their methods are package-private, so every harness source set contains
+ * an implementation next to them, which calls them directly rather than through reflection.
+ */
+public interface DispatcherDriver {
+
+    /**
+     * Calls the WithCheck method of a permission that has been granted.
+     */
+    void grantedPath();
+
+    /**
+     * Calls the WithCheck method of a denied permission needing a rationale.
+     */
+    void rationalePath();
+
+    /**
+     * Calls the WithCheck method of a denied permission without rationale, which requests it.
+     */
+    void requestPath();
+
+    /**
+     * Delivers a result to the dispatcher of the target used by the paths.
+     */
+    void onPathResult(int requestCode, int[] grantResults);
+
+    /**
+     * Delivers a result to the dispatcher of the target with the configured number of @NeedsPermission methods.
+     */
+    void onCaseResult(int requestCode, int[] grantResults);
+
+    /**
+     * Returns the number of calls of annotated methods so far.
+     */
+    int getCalls();
+}
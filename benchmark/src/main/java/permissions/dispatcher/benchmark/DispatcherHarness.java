@@ -0,0 +1,196 @@
+package permissions.dispatcher.benchmark;
+
+import java.lang.reflect.Field;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+
+/**
+ * Compiles @RuntimePermissions targets with PermissionsProcessor in memory, and loads the generated dispatchers
+ * against the JVM stand-ins of the Android classes and the runtime.
+ * <p>
+ * Every harness has two targets: one with a @NeedsPermission method per path of the WithCheck methods,
+ * see {@link #createPlatform()}, and one with the given number of @NeedsPermission methods,
+ * so the generated onRequestPermissionsResult() switches over that many cases.
+ * Install the platform before creating the harness, since the dispatchers read the SDK version when they are loaded.
+ */
+public final class DispatcherHarness {
+    public static final String GRANTED_PERMISSION = "android.permission.CAMERA";
+
+    public static final String RATIONALE_PERMISSION = "android.permission.RECORD_AUDIO";
+
+    public static final String REQUEST_PERMISSION = "android.permission.READ_CONTACTS";
+
+    private static final String PACKAGE_NAME = "permissions.dispatcher.benchmark.harness";
+
+    // Cases share permissions, since a class can use at most 64 of them
+    private static final int CASE_PERMISSIONS = 16;
+
+    public enum Kind {
+        ACTIVITY("android.app.Activity", "Activity"),
+        FRAGMENT("android.app.Fragment", "Fragment");
+
+        private final String superClass;
+
+        private final String suffix;
+
+        Kind(String superClass, String suffix) {
+            this.superClass = superClass;
+            this.suffix = suffix;
+        }
+    }
+
+    private final DispatcherDriver driver;
+
+    private final int pathRequestCode;
+
+    private final int lastCaseRequestCode;
+
+    private DispatcherHarness(DispatcherDriver driver, int pathRequestCode, int lastCaseRequestCode) {
+        this.driver = driver;
+        this.pathRequestCode = pathRequestCode;
+        this.lastCaseRequestCode = lastCaseRequestCode;
+    }
+
+    /**
+     * Returns a platform on which the paths of the harness behave as their names say.
+     */
+    public static FakePermissionPlatform createPlatform() {
+        return new FakePermissionPlatform()
+                .grant(GRANTED_PERMISSION)
+                .deny(true, RATIONALE_PERMISSION)
+                .deny(false, REQUEST_PERMISSION);
+    }
+
+    /**
+     * Compiles and loads the targets of the given kind.
+     *
+     * @param kind  type the targets extend
+     * @param cases number of @NeedsPermission methods of the second target, from 1 to 256, the number of request codes
+     */
+    public static DispatcherHarness create(Kind kind, int cases) {
+        if (cases < 1 || cases > 256) {
+            throw new IllegalArgumentException("cases must be between 1 and 256");
+        }
+        String pathClass = "Path" + kind.suffix;
+        String caseClass = "Cases" + kind.suffix;
+        String driverClass = kind.suffix + "Driver";
+        List<JavaFileObject> sources = new ArrayList<>();
+        sources.add(new Source(pathClass, pathSource(pathClass, kind)));
+        sources.add(new Source(caseClass, caseSource(caseClass, kind, cases)));
+        sources.add(new Source(driverClass, driverSource(driverClass, pathClass, caseClass, kind)));
+
+        ClassLoader loader = new InMemoryCompiler().compileClasses(sources);
+        try {
+            DispatcherDriver driver = (DispatcherDriver) loader.loadClass(PACKAGE_NAME + "." + driverClass).newInstance();
+            return new DispatcherHarness(driver,
+                    requestCode(loader, pathClass, "REQUEST_REQUESTPATH"),
+                    requestCode(loader, caseClass, "REQUEST_NEEDS" + (cases - 1)));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Couldn't load the harness", e);
+        }
+    }
+
+    public DispatcherDriver getDriver() {
+        return this.driver;
+    }
+
+    /**
+     * Returns the request code of the request path.
+     */
+    public int getPathRequestCode() {
+        return this.pathRequestCode;
+    }
+
+    /**
+     * Returns the request code of the last @NeedsPermission method of the target with many cases.
+     */
+    public int getLastCaseRequestCode() {
+        return this.lastCaseRequestCode;
+    }
+
+    private static int requestCode(ClassLoader loader, String targetClass, String fieldName) throws ReflectiveOperationException {
+        Field field = loader.loadClass(PACKAGE_NAME + "." + targetClass + "PermissionsDispatcher").getDeclaredField(fieldName);
+        field.setAccessible(true);
+        return field.getInt(null);
+    }
+
+    private static String pathSource(String className, Kind kind) {
+        return header(className, kind)
+                .append("    @NeedsPermission(\"").append(GRANTED_PERMISSION).append("\")\n")
+                .append("    void grantedPath() { calls++; }\n")
+                .append("    @NeedsPermission(\"").append(RATIONALE_PERMISSION).append("\")\n")
+                .append("    void rationalePath() { calls++; }\n")
+                .append("    @OnShowRationale(\"").append(RATIONALE_PERMISSION).append("\")\n")
+                .append("    void showRationale(PermissionRequest request) { calls++; }\n")
+                .append("    @NeedsPermission(\"").append(REQUEST_PERMISSION).append("\")\n")
+                .append("    void requestPath() { calls++; }\n")
+                .append("    @OnPermissionDenied(\"").append(REQUEST_PERMISSION).append("\")\n")
+                .append("    void denied() { calls++; }\n")
+                .append("}\n").toString();
+    }
+
+    private static String caseSource(String className, Kind kind, int cases) {
+        StringBuilder source = header(className, kind);
+        for (int i = 0; i < cases; i++) {
+            source.append("    @NeedsPermission(\"android.permission.SYNTHETIC_").append(i % CASE_PERMISSIONS).append("\")\n")
+                    .append("    void needs").append(i).append("() { calls++; }\n");
+        }
+        return source.append("}\n").toString();
+    }
+
+    private static StringBuilder header(String className, Kind kind) {
+        return new StringBuilder()
+                .append("package ").append(PACKAGE_NAME).append(";\n\n")
+                .append("import permissions.dispatcher.*;\n\n")
+                .append("@RuntimePermissions\n")
+                .append("public class ").append(className).append(" extends ").append(kind.superClass).append(" {\n")
+                .append("    public int calls;\n");
+    }
+
+    private static String driverSource(String className, String pathClass, String caseClass, Kind kind) {
+        String pathDispatcher = pathClass + "PermissionsDispatcher";
+        String caseDispatcher = caseClass + "PermissionsDispatcher";
+        StringBuilder source = new StringBuilder()
+                .append("package ").append(PACKAGE_NAME).append(";\n\n")
+                .append("public final class ").append(className)
+                .append(" implements ").append(DispatcherDriver.class.getName()).append(" {\n")
+                .append("    private final ").append(pathClass).append(" path = new ").append(pathClass).append("();\n")
+                .append("    private final ").append(caseClass).append(" cases = new ").append(caseClass).append("();\n");
+        if (kind == Kind.FRAGMENT) {
+            source.append("    public ").append(className).append("() {\n")
+                    .append("        android.app.Activity host = new android.app.Activity();\n")
+                    .append("        path.attach(host);\n")
+                    .append("        cases.attach(host);\n")
+                    .append("    }\n");
+        }
+        return source
+                .append("    public void grantedPath() { ").append(pathDispatcher).append(".grantedPathWithCheck(path); }\n")
+                .append("    public void rationalePath() { ").append(pathDispatcher).append(".rationalePathWithCheck(path); }\n")
+                .append("    public void requestPath() { ").append(pathDispatcher).append(".requestPathWithCheck(path); }\n")
+                .append("    public void onPathResult(int requestCode, int[] grantResults) { ").append(pathDispatcher)
+                .append(".onRequestPermissionsResult(path, requestCode, grantResults); }\n")
+                .append("    public void onCaseResult(int requestCode, int[] grantResults) { ").append(caseDispatcher)
+                .append(".onRequestPermissionsResult(cases, requestCode, grantResults); }\n")
+                .append("    public int getCalls() { return path.calls + cases.calls; }\n")
+                .append("}\n").toString();
+    }
+
+    private static final class Source extends SimpleJavaFileObject {
+        private final String content;
+
+        private Source(String className, String content) {
+            super(URI.create("string:///" + (PACKAGE_NAME + "." + className).replace('.', '/') + Kind.SOURCE.extension),
+                    Kind.SOURCE);
+            this.content = content;
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return this.content;
+        }
+    }
+}
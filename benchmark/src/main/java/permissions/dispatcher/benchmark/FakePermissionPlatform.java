@@ -0,0 +1,132 @@
+package permissions.dispatcher.benchmark;
+
+import android.app.Activity;
+import android.app.Fragment;
+import android.content.Context;
+import android.content.pm.PackageManager;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import permissions.dispatcher.PermissionPlatform;
+
+/**
+ * In-memory PermissionPlatform, so the runtime can run on the JVM.
+ * <p>
+ * Grant and rationale states are kept per permission, for all Activities and Fragments alike.
+ * Every call can be slowed down by a fixed latency, spent busy-waiting to model a binder call.
+ * All methods are thread-safe.
+ */
+public final class FakePermissionPlatform implements PermissionPlatform {
+    private final Set<String> granted = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private final Set<String> showRationale = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private final AtomicLong calls = new AtomicLong();
+
+    private volatile int sdkVersion = 23;
+
+    private volatile int targetSdkVersion = 23;
+
+    private volatile long latencyNanos;
+
+    public FakePermissionPlatform setSdkVersion(int sdkVersion) {
+        this.sdkVersion = sdkVersion;
+        return this;
+    }
+
+    public FakePermissionPlatform setTargetSdkVersion(int targetSdkVersion) {
+        this.targetSdkVersion = targetSdkVersion;
+        return this;
+    }
+
+    /**
+     * Sets the time every check, rationale query and request takes.
+     */
+    public FakePermissionPlatform setLatencyNanos(long latencyNanos) {
+        this.latencyNanos = latencyNanos;
+        return this;
+    }
+
+    public FakePermissionPlatform grant(String... permissions) {
+        for (String permission : permissions) {
+            this.granted.add(permission);
+            this.showRationale.remove(permission);
+        }
+        return this;
+    }
+
+    /**
+     * Revokes the given permissions, so they are denied with or without rationale.
+     */
+    public FakePermissionPlatform deny(boolean showRationale, String... permissions) {
+        for (String permission : permissions) {
+            this.granted.remove(permission);
+            if (showRationale) {
+                this.showRationale.add(permission);
+            } else {
+                this.showRationale.remove(permission);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Returns the number of calls made into the platform, except for the SDK version queries.
+     */
+    public long getCalls() {
+        return this.calls.get();
+    }
+
+    @Override
+    public int getSdkVersion() {
+        return this.sdkVersion;
+    }
+
+    @Override
+    public int getTargetSdkVersion(Context context) {
+        call();
+        return this.targetSdkVersion;
+    }
+
+    @Override
+    public int checkSelfPermission(Context context, String permission) {
+        call();
+        return this.granted.contains(permission) ? PackageManager.PERMISSION_GRANTED : PackageManager.PERMISSION_DENIED;
+    }
+
+    @Override
+    public boolean shouldShowRequestPermissionRationale(Activity activity, String permission) {
+        call();
+        return this.showRationale.contains(permission);
+    }
+
+    @Override
+    public boolean shouldShowRequestPermissionRationale(Fragment fragment, String permission) {
+        call();
+        return this.showRationale.contains(permission);
+    }
+
+    @Override
+    public void requestPermissions(Activity activity, String[] permissions, int requestCode) {
+        call();
+    }
+
+    @Override
+    public void requestPermissions(Fragment fragment, String[] permissions, int requestCode) {
+        call();
+    }
+
+    private void call() {
+        this.calls.incrementAndGet();
+        long latency = this.latencyNanos;
+        if (latency > 0) {
+            long end = System.nanoTime() + latency;
+            while (System.nanoTime() < end) {
+                // Busy-wait, sleeping is far too coarse
+            }
+        }
+    }
+}
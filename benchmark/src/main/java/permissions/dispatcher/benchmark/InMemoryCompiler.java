@@ -0,0 +1,177 @@
+package permissions.dispatcher.benchmark;
+
+import permissions.dispatcher.processor.PermissionsProcessor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+/**
+ * Runs PermissionsProcessor through javax.tools.JavaCompiler without touching the file system.
+ * <p>
+ * {@link #compile(List)} stops after annotation processing, so the measurements are dominated by the processor
+ * rather than by javac's own code generation. Generated sources are kept in memory and can be inspected.
+ * {@link #compileClasses(List)} compiles the generated sources as well, so they can be loaded and run.
+ */
+public final class InMemoryCompiler {
+    private final JavaCompiler compiler;
+
+    private final List<String> options;
+
+    private final List<String> classOptions;
+
+    private final Map<String, MemoryOutput> outputs = new LinkedHashMap<>();
+
+    private TimingProcessor lastProcessor;
+
+    /**
+     * @param processorOptions processor options, e.g. "permissions.dispatcher.parallel=true"
+     */
+    public InMemoryCompiler(String... processorOptions) {
+        this.compiler = ToolProvider.getSystemJavaCompiler();
+        if (this.compiler == null) {
+            throw new IllegalStateException("No system Java compiler available, the benchmarks must run on a JDK");
+        }
+        this.classOptions = new ArrayList<>(Arrays.asList(
+                "-nowarn", "-classpath", System.getProperty("java.class.path")));
+        for (String processorOption : processorOptions) {
+            this.classOptions.add("-A" + processorOption);
+        }
+        this.options = new ArrayList<>(this.classOptions.size() + 1);
+        this.options.add("-proc:only");
+        this.options.addAll(this.classOptions);
+    }
+
+    /**
+     * Compiles the provided sources and returns the generated sources by file name.
+     * Raises an exception if the compilation reports an error.
+     */
+    public Map<String, String> compile(List<JavaFileObject> sources) {
+        run(sources, this.options);
+        Map<String, String> generated = new LinkedHashMap<>();
+        for (Map.Entry<String, MemoryOutput> entry : this.outputs.entrySet()) {
+            generated.put(entry.getKey(), entry.getValue().getCharContent(true).toString());
+        }
+        return generated;
+    }
+
+    /**
+     * Compiles the provided sources and the generated ones, and returns a class loader defining all compiled classes.
+     * Classes not compiled here, e.g. the runtime, are loaded from the class path the compilation was run against.
+     * Raises an exception if the compilation reports an error.
+     */
+    public ClassLoader compileClasses(List<JavaFileObject> sources) {
+        run(sources, this.classOptions);
+        Map<String, byte[]> classes = new LinkedHashMap<>();
+        for (Map.Entry<String, MemoryOutput> entry : this.outputs.entrySet()) {
+            if (entry.getValue().getKind() == JavaFileObject.Kind.CLASS) {
+                classes.put(entry.getKey(), entry.getValue().toByteArray());
+            }
+        }
+        return new MemoryClassLoader(classes, InMemoryCompiler.class.getClassLoader());
+    }
+
+    private void run(List<JavaFileObject> sources, List<String> options) {
+        this.outputs.clear();
+        this.lastProcessor = new TimingProcessor(new PermissionsProcessor());
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        StandardJavaFileManager standardFileManager = this.compiler.getStandardFileManager(diagnostics, null, null);
+        JavaCompiler.CompilationTask task = this.compiler.getTask(null, new MemoryFileManager(standardFileManager),
+                diagnostics, options, null, sources);
+        task.setProcessors(Arrays.asList(this.lastProcessor));
+        boolean success = task.call();
+        for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+            if (diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+                throw new IllegalStateException("Compilation failed: " + diagnostic.getMessage(null));
+            }
+        }
+        if (!success) {
+            throw new IllegalStateException("Compilation failed");
+        }
+    }
+
+    /**
+     * Returns the round timings of the processor used by the last compilation.
+     */
+    public TimingProcessor getLastProcessor() {
+        return this.lastProcessor;
+    }
+
+    private final class MemoryFileManager extends ForwardingJavaFileManager<JavaFileManager> {
+        private MemoryFileManager(JavaFileManager fileManager) {
+            super(fileManager);
+        }
+
+        @Override
+        public JavaFileObject getJavaFileForOutput(Location location, String className,
+                                                   JavaFileObject.Kind kind, FileObject sibling) {
+            MemoryOutput output = new MemoryOutput(className, kind);
+            outputs.put(className, output);
+            return output;
+        }
+
+        @Override
+        public FileObject getFileForOutput(Location location, String packageName, String relativeName, FileObject sibling) {
+            // Resources such as the permission index of compact mode, which would otherwise go to the working directory
+            return new MemoryOutput(relativeName, JavaFileObject.Kind.OTHER);
+        }
+    }
+
+    private static final class MemoryOutput extends SimpleJavaFileObject {
+        private final ByteArrayOutputStream content = new ByteArrayOutputStream();
+
+        private MemoryOutput(String className, Kind kind) {
+            super(URI.create("mem:///" + className.replace('.', '/') + kind.extension), kind);
+        }
+
+        @Override
+        public OutputStream openOutputStream() {
+            this.content.reset();
+            return this.content;
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            // Written through SimpleJavaFileObject.openWriter(), which uses the default charset
+            return this.content.toString();
+        }
+
+        private byte[] toByteArray() {
+            return this.content.toByteArray();
+        }
+    }
+
+    private static final class MemoryClassLoader extends ClassLoader {
+        private final Map<String, byte[]> classes;
+
+        private MemoryClassLoader(Map<String, byte[]> classes, ClassLoader parent) {
+            super(parent);
+            this.classes = classes;
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            byte[] bytes = this.classes.get(name);
+            if (bytes == null) {
+                throw new ClassNotFoundException(name);
+            }
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+}
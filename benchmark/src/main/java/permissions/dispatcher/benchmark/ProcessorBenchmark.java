@@ -0,0 +1,69 @@
+package permissions.dispatcher.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.tools.JavaFileObject;
+
+/**
+ * JMH benchmark of a full annotation processing run over synthetic @RuntimePermissions classes.
+ * <p>
+ * Run with "-prof gc" to obtain the allocation rate per compilation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ProcessorBenchmark {
+    @Param({"10", "100", "1000", "10000"})
+    public int classes;
+
+    @Param({"4"})
+    public int needs;
+
+    @Param({"2"})
+    public int rationales;
+
+    @Param({"2"})
+    public int denied;
+
+    @Param({"1"})
+    public int neverAsk;
+
+    @Param({"false"})
+    public boolean parallel;
+
+    @Param({"javapoet", "stream"})
+    public String emitter;
+
+    private List<JavaFileObject> sources;
+
+    private InMemoryCompiler compiler;
+
+    @Setup
+    public void setUp() {
+        this.sources = SyntheticSources.create(this.classes, this.needs, this.rationales, this.denied, this.neverAsk);
+        this.compiler = new InMemoryCompiler("permissions.dispatcher.parallel=" + this.parallel,
+                "permissions.dispatcher.emitter=" + this.emitter);
+    }
+
+    @Benchmark
+    public Map<String, String> process() {
+        return this.compiler.compile(this.sources);
+    }
+}
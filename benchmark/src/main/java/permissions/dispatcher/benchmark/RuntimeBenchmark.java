@@ -0,0 +1,112 @@
+package permissions.dispatcher.benchmark;
+
+import android.app.Activity;
+import android.content.pm.PackageManager;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import permissions.dispatcher.PermissionUtils;
+
+/**
+ * JMH benchmark of the runtime checks, running against a {@link FakePermissionPlatform} on the JVM.
+ * <p>
+ * With "cached" off, the grant state cache is invalidated before every operation, so every check reaches
+ * the platform, as it does for the first check after an Activity resumed. The contended variants
+ * run the same operation on four threads at once.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class RuntimeBenchmark {
+    private static final String[] GRANTED = {
+            "android.permission.CAMERA", "android.permission.READ_CONTACTS", "android.permission.ACCESS_FINE_LOCATION"
+    };
+
+    private static final String[] DENIED = {
+            "android.permission.RECORD_AUDIO", "android.permission.READ_SMS", "android.permission.READ_CALENDAR"
+    };
+
+    @Param({"true", "false"})
+    public boolean cached;
+
+    @Param({"0", "1000"})
+    public long latencyNanos;
+
+    @Param({"23"})
+    public int sdkVersion;
+
+    private Activity activity;
+
+    private int[] grantResults;
+
+    @Setup
+    public void setUp() {
+        FakePermissionPlatform platform = new FakePermissionPlatform()
+                .setSdkVersion(this.sdkVersion)
+                .setLatencyNanos(this.latencyNanos)
+                .grant(GRANTED)
+                .deny(false, DENIED[0], DENIED[1])
+                .deny(true, DENIED[2]);
+        PermissionUtils.setPlatform(platform);
+        this.activity = new Activity();
+        this.grantResults = new int[GRANTED.length];
+        for (int i = 0; i < this.grantResults.length; i++) {
+            this.grantResults[i] = PackageManager.PERMISSION_GRANTED;
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        PermissionUtils.setPlatform(null);
+    }
+
+    @Benchmark
+    public boolean hasSelfPermissions() {
+        if (!this.cached) {
+            PermissionUtils.invalidate();
+        }
+        return PermissionUtils.hasSelfPermissions(this.activity, GRANTED);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean hasSelfPermissionsContended() {
+        return hasSelfPermissions();
+    }
+
+    @Benchmark
+    public boolean verifyPermissions() {
+        return PermissionUtils.verifyPermissions(this.grantResults);
+    }
+
+    /**
+     * Only the last permission needs a rationale, so every permission is queried.
+     */
+    @Benchmark
+    public boolean shouldShowRequestPermissionRationale() {
+        return PermissionUtils.shouldShowRequestPermissionRationale(this.activity, DENIED);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean shouldShowRequestPermissionRationaleContended() {
+        return PermissionUtils.shouldShowRequestPermissionRationale(this.activity, DENIED);
+    }
+}
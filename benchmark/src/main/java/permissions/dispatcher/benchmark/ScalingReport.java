@@ -0,0 +1,226 @@
+package permissions.dispatcher.benchmark;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+
+import javax.tools.JavaFileObject;
+
+/**
+ * Measures how the processor scales with the number of @RuntimePermissions classes.
+ * <p>
+ * For every size, this reports the processor time per round, the bytes allocated by the compiling thread,
+ * the allocation rate and the peak heap usage. The results can be saved and used as the baseline of a later run,
+ * which then fails if any metric regressed beyond the threshold.
+ * <p>
+ * Options: --sizes 10,100,1000,10000 --needs 4 --rationales 2 --denied 2 --never-ask 1 --iterations 5
+ * --option key=value --output results.properties --baseline results.properties --threshold 10
+ */
+public final class ScalingReport {
+    private static final String[] METRICS = {"roundMillis", "allocatedMegabytes", "peakHeapMegabytes"};
+
+    private static final String USAGE = "Options: --sizes 10,100,1000,10000 --needs 4 --rationales 2 --denied 2 --never-ask 1"
+            + " --iterations 5 --option key=value --output results.properties --baseline results.properties --threshold 10";
+
+    private ScalingReport() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        List<Integer> sizes = Arrays.asList(10, 100, 1000, 10000);
+        int needs = 4;
+        int rationales = 2;
+        int denied = 2;
+        int neverAsk = 1;
+        int iterations = 5;
+        List<String> processorOptions = new ArrayList<>();
+        String output = null;
+        String baseline = null;
+        double threshold = 10;
+        for (int i = 0; i < args.length; i += 2) {
+            if (i + 1 == args.length) {
+                exitWithUsage("Missing value of " + args[i]);
+            }
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--sizes":
+                    sizes = new ArrayList<>();
+                    for (String size : value.split(",")) {
+                        sizes.add(Integer.parseInt(size.trim()));
+                    }
+                    break;
+                case "--needs":
+                    needs = Integer.parseInt(value);
+                    break;
+                case "--rationales":
+                    rationales = Integer.parseInt(value);
+                    break;
+                case "--denied":
+                    denied = Integer.parseInt(value);
+                    break;
+                case "--never-ask":
+                    neverAsk = Integer.parseInt(value);
+                    break;
+                case "--iterations":
+                    iterations = Integer.parseInt(value);
+                    break;
+                case "--option":
+                    processorOptions.add(value);
+                    break;
+                case "--output":
+                    output = value;
+                    break;
+                case "--baseline":
+                    baseline = value;
+                    break;
+                case "--threshold":
+                    threshold = Double.parseDouble(value);
+                    break;
+                default:
+                    exitWithUsage("Unknown option " + args[i]);
+            }
+        }
+
+        InMemoryCompiler compiler = new InMemoryCompiler(processorOptions.toArray(new String[processorOptions.size()]));
+        Properties results = new Properties();
+        System.out.println(String.format(Locale.US, "%8s %12s %14s %12s %14s",
+                "classes", "ms/round", "allocated MB", "alloc MB/s", "peak heap MB"));
+        for (int size : sizes) {
+            List<JavaFileObject> sources = SyntheticSources.create(size, needs, rationales, denied, neverAsk);
+            // Warm up the compiler and the processor once per size
+            compiler.compile(sources);
+
+            List<Double> roundMillis = new ArrayList<>();
+            List<Double> allocatedMegabytes = new ArrayList<>();
+            List<Double> allocationRates = new ArrayList<>();
+            List<Double> peakHeapMegabytes = new ArrayList<>();
+            for (int i = 0; i < iterations; i++) {
+                System.gc();
+                resetPeakHeapUsage();
+                long allocatedBefore = allocatedBytes();
+                long start = System.nanoTime();
+                compiler.compile(sources);
+                long elapsed = System.nanoTime() - start;
+                double allocated = (allocatedBytes() - allocatedBefore) / (1024.0 * 1024.0);
+
+                TimingProcessor processor = compiler.getLastProcessor();
+                // Averaged over the rounds doing the work, the idle ones would dilute it
+                roundMillis.add(processor.getTotalNanos() / 1e6 / Math.max(1, processor.getAnnotatedRounds()));
+                allocatedMegabytes.add(allocated);
+                allocationRates.add(allocated / (elapsed / 1e9));
+                peakHeapMegabytes.add(peakHeapUsage() / (1024.0 * 1024.0));
+            }
+            double medianRoundMillis = median(roundMillis);
+            double medianAllocated = median(allocatedMegabytes);
+            double medianPeakHeap = median(peakHeapMegabytes);
+            System.out.println(String.format(Locale.US, "%8d %12.2f %14.2f %12.2f %14.2f",
+                    size, medianRoundMillis, medianAllocated, median(allocationRates), medianPeakHeap));
+            results.setProperty(size + ".roundMillis", String.valueOf(medianRoundMillis));
+            results.setProperty(size + ".allocatedMegabytes", String.valueOf(medianAllocated));
+            results.setProperty(size + ".peakHeapMegabytes", String.valueOf(medianPeakHeap));
+        }
+
+        if (output != null) {
+            OutputStream out = new FileOutputStream(output);
+            try {
+                results.store(out, "PermissionsDispatcher processor scaling report");
+            } finally {
+                out.close();
+            }
+        }
+        if (baseline != null && !compareWithBaseline(results, load(baseline), threshold)) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Prints the change of every metric against the baseline.
+     *
+     * @return false if any metric regressed by more than threshold percent
+     */
+    private static boolean compareWithBaseline(Properties results, Properties baseline, double threshold) {
+        boolean passed = true;
+        List<String> keys = new ArrayList<>(results.stringPropertyNames());
+        Collections.sort(keys);
+        System.out.println();
+        for (String key : keys) {
+            String baselineValue = baseline.getProperty(key);
+            if (baselineValue == null || !isMetric(key)) {
+                continue;
+            }
+            double before = Double.parseDouble(baselineValue);
+            double after = Double.parseDouble(results.getProperty(key));
+            double change = before == 0 ? 0 : (after - before) / before * 100;
+            boolean regression = change > threshold;
+            passed &= !regression;
+            System.out.println(String.format(Locale.US, "%-30s %12.2f -> %12.2f (%+.1f%%)%s",
+                    key, before, after, change, regression ? "  REGRESSION" : ""));
+        }
+        return passed;
+    }
+
+    private static boolean isMetric(String key) {
+        for (String metric : METRICS) {
+            if (key.endsWith("." + metric)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Properties load(String file) throws IOException {
+        Properties properties = new Properties();
+        InputStream in = new FileInputStream(file);
+        try {
+            properties.load(in);
+        } finally {
+            in.close();
+        }
+        return properties;
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static void exitWithUsage(String problem) {
+        System.err.println(problem);
+        System.err.println(USAGE);
+        System.exit(2);
+    }
+
+    private static void resetPeakHeapUsage() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    private static long peakHeapUsage() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    private static double median(List<Double> values) {
+        List<Double> sorted = new ArrayList<>(values);
+        Collections.sort(sorted);
+        return sorted.get(sorted.size() / 2);
+    }
+}
@@ -0,0 +1,102 @@
+package permissions.dispatcher.benchmark;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+
+/**
+ * Generates in-memory compilation units for benchmarking the processor.
+ * <p>
+ * The generated @RuntimePermissions classes alternate between Activities, support Fragments and native Fragments.
+ * They are compiled against the runtime and the JVM stand-ins of the Android classes on the class path,
+ * so no Android SDK is required.
+ */
+public final class SyntheticSources {
+    private static final String PACKAGE_NAME = "permissions.dispatcher.benchmark.generated";
+
+    // Android classes of the targets that aren't among the JVM stand-ins on the class path.
+    // The generated dispatchers are compiled against the runtime on the class path, so it can't get out of sync
+    private static final String[][] STUBS = {
+            {"android.support.v4.app.Fragment", "package android.support.v4.app; public class Fragment {"
+                    + " public android.app.Activity getActivity() { return null; }"
+                    + " public void requestPermissions(String[] p, int c) {} }"},
+    };
+
+    private static final String[] SUPER_CLASSES = {
+            "android.app.Activity", "android.support.v4.app.Fragment", "android.app.Fragment"
+    };
+
+    private SyntheticSources() {
+    }
+
+    /**
+     * Creates the stubs plus the requested number of @RuntimePermissions classes.
+     *
+     * @param classes    number of @RuntimePermissions classes
+     * @param needs      @NeedsPermission methods per class, each one with its own permission
+     * @param rationales @OnShowRationale methods per class, matching the first @NeedsPermission methods
+     * @param denied     @OnPermissionDenied methods per class, matching the first @NeedsPermission methods
+     * @param neverAsk   @OnNeverAskAgain methods per class, matching the first @NeedsPermission methods
+     */
+    public static List<JavaFileObject> create(int classes, int needs, int rationales, int denied, int neverAsk) {
+        List<JavaFileObject> sources = new ArrayList<>(STUBS.length + classes);
+        for (String[] stub : STUBS) {
+            sources.add(new Source(stub[0], stub[1]));
+        }
+        for (int i = 0; i < classes; i++) {
+            String className = "Target" + i;
+            sources.add(new Source(PACKAGE_NAME + "." + className,
+                    targetSource(className, SUPER_CLASSES[i % SUPER_CLASSES.length], needs, rationales, denied, neverAsk)));
+        }
+        return sources;
+    }
+
+    private static String targetSource(String className, String superClass,
+                                       int needs, int rationales, int denied, int neverAsk) {
+        StringBuilder source = new StringBuilder()
+                .append("package ").append(PACKAGE_NAME).append(";\n\n")
+                .append("import permissions.dispatcher.*;\n\n")
+                .append("@RuntimePermissions\n")
+                .append("public class ").append(className).append(" extends ").append(superClass).append(" {\n");
+        for (int i = 0; i < needs; i++) {
+            // Every other method takes parameters, to cover the pending request code path
+            source.append("    @NeedsPermission(\"").append(permission(i)).append("\")\n")
+                    .append("    void needs").append(i)
+                    .append(i % 2 == 0 ? "() {}\n" : "(String value, int count) {}\n");
+        }
+        for (int i = 0; i < Math.min(rationales, needs); i++) {
+            source.append("    @OnShowRationale(\"").append(permission(i)).append("\")\n")
+                    .append("    void rationale").append(i).append("(PermissionRequest request) {}\n");
+        }
+        for (int i = 0; i < Math.min(denied, needs); i++) {
+            source.append("    @OnPermissionDenied(\"").append(permission(i)).append("\")\n")
+                    .append("    void denied").append(i).append("() {}\n");
+        }
+        for (int i = 0; i < Math.min(neverAsk, needs); i++) {
+            source.append("    @OnNeverAskAgain(\"").append(permission(i)).append("\")\n")
+                    .append("    void neverAsk").append(i).append("() {}\n");
+        }
+        return source.append("}\n").toString();
+    }
+
+    private static String permission(int index) {
+        return "android.permission.SYNTHETIC_" + index;
+    }
+
+    private static final class Source extends SimpleJavaFileObject {
+        private final String content;
+
+        private Source(String qualifiedName, String content) {
+            super(URI.create("string:///" + qualifiedName.replace('.', '/') + Kind.SOURCE.extension), Kind.SOURCE);
+            this.content = content;
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return this.content;
+        }
+    }
+}
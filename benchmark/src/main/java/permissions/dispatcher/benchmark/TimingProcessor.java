@@ -0,0 +1,97 @@
+package permissions.dispatcher.benchmark;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.processing.Completion;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.Processor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+
+/**
+ * Processor decorator recording the wall-clock time of every processing round.
+ */
+public final class TimingProcessor implements Processor {
+    private final Processor delegate;
+
+    private final List<Long> roundNanos = new ArrayList<>();
+
+    private int annotatedRounds;
+
+    public TimingProcessor(Processor delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public Set<String> getSupportedOptions() {
+        return this.delegate.getSupportedOptions();
+    }
+
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        return this.delegate.getSupportedAnnotationTypes();
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return this.delegate.getSupportedSourceVersion();
+    }
+
+    @Override
+    public void init(ProcessingEnvironment processingEnv) {
+        this.delegate.init(processingEnv);
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        if (!annotations.isEmpty()) {
+            this.annotatedRounds++;
+        }
+        long start = System.nanoTime();
+        try {
+            return this.delegate.process(annotations, roundEnv);
+        } finally {
+            this.roundNanos.add(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public Iterable<? extends Completion> getCompletions(Element element, AnnotationMirror annotation,
+                                                         ExecutableElement member, String userText) {
+        return this.delegate.getCompletions(element, annotation, member, userText);
+    }
+
+    /**
+     * Returns the duration of each round the processor took part in, in nanoseconds.
+     */
+    public List<Long> getRoundNanos() {
+        return Collections.unmodifiableList(this.roundNanos);
+    }
+
+    /**
+     * Returns the number of rounds with elements annotated by one of the supported annotations.
+     * <p>
+     * Later rounds, such as the one processing the generated sources and the final one, find nothing to do.
+     */
+    public int getAnnotatedRounds() {
+        return this.annotatedRounds;
+    }
+
+    /**
+     * Returns the total time spent in the processor, in nanoseconds.
+     */
+    public long getTotalNanos() {
+        long total = 0;
+        for (long nanos : this.roundNanos) {
+            total += nanos;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,167 @@
+package permissions.dispatcher.processor;
+
+import permissions.dispatcher.NeedsPermission;
+import permissions.dispatcher.OnNeverAskAgain;
+import permissions.dispatcher.OnPermissionDenied;
+import permissions.dispatcher.OnShowRationale;
+
+import java.lang.annotation.Annotation;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.util.ElementFilter;
+
+/**
+ * Index over the permission methods of a single @RuntimePermissions class.
+ * <p>
+ * The enclosed elements are walked once, reading the permission values and the other attributes through
+ * the AnnotationMirrors instead of annotation proxies. Every permission set is reduced to a canonical key, which doesn't depend
+ * on the order the permissions were declared in; the methods of each annotation are stored by that key,
+ * so finding the counterpart of a @NeedsPermission method is a single hash lookup.
+ */
+public final class AnnotationIndex {
+    private final Map<String, Entries> entries = new HashMap<>();
+
+    public AnnotationIndex(ProcessingContext context, TypeElement e) {
+        this.entries.put(NeedsPermission.class.getCanonicalName(), new Entries());
+        this.entries.put(OnShowRationale.class.getCanonicalName(), new Entries());
+        this.entries.put(OnPermissionDenied.class.getCanonicalName(), new Entries());
+        this.entries.put(OnNeverAskAgain.class.getCanonicalName(), new Entries());
+
+        for (Element enclosed : e.getEnclosedElements()) {
+            if (enclosed.getKind() != ElementKind.METHOD) {
+                continue;
+            }
+            ExecutableElement method = (ExecutableElement) enclosed;
+            for (AnnotationMirror annotation : method.getAnnotationMirrors()) {
+                String annotationName = ((TypeElement) annotation.getAnnotationType().asElement())
+                        .getQualifiedName().toString();
+                Entries annotationEntries = this.entries.get(annotationName);
+                if (annotationEntries != null) {
+                    List<String> value = readValue(context, annotation);
+                    annotationEntries.add(method, annotation, value, context.internPermissionKey(canonicalKey(value)));
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the String[] value() of a permission annotation.
+     * <p>
+     * Permissions are interned as keys of their own, so every model of the round shares one String per permission.
+     */
+    private static List<String> readValue(ProcessingContext context, AnnotationMirror annotation) {
+        List<String> value = new ArrayList<>();
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry
+                : annotation.getElementValues().entrySet()) {
+            if (!entry.getKey().getSimpleName().contentEquals("value")) {
+                continue;
+            }
+            Object rawValue = entry.getValue().getValue();
+            if (rawValue instanceof List) {
+                for (Object item : (List<?>) rawValue) {
+                    value.add(context.internPermissionKey(String.valueOf(((AnnotationValue) item).getValue())));
+                }
+            } else {
+                value.add(context.internPermissionKey(String.valueOf(rawValue)));
+            }
+        }
+        return Collections.unmodifiableList(value);
+    }
+
+    /**
+     * Returns the order-independent key of a permission set.
+     */
+    private static String canonicalKey(List<String> value) {
+        StringBuilder key = new StringBuilder();
+        for (String permission : new TreeSet<>(value)) {
+            if (key.length() > 0) {
+                key.append(',');
+            }
+            key.append(permission);
+        }
+        return key.toString();
+    }
+
+    private Entries entriesOf(Class<? extends Annotation> annotationType) {
+        return this.entries.get(annotationType.getCanonicalName());
+    }
+
+    /**
+     * Returns the methods annotated with the provided annotation, in declaration order.
+     */
+    public List<ExecutableElement> getElements(Class<? extends Annotation> annotationType) {
+        return entriesOf(annotationType).elements;
+    }
+
+    /**
+     * Returns the permissions of a method's annotation, in the order they were declared in.
+     */
+    public List<String> getPermissions(Class<? extends Annotation> annotationType, ExecutableElement method) {
+        return entriesOf(annotationType).values.get(method);
+    }
+
+    /**
+     * Returns the canonical permission-set key of a method's annotation.
+     */
+    public String getPermissionKey(Class<? extends Annotation> annotationType, ExecutableElement method) {
+        return entriesOf(annotationType).keys.get(method);
+    }
+
+    /**
+     * Returns the value of an attribute of a method's annotation, or the attribute's default value if it isn't set.
+     */
+    public Object getAttribute(Class<? extends Annotation> annotationType, ExecutableElement method, String name) {
+        AnnotationMirror annotation = entriesOf(annotationType).annotations.get(method);
+        for (ExecutableElement attribute
+                : ElementFilter.methodsIn(annotation.getAnnotationType().asElement().getEnclosedElements())) {
+            if (attribute.getSimpleName().contentEquals(name)) {
+                AnnotationValue value = annotation.getElementValues().get(attribute);
+                return (value != null ? value : attribute.getDefaultValue()).getValue();
+            }
+        }
+        throw new IllegalArgumentException(annotationType.getSimpleName() + " has no attribute " + name);
+    }
+
+    /**
+     * Returns the method annotated with the provided annotation that handles the same permissions
+     * as the provided @NeedsPermission method, or null if there is none.
+     */
+    public ExecutableElement findMatchingMethodForNeeds(ExecutableElement needsElement,
+                                                        Class<? extends Annotation> annotationType) {
+        return entriesOf(annotationType).byKey.get(getPermissionKey(NeedsPermission.class, needsElement));
+    }
+
+    private static final class Entries {
+        private final List<ExecutableElement> elements = new ArrayList<>();
+
+        private final Map<ExecutableElement, AnnotationMirror> annotations = new HashMap<>();
+
+        private final Map<ExecutableElement, List<String>> values = new HashMap<>();
+
+        private final Map<ExecutableElement, String> keys = new HashMap<>();
+
+        /* If a key is declared multiple times, the first method wins */
+        private final Map<String, ExecutableElement> byKey = new HashMap<>();
+
+        private void add(ExecutableElement method, AnnotationMirror annotation, List<String> value, String key) {
+            this.elements.add(method);
+            this.annotations.put(method, annotation);
+            this.values.put(method, value);
+            this.keys.put(method, key);
+            if (!this.byKey.containsKey(key)) {
+                this.byKey.put(key, method);
+            }
+        }
+    }
+}
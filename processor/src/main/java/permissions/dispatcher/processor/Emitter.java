@@ -0,0 +1,36 @@
+package permissions.dispatcher.processor;
+
+import java.util.Locale;
+
+/**
+ * How the dispatchers are generated, see Constants.OPTION_EMITTER.
+ */
+enum Emitter {
+    /**
+     * Builds a JavaPoet tree of every dispatcher and writes it out, the default.
+     */
+    JAVAPOET,
+    /**
+     * Writes the source of every dispatcher straight to its output, without building a tree.
+     */
+    STREAM,
+    /**
+     * Generates every dispatcher with both emitters and fails on the first difference.
+     */
+    VERIFY;
+
+    /**
+     * Returns the emitter selected by the given option value, or null if there is no such emitter.
+     */
+    static Emitter fromOption(String value) {
+        if (value == null || value.isEmpty()) {
+            return JAVAPOET;
+        }
+        for (Emitter emitter : values()) {
+            if (emitter.name().equals(value.toUpperCase(Locale.US))) {
+                return emitter;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,66 @@
+package permissions.dispatcher.processor;
+
+import com.squareup.javapoet.JavaFile;
+
+import java.io.IOException;
+import java.util.List;
+
+import javax.lang.model.element.Element;
+
+/**
+ * A generated source file, written out by {@link PermissionsProcessor} on the processor thread.
+ */
+abstract class GeneratedSource {
+    private final String fileName;
+
+    private final Element[] originatingElements;
+
+    GeneratedSource(String fileName, Element... originatingElements) {
+        this.fileName = fileName;
+        this.originatingElements = originatingElements;
+    }
+
+    static GeneratedSource of(final JavaFile javaFile) {
+        String fileName = javaFile.packageName.isEmpty()
+                ? javaFile.typeSpec.name
+                : javaFile.packageName + "." + javaFile.typeSpec.name;
+        List<Element> originatingElements = javaFile.typeSpec.originatingElements;
+        return new GeneratedSource(fileName, originatingElements.toArray(new Element[originatingElements.size()])) {
+            @Override
+            void writeTo(Appendable out) throws IOException {
+                javaFile.writeTo(out);
+            }
+        };
+    }
+
+    /**
+     * Returns the dispatcher of the given element, rendered already.
+     */
+    static GeneratedSource of(RuntimePermissionsModel model, final CharSequence source) {
+        return new GeneratedSource(fileNameOf(model), model.getElement()) {
+            @Override
+            void writeTo(Appendable out) throws IOException {
+                out.append(source);
+            }
+        };
+    }
+
+    static String fileNameOf(RuntimePermissionsModel model) {
+        return model.getPackageName().isEmpty()
+                ? model.getGeneratedClassName()
+                : model.getPackageName() + "." + model.getGeneratedClassName();
+    }
+
+    /**
+     * Returns the qualified name of the top-level class of the file.
+     */
+    String getFileName() {
+        return this.fileName;
+    }
+
+    Element[] getOriginatingElements() {
+        return this.originatingElements;
+    }
+
+    abstract void writeTo(Appendable out) throws IOException;
+}
@@ -0,0 +1,110 @@
+package permissions.dispatcher.processor;
+
+import com.squareup.javapoet.JavaFile;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+
+/**
+ * Unit of code generation for a single @RuntimePermissions element.
+ * <p>
+ * Tasks are created on the processor thread in the order javac reports the annotated elements,
+ * and may then be executed either inline or on a worker pool.
+ */
+final class GenerationTask implements Callable<GeneratedSource> {
+    private final ProcessingContext context;
+
+    private final ProcessorUnit processorUnit;
+
+    private final RuntimePermissionsModel model;
+
+    private final RequestCodeProvider requestCodeProvider;
+
+    private final PermissionArrayRegistry registry;
+
+    private final Profiler profiler;
+
+    private final Emitter emitter;
+
+    GenerationTask(ProcessingContext context, ProcessorUnit processorUnit, RuntimePermissionsModel model,
+                   RequestCodeProvider requestCodeProvider, PermissionArrayRegistry registry, Profiler profiler,
+                   Emitter emitter) {
+        this.context = context;
+        this.emitter = emitter;
+        this.registry = registry;
+        this.profiler = profiler;
+        this.processorUnit = processorUnit;
+        this.model = model;
+        this.requestCodeProvider = requestCodeProvider;
+    }
+
+    public RequestCodeProvider getRequestCodeProvider() {
+        return this.requestCodeProvider;
+    }
+
+    public RuntimePermissionsModel getModel() {
+        return this.model;
+    }
+
+    @Override
+    public GeneratedSource call() throws IOException {
+        long begin = this.profiler.begin();
+        try {
+            switch (this.emitter) {
+                case STREAM:
+                    StringBuilder source = new StringBuilder();
+                    writeSource(source);
+                    return GeneratedSource.of(this.model, source);
+                case VERIFY:
+                    return verify();
+                default:
+                    return GeneratedSource.of(createJavaFile());
+            }
+        } finally {
+            this.profiler.end(Profiler.Phase.CODE_GENERATION, begin);
+        }
+    }
+
+    /**
+     * Returns the dispatcher of the streaming emitter, generated while it is written, so it goes straight to the file.
+     */
+    GeneratedSource stream() {
+        return new GeneratedSource(GeneratedSource.fileNameOf(this.model), this.model.getElement()) {
+            @Override
+            void writeTo(Appendable out) throws IOException {
+                writeSource(out);
+            }
+        };
+    }
+
+    private JavaFile createJavaFile() {
+        return this.processorUnit.createJavaFile(this.context, this.model, this.requestCodeProvider, this.registry);
+    }
+
+    private void writeSource(Appendable out) throws IOException {
+        this.processorUnit.writeSource(this.context, this.model, this.requestCodeProvider, this.registry, out);
+    }
+
+    private GeneratedSource verify() throws IOException {
+        JavaFile javaFile = createJavaFile();
+        String expected = javaFile.toString();
+        StringBuilder actual = new StringBuilder();
+        writeSource(actual);
+        if (!expected.contentEquals(actual)) {
+            throw new IllegalStateException("The streaming emitter differs from JavaPoet for " + this.model.getQualifiedName()
+                    + " at " + firstDifference(expected, actual.toString()));
+        }
+        return GeneratedSource.of(javaFile);
+    }
+
+    private static String firstDifference(String expected, String actual) {
+        String[] expectedLines = expected.split("\n", -1);
+        String[] actualLines = actual.split("\n", -1);
+        int line = 0;
+        while (line < expectedLines.length && line < actualLines.length && expectedLines[line].equals(actualLines[line])) {
+            line++;
+        }
+        return "line " + (line + 1) + ": expected \"" + (line < expectedLines.length ? expectedLines[line] : "")
+                + "\" but was \"" + (line < actualLines.length ? actualLines[line] : "") + "\"";
+    }
+}
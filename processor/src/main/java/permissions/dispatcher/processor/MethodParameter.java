@@ -0,0 +1,25 @@
+package permissions.dispatcher.processor;
+
+import com.squareup.javapoet.TypeName;
+
+/**
+ * Name and type of a parameter of a @NeedsPermission method.
+ */
+public final class MethodParameter {
+    private final String name;
+
+    private final TypeName typeName;
+
+    MethodParameter(String name, TypeName typeName) {
+        this.name = name;
+        this.typeName = typeName;
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public TypeName getTypeName() {
+        return this.typeName;
+    }
+}
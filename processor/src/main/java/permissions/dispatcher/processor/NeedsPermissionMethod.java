@@ -0,0 +1,179 @@
+package permissions.dispatcher.processor;
+
+import com.squareup.javapoet.CodeBlock;
+import permissions.dispatcher.processor.util.HelperUtils;
+
+import java.util.List;
+
+/**
+ * A @NeedsPermission method and everything the generated code refers to: its parameters, its permissions,
+ * the names of the members generated for it, and the names of the methods handling its rationale, denial and
+ * "never ask again". Those links are resolved when the model is created, so code generation doesn't search for them.
+ */
+public final class NeedsPermissionMethod {
+    private final String name;
+
+    private final List<MethodParameter> parameters;
+
+    private final CodeBlock arguments;
+
+    private final String argumentList;
+
+    private final List<String> permissions;
+
+    private final String permissionKey;
+
+    private final int priority;
+
+    private final long timeoutMillis;
+
+    private final String onRationaleName;
+
+    private final String onDeniedName;
+
+    private final String onNeverAskName;
+
+    private final String requestCodeFieldName;
+
+    private final String permissionFieldName;
+
+    private final String permissionMaskFieldName;
+
+    private final String permissionOrdinalFieldName;
+
+    private final String withCheckMethodName;
+
+    private final String outcomeMethodName;
+
+    private final String requestClassName;
+
+    NeedsPermissionMethod(String name, List<MethodParameter> parameters, List<String> permissions, String permissionKey,
+                          int priority, long timeoutMillis,
+                          String onRationaleName, String onDeniedName, String onNeverAskName) {
+        this.name = name;
+        this.parameters = parameters;
+        this.arguments = HelperUtils.varargsParametersCodeBlock(parameters);
+        this.argumentList = HelperUtils.varargsParametersList(parameters);
+        this.permissions = permissions;
+        this.permissionKey = permissionKey;
+        this.priority = priority;
+        this.timeoutMillis = timeoutMillis;
+        this.onRationaleName = onRationaleName;
+        this.onDeniedName = onDeniedName;
+        this.onNeverAskName = onNeverAskName;
+        this.requestCodeFieldName = HelperUtils.requestCodeFieldName(name);
+        this.permissionFieldName = HelperUtils.permissionFieldName(name);
+        this.permissionMaskFieldName = HelperUtils.permissionMaskFieldName(name);
+        this.permissionOrdinalFieldName = HelperUtils.permissionOrdinalFieldName(name);
+        this.withCheckMethodName = HelperUtils.withCheckMethodName(name);
+        this.outcomeMethodName = HelperUtils.outcomeMethodName(name);
+        this.requestClassName = HelperUtils.upperCaseFirst(HelperUtils.permissionRequestTypeName(name));
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public List<MethodParameter> getParameters() {
+        return this.parameters;
+    }
+
+    public boolean hasParameters() {
+        return !this.parameters.isEmpty();
+    }
+
+    /**
+     * Returns the comma-separated parameter names, to pass the arguments of a call on.
+     */
+    public CodeBlock getArguments() {
+        return this.arguments;
+    }
+
+    /**
+     * Returns the same as {@link #getArguments()} as plain text, for the streaming emitter.
+     */
+    public String getArgumentList() {
+        return this.argumentList;
+    }
+
+    /**
+     * Returns the permissions, in the order they were declared in.
+     */
+    public List<String> getPermissions() {
+        return this.permissions;
+    }
+
+    /**
+     * Returns the canonical permission-set key, shared by all methods of the round requesting the same permissions.
+     */
+    public String getPermissionKey() {
+        return this.permissionKey;
+    }
+
+    /**
+     * Returns whether this method needs exactly one permission, which generated code addresses by its ordinal.
+     */
+    public boolean hasSinglePermission() {
+        return this.permissions.size() == 1;
+    }
+
+    public int getPriority() {
+        return this.priority;
+    }
+
+    public long getTimeoutMillis() {
+        return this.timeoutMillis;
+    }
+
+    /**
+     * Returns the name of the matching @OnShowRationale method, or null if there is none.
+     */
+    public String getOnRationaleName() {
+        return this.onRationaleName;
+    }
+
+    /**
+     * Returns the name of the matching @OnPermissionDenied method, or null if there is none.
+     */
+    public String getOnDeniedName() {
+        return this.onDeniedName;
+    }
+
+    /**
+     * Returns the name of the matching @OnNeverAskAgain method, or null if there is none.
+     */
+    public String getOnNeverAskName() {
+        return this.onNeverAskName;
+    }
+
+    public String getRequestCodeFieldName() {
+        return this.requestCodeFieldName;
+    }
+
+    public String getPermissionFieldName() {
+        return this.permissionFieldName;
+    }
+
+    public String getPermissionMaskFieldName() {
+        return this.permissionMaskFieldName;
+    }
+
+    public String getPermissionOrdinalFieldName() {
+        return this.permissionOrdinalFieldName;
+    }
+
+    public String getWithCheckMethodName() {
+        return this.withCheckMethodName;
+    }
+
+    public String getOutcomeMethodName() {
+        return this.outcomeMethodName;
+    }
+
+    /**
+     * Returns the simple name of the PermissionRequest class generated for this method.
+     */
+    public String getRequestClassName() {
+        return this.requestClassName;
+    }
+}
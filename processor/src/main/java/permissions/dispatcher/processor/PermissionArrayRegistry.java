@@ -0,0 +1,220 @@
+package permissions.dispatcher.processor;
+
+import com.squareup.javapoet.ArrayTypeName;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.FieldSpec;
+import com.squareup.javapoet.JavaFile;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.ParameterizedTypeName;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+import permissions.dispatcher.processor.util.Constants;
+import permissions.dispatcher.processor.util.Snippet;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.lang.model.element.Modifier;
+
+/**
+ * Module-wide registry of permission arrays, used in compact mode, see Constants.OPTION_REGISTRY.
+ * <p>
+ * Every distinct permission array of the round is stored once and created on first access,
+ * instead of being allocated in the static initializer of every dispatcher that uses it.
+ * The arrays are numbered in the order of their contents, so the numbering doesn't depend on the order
+ * of the annotated elements or on the order the dispatchers are generated in.
+ * <p>
+ * If the module has no more than PermissionOrdinals.MAX_SIZE distinct permissions, the registry also holds
+ * the module-wide PermissionTable, so all dispatchers share one grant state cache.
+ * <p>
+ * The registry also contains the module's PermissionIndex, which the processor registers as service,
+ * so PermissionUtils.prefetch() finds the permissions of all modules of the app.
+ */
+public final class PermissionArrayRegistry {
+
+    private static final String ACCESSOR_NAME = "permissions";
+
+    private static final String TABLE_ACCESSOR_NAME = "table";
+
+    private static final String INDEX_CLASS_NAME = "Index";
+
+    private static final ClassName PERMISSION_INDEX = ClassName.get(Constants.PACKAGE_NAME, "PermissionIndex");
+
+    private final ClassName className;
+
+    private final Map<String, Integer> ids = new TreeMap<>();
+
+    private final Map<String, List<String>> arrays = new TreeMap<>();
+
+    private final List<RuntimePermissionsModel> models;
+
+    private final PermissionOrdinals ordinals;
+
+    public PermissionArrayRegistry(ClassName className, List<RuntimePermissionsModel> models) {
+        this.className = className;
+        this.models = models;
+        this.ordinals = PermissionOrdinals.of(models);
+        for (RuntimePermissionsModel model : models) {
+            for (NeedsPermissionMethod needsMethod : model.getNeedsMethods()) {
+                List<String> permissions = needsMethod.getPermissions();
+                this.arrays.put(key(permissions), permissions);
+            }
+        }
+        for (String key : this.arrays.keySet()) {
+            this.ids.put(key, this.ids.size());
+        }
+    }
+
+    /**
+     * Returns the expression obtaining the given permission array from the registry.
+     */
+    public Snippet reference(List<String> permissions) {
+        Integer id = this.ids.get(key(permissions));
+        if (id == null) {
+            throw new IllegalArgumentException("Unregistered permissions " + permissions);
+        }
+        return Snippet.of("$T.$N($L)", this.className, ACCESSOR_NAME, id);
+    }
+
+    /**
+     * Returns the ordinals of all permissions of the module.
+     */
+    public PermissionOrdinals getOrdinals() {
+        return this.ordinals;
+    }
+
+    /**
+     * Returns the expression obtaining the module-wide PermissionTable, only available if the ordinals fit in a mask.
+     */
+    public Snippet tableReference() {
+        if (!this.ordinals.fitsInMask()) {
+            throw new IllegalStateException("Too many permissions for a module-wide table");
+        }
+        return Snippet.of("$T.$N()", this.className, TABLE_ACCESSOR_NAME);
+    }
+
+    /**
+     * Returns the binary name of the PermissionIndex implementation, as listed in the service file.
+     */
+    public String getIndexBinaryName() {
+        StringBuilder name = new StringBuilder();
+        if (!this.className.packageName().isEmpty()) {
+            name.append(this.className.packageName()).append('.');
+        }
+        for (String simpleName : this.className.simpleNames()) {
+            name.append(simpleName).append('$');
+        }
+        return name.append(INDEX_CLASS_NAME).toString();
+    }
+
+    /**
+     * Returns the models the registry is generated from.
+     */
+    public List<RuntimePermissionsModel> getModels() {
+        return this.models;
+    }
+
+    public JavaFile createJavaFile() {
+        TypeName arrayType = ArrayTypeName.of(String.class);
+        ClassName referenceArray = ClassName.get("java.util.concurrent.atomic", "AtomicReferenceArray");
+        String idParam = "id";
+
+        MethodSpec.Builder createMethod = MethodSpec.methodBuilder("create")
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+                .returns(arrayType)
+                .addParameter(TypeName.INT, idParam)
+                .beginControlFlow("switch ($N)", idParam);
+        for (Map.Entry<String, List<String>> entry : this.arrays.entrySet()) {
+            CodeBlock.Builder values = CodeBlock.builder();
+            List<String> permissions = entry.getValue();
+            for (int i = 0; i < permissions.size(); i++) {
+                values.add(i == 0 ? "$S" : ", $S", permissions.get(i));
+            }
+            createMethod.addCode("case $L:\n", this.ids.get(entry.getKey()))
+                    .addStatement("return new String[] {$L}", values.build());
+        }
+        createMethod.addCode("default:\n")
+                .addStatement("throw new $T($S + $N)", IllegalArgumentException.class, "Unknown permissions ", idParam)
+                .endControlFlow();
+
+        // Racing threads may both create an array, which is harmless since they are equal
+        MethodSpec accessor = MethodSpec.methodBuilder(ACCESSOR_NAME)
+                .addModifiers(Modifier.PUBLIC, Modifier.STATIC)
+                .returns(arrayType)
+                .addParameter(TypeName.INT, idParam)
+                .addStatement("$T permissions = PERMISSIONS.get($N)", arrayType, idParam)
+                .beginControlFlow("if (permissions == null)")
+                .addStatement("permissions = create($N)", idParam)
+                .addStatement("PERMISSIONS.set($N, permissions)", idParam)
+                .endControlFlow()
+                .addStatement("return permissions")
+                .build();
+
+        TypeSpec.Builder builder = TypeSpec.classBuilder(this.className)
+                .addModifiers(Modifier.PUBLIC, Modifier.FINAL)
+                .addField(FieldSpec.builder(ParameterizedTypeName.get(referenceArray, arrayType), "PERMISSIONS")
+                        .addModifiers(Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                        .initializer("new $T<>($L)", referenceArray, this.arrays.size())
+                        .build())
+                .addMethod(MethodSpec.constructorBuilder().addModifiers(Modifier.PRIVATE).build())
+                .addMethod(accessor)
+                .addMethod(createMethod.build());
+        if (this.ordinals.fitsInMask()) {
+            addTable(builder);
+        }
+        addIndex(builder);
+        for (RuntimePermissionsModel model : this.models) {
+            builder.addOriginatingElement(model.getElement());
+        }
+        return JavaFile.builder(this.className.packageName(), builder.build())
+                .addFileComment(Constants.FILE_COMMENT)
+                .build();
+    }
+
+    private void addTable(TypeSpec.Builder builder) {
+        // The holder defers creating the table, and checking which permissions exist, until the first check
+        TypeSpec holder = TypeSpec.classBuilder("TableHolder")
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                .addField(FieldSpec.builder(PermissionOrdinals.PERMISSION_TABLE, "TABLE")
+                        .addModifiers(Modifier.STATIC, Modifier.FINAL)
+                        .initializer(this.ordinals.tableInitializer(PermissionMetadata.get()).toCodeBlock())
+                        .build())
+                .build();
+        builder.addMethod(MethodSpec.methodBuilder(TABLE_ACCESSOR_NAME)
+                        .addModifiers(Modifier.PUBLIC, Modifier.STATIC)
+                        .returns(PermissionOrdinals.PERMISSION_TABLE)
+                        .addStatement("return $N.TABLE", holder)
+                        .build())
+                .addType(holder);
+    }
+
+    private void addIndex(TypeSpec.Builder builder) {
+        CodeBlock.Builder values = CodeBlock.builder();
+        List<String> permissions = this.ordinals.getPermissions();
+        for (int i = 0; i < permissions.size(); i++) {
+            values.add(i == 0 ? "$S" : ", $S", permissions.get(i));
+        }
+        // Instantiated by ServiceLoader, hence public
+        builder.addType(TypeSpec.classBuilder(INDEX_CLASS_NAME)
+                .addModifiers(Modifier.PUBLIC, Modifier.STATIC, Modifier.FINAL)
+                .addSuperinterface(PERMISSION_INDEX)
+                .addMethod(MethodSpec.methodBuilder("getPermissions")
+                        .addAnnotation(Override.class)
+                        .addModifiers(Modifier.PUBLIC)
+                        .returns(ArrayTypeName.of(String.class))
+                        .addStatement("return new String[] {$L}", values.build())
+                        .build())
+                .build());
+    }
+
+    private static String key(List<String> permissions) {
+        List<String> escaped = new ArrayList<>(permissions.size());
+        for (String permission : permissions) {
+            escaped.add(permission.replace("\\", "\\\\").replace(",", "\\,"));
+        }
+        return String.join(",", escaped);
+    }
+}
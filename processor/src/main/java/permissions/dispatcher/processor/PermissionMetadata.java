@@ -0,0 +1,106 @@
+package permissions.dispatcher.processor;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compile-time metadata of the framework permissions, bundled with the processor as permission-metadata.txt.
+ * <p>
+ * The minimum SDK versions replace the lookups in the runtime's table of permissions introduced in later
+ * framework versions: generated code passes them to the PermissionTable, which compares them with
+ * Build.VERSION.SDK_INT once instead of consulting a map on every check.
+ */
+public final class PermissionMetadata {
+
+    private static final String RESOURCE_NAME = "permission-metadata.txt";
+
+    private static final String NO_GROUP = "-";
+
+    private static final PermissionMetadata INSTANCE = load();
+
+    private final Map<String, Entry> entries;
+
+    private PermissionMetadata(Map<String, Entry> entries) {
+        this.entries = Collections.unmodifiableMap(entries);
+    }
+
+    /**
+     * Returns the bundled metadata, which is loaded once per processor class loader.
+     */
+    public static PermissionMetadata get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the API level from which the given permission has to be granted.
+     * Permissions without metadata are assumed to exist on all API levels.
+     */
+    public int getMinSdkVersion(String permission) {
+        Entry entry = this.entries.get(permission);
+        return entry != null ? entry.minSdkVersion : 1;
+    }
+
+    /**
+     * Returns the protection level of the given permission, or null if unknown.
+     */
+    public String getProtectionLevel(String permission) {
+        Entry entry = this.entries.get(permission);
+        return entry != null ? entry.protectionLevel : null;
+    }
+
+    /**
+     * Returns the permission group of the given permission, or null if it has none or is unknown.
+     */
+    public String getGroup(String permission) {
+        Entry entry = this.entries.get(permission);
+        return entry != null ? entry.group : null;
+    }
+
+    private static PermissionMetadata load() {
+        Map<String, Entry> entries = new HashMap<>();
+        InputStream in = PermissionMetadata.class.getResourceAsStream(RESOURCE_NAME);
+        if (in == null) {
+            throw new IllegalStateException("Missing resource " + RESOURCE_NAME);
+        }
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    line = line.trim();
+                    if (line.isEmpty() || line.startsWith("#")) {
+                        continue;
+                    }
+                    String[] columns = line.split("\\s+");
+                    if (columns.length != 4) {
+                        throw new IllegalStateException("Malformed line in " + RESOURCE_NAME + ": " + line);
+                    }
+                    entries.put(columns[0], new Entry(Integer.parseInt(columns[1]), columns[2],
+                            NO_GROUP.equals(columns[3]) ? null : columns[3]));
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Couldn't read " + RESOURCE_NAME, e);
+        }
+        return new PermissionMetadata(entries);
+    }
+
+    private static final class Entry {
+        final int minSdkVersion;
+        final String protectionLevel;
+        final String group;
+
+        Entry(int minSdkVersion, String protectionLevel, String group) {
+            this.minSdkVersion = minSdkVersion;
+            this.protectionLevel = protectionLevel;
+            this.group = group;
+        }
+    }
+}
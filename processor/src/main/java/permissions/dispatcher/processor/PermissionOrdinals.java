@@ -0,0 +1,95 @@
+package permissions.dispatcher.processor;
+
+import com.squareup.javapoet.ClassName;
+import permissions.dispatcher.processor.util.Constants;
+import permissions.dispatcher.processor.util.Snippet;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Compile-time ordinals of the distinct permissions of a class or module.
+ * <p>
+ * Ordinals follow the alphabetical order of the permissions, so they don't depend on declaration order.
+ * Generated code passes sets of permissions as bitmasks over these ordinals to the runtime's PermissionTable,
+ * which limits a table to {@link #MAX_SIZE} permissions.
+ */
+public final class PermissionOrdinals {
+
+    public static final int MAX_SIZE = Long.SIZE;
+
+    public static final ClassName PERMISSION_TABLE = ClassName.get(Constants.PACKAGE_NAME, "PermissionTable");
+
+    private final List<String> permissions;
+
+    private final Map<String, Integer> ordinals = new HashMap<>();
+
+    private PermissionOrdinals(TreeSet<String> permissions) {
+        this.permissions = Collections.unmodifiableList(new ArrayList<>(permissions));
+        for (String permission : this.permissions) {
+            this.ordinals.put(permission, this.ordinals.size());
+        }
+    }
+
+    /**
+     * Assigns ordinals to the permissions of all @NeedsPermission methods of the given elements.
+     */
+    public static PermissionOrdinals of(List<RuntimePermissionsModel> models) {
+        TreeSet<String> permissions = new TreeSet<>();
+        for (RuntimePermissionsModel model : models) {
+            for (NeedsPermissionMethod needsMethod : model.getNeedsMethods()) {
+                permissions.addAll(needsMethod.getPermissions());
+            }
+        }
+        return new PermissionOrdinals(permissions);
+    }
+
+    public static PermissionOrdinals of(RuntimePermissionsModel model) {
+        return of(Collections.singletonList(model));
+    }
+
+    /**
+     * Returns the permissions in ordinal order.
+     */
+    public List<String> getPermissions() {
+        return this.permissions;
+    }
+
+    public boolean fitsInMask() {
+        return this.permissions.size() <= MAX_SIZE;
+    }
+
+    /**
+     * Returns the expression creating the PermissionTable of these permissions,
+     * passing the minimum SDK versions from the given metadata along.
+     */
+    public Snippet tableInitializer(PermissionMetadata metadata) {
+        List<Snippet> minSdkVersions = new ArrayList<>(this.permissions.size());
+        List<Snippet> values = new ArrayList<>(this.permissions.size());
+        for (String permission : this.permissions) {
+            minSdkVersions.add(Snippet.of("$L", metadata.getMinSdkVersion(permission)));
+            values.add(Snippet.of(", $S", permission));
+        }
+        return Snippet.of("new $T(new int[] {$L}$L)", PERMISSION_TABLE, Snippet.join(", ", minSdkVersions), Snippet.join("", values));
+    }
+
+    public long maskOf(List<String> permissions) {
+        long mask = 0;
+        for (String permission : permissions) {
+            mask |= 1L << ordinalOf(permission);
+        }
+        return mask;
+    }
+
+    public int ordinalOf(String permission) {
+        Integer ordinal = this.ordinals.get(permission);
+        if (ordinal == null || ordinal >= MAX_SIZE) {
+            throw new IllegalArgumentException("No ordinal for " + permission);
+        }
+        return ordinal;
+    }
+}
@@ -1,18 +1,30 @@
 package permissions.dispatcher.processor;
 
 
-import com.squareup.javapoet.JavaFile;
+import com.squareup.javapoet.ClassName;
 import permissions.dispatcher.RuntimePermissions;
 import permissions.dispatcher.processor.impl.ActivityProcessorUnit;
 import permissions.dispatcher.processor.impl.NativeFragmentProcessorUnit;
 import permissions.dispatcher.processor.impl.SupportFragmentProcessorUnit;
+import permissions.dispatcher.processor.util.Constants;
+import permissions.dispatcher.processor.util.ValidationErrors;
 import permissions.dispatcher.processor.util.Validators;
 
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import javax.annotation.processing.AbstractProcessor;
 import javax.annotation.processing.Filer;
@@ -22,8 +34,10 @@ import javax.annotation.processing.RoundEnvironment;
 import javax.lang.model.SourceVersion;
 import javax.lang.model.element.Element;
 import javax.lang.model.element.TypeElement;
-import javax.lang.model.util.Elements;
-import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardLocation;
 
 
 public final class PermissionsProcessor extends AbstractProcessor {
@@ -32,14 +46,24 @@ public final class PermissionsProcessor extends AbstractProcessor {
     private Messager messager;
     /* List of available ProcessorUnits */
     private List<ProcessorUnit> processorUnits;
-    /**
-     * Element Utilities, obtained from the processing environment
-     */
-    private static Elements ELEMENT_UTILS;
-    /**
-     * Type Utilities, obtained from the processing environment
-     */
-    private static Types TYPE_UTILS;
+    /* Whether code generation runs on a fork-join pool, see Constants.OPTION_PARALLEL */
+    private boolean parallel;
+    /* Phase timings and counts, see Constants.OPTION_PROFILE */
+    private Profiler profiler;
+    /* Mixed into all request codes of this module, see Constants.OPTION_REQUEST_CODE_NAMESPACE */
+    private String requestCodeNamespace;
+    /* Whether the request codes are written to the class output, see Constants.OPTION_REQUEST_CODE_REGISTRY */
+    private boolean requestCodeRegistry;
+    /* The methods using each request code of this module, to fail on collisions within a class hierarchy */
+    private final Map<Integer, List<String>> requestCodeUsers = new HashMap<>();
+    /* The permission array registry of compact mode, null in the default mode, see Constants.OPTION_REGISTRY */
+    private ClassName registryClassName;
+    /* Whether the registry has been written in an earlier round */
+    private boolean registryWritten;
+    /* How dispatchers are generated, see Constants.OPTION_EMITTER */
+    private Emitter emitter;
+    /* API levels known at compile time, see Constants.OPTION_MIN_SDK and Constants.OPTION_TARGET_SDK */
+    private SdkVersions sdkVersions;
 
     @Override
     public synchronized void init(ProcessingEnvironment processingEnv) {
@@ -47,8 +71,22 @@ public final class PermissionsProcessor extends AbstractProcessor {
         // Setup helper objects
         filer = processingEnv.getFiler();
         messager = processingEnv.getMessager();
-        ELEMENT_UTILS = processingEnv.getElementUtils();
-        TYPE_UTILS = processingEnv.getTypeUtils();
+        parallel = Boolean.parseBoolean(processingEnv.getOptions().get(Constants.OPTION_PARALLEL));
+        // "-Apermissions.dispatcher.profile" without a value enables profiling as well
+        String profileOption = processingEnv.getOptions().get(Constants.OPTION_PROFILE);
+        profiler = Profiler.create(processingEnv.getOptions().containsKey(Constants.OPTION_PROFILE)
+                && !"false".equalsIgnoreCase(profileOption));
+        requestCodeNamespace = processingEnv.getOptions().get(Constants.OPTION_REQUEST_CODE_NAMESPACE);
+        requestCodeRegistry = Boolean.parseBoolean(processingEnv.getOptions().get(Constants.OPTION_REQUEST_CODE_REGISTRY));
+        registryClassName = parseRegistryClassName();
+        String emitterOption = processingEnv.getOptions().get(Constants.OPTION_EMITTER);
+        emitter = Emitter.fromOption(emitterOption);
+        if (emitter == null) {
+            messager.printMessage(Diagnostic.Kind.WARNING, "Unknown " + Constants.OPTION_EMITTER + " '" + emitterOption
+                    + "', using javapoet");
+            emitter = Emitter.JAVAPOET;
+        }
+        sdkVersions = new SdkVersions(parseSdkVersion(Constants.OPTION_MIN_SDK), parseSdkVersion(Constants.OPTION_TARGET_SDK));
 
         // Setup the list of ProcessorUnits to handle code generation with
         processorUnits = new ArrayList<>();
@@ -72,30 +110,321 @@ public final class PermissionsProcessor extends AbstractProcessor {
         return set;
     }
 
+    @Override
+    public Set<String> getSupportedOptions() {
+        // The registry of compact mode is generated from all elements, which makes the processor aggregating
+        String incrementalCategory = registryClassName == null ? Constants.GRADLE_ISOLATING : Constants.GRADLE_AGGREGATING;
+        return new HashSet<>(Arrays.asList(Constants.OPTION_PARALLEL, Constants.OPTION_PROFILE,
+                Constants.OPTION_REQUEST_CODE_NAMESPACE, Constants.OPTION_REQUEST_CODE_REGISTRY,
+                Constants.OPTION_REGISTRY, Constants.OPTION_EMITTER, Constants.OPTION_MIN_SDK, Constants.OPTION_TARGET_SDK,
+                incrementalCategory));
+    }
+
+    /**
+     * Returns the registry class given by Constants.OPTION_REGISTRY, or null if it isn't set or invalid.
+     */
+    private ClassName parseRegistryClassName() {
+        String value = processingEnv.getOptions().get(Constants.OPTION_REGISTRY);
+        if (value == null || value.isEmpty()) {
+            return null;
+        }
+        if (SourceVersion.isName(value)) {
+            try {
+                return ClassName.bestGuess(value);
+            } catch (IllegalArgumentException ignored) {
+            }
+        }
+        messager.printMessage(Diagnostic.Kind.ERROR, "Invalid " + Constants.OPTION_REGISTRY + " '" + value
+                + "', expected the qualified name of a class such as com.example.app.AppPermissions");
+        return null;
+    }
+
+    /**
+     * Returns the API level given by the option, or SdkVersions.UNKNOWN if it isn't set or invalid.
+     */
+    private int parseSdkVersion(String option) {
+        String value = processingEnv.getOptions().get(option);
+        if (value == null || value.isEmpty()) {
+            return SdkVersions.UNKNOWN;
+        }
+        try {
+            int sdkVersion = Integer.parseInt(value.trim());
+            if (sdkVersion > 0) {
+                return sdkVersion;
+            }
+        } catch (NumberFormatException ignored) {
+        }
+        messager.printMessage(Diagnostic.Kind.WARNING, "Invalid " + option + " '" + value + "', ignoring it");
+        return SdkVersions.UNKNOWN;
+    }
+
     /**
      * Main processing method
      */
     public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
-        // Create a RequestCodeProvider which guarantees unique request codes for each permission request
-        RequestCodeProvider requestCodeProvider = new RequestCodeProvider();
+        profiler.countRound();
+        if (roundEnv.processingOver()) {
+            reportProfile();
+            return true;
+        }
+        // Create the lookup context shared by all elements of this round
+        ProcessingContext context = new ProcessingContext(processingEnv, sdkVersions);
+        // Validate all elements first, collecting every violation instead of stopping at the first one
+        ValidationErrors errors = new ValidationErrors();
+        List<ProcessorUnit> units = new ArrayList<>();
+        List<RuntimePermissionsModel> models = new ArrayList<>();
+        long begin = profiler.begin();
         for (Element element : roundEnv.getElementsAnnotatedWith(RuntimePermissions.class)) {
             // Find a suitable ProcessorUnit for this element
-            ProcessorUnit processorUnit = Validators.findAndValidateProcessorUnit(processorUnits, element);
+            ProcessorUnit processorUnit = Validators.findAndValidateProcessorUnit(context, errors, processorUnits, element);
+            profiler.end(Profiler.Phase.DISCOVERY, begin);
+            if (processorUnit == null) {
+                begin = profiler.begin();
+                continue;
+            }
 
             // Create a RuntimePermissionsElement for this value
-            RuntimePermissionsElement rpe = new RuntimePermissionsElement((TypeElement) element);
+            begin = profiler.begin();
+            RuntimePermissionsElement rpe = new RuntimePermissionsElement(context, (TypeElement) element);
+            profiler.end(Profiler.Phase.CONSTRUCTION, begin);
+            profiler.countElement(rpe);
+
+            begin = profiler.begin();
+            rpe.validate(context, errors);
+            profiler.end(Profiler.Phase.VALIDATION, begin);
+            if (!errors.isEmpty()) {
+                // Nothing will be generated, so there is no point in extracting models anymore
+                begin = profiler.begin();
+                continue;
+            }
+
+            // Code generation only works on the model, the element and its method elements are dropped here
+            begin = profiler.begin();
+            models.add(rpe.createModel());
+            profiler.end(Profiler.Phase.CONSTRUCTION, begin);
+            units.add(processorUnit);
+            begin = profiler.begin();
+        }
+        profiler.end(Profiler.Phase.DISCOVERY, begin);
+        if (!errors.isEmpty()) {
+            // Fail the build once, pointing at every offending element
+            errors.printTo(messager);
+            return true;
+        }
 
-            // Create a JavaFile for this element and write it out
+        // The registry is written once; elements of later rounds get regular dispatchers
+        PermissionArrayRegistry registry = null;
+        if (registryClassName != null && !registryWritten && !models.isEmpty()) {
+            registry = new PermissionArrayRegistry(registryClassName, models);
+        }
+        List<GenerationTask> tasks = new ArrayList<>(models.size());
+        for (int i = 0; i < models.size(); i++) {
+            // Request codes only depend on the element itself, so they are stable across rounds and modules
+            RuntimePermissionsModel model = models.get(i);
+            RequestCodeProvider requestCodeProvider = new RequestCodeProvider(requestCodeNamespace, model.getQualifiedName());
+            tasks.add(new GenerationTask(context, units.get(i), model, requestCodeProvider, registry, profiler, emitter));
+        }
+        if (registry != null) {
+            registryWritten = true;
             try {
-                JavaFile javaFile = processorUnit.createJavaFile(rpe, requestCodeProvider);
-                javaFile.writeTo(filer);
+                writeSource(GeneratedSource.of(registry.createJavaFile()));
+                writeIndexService(registry);
             } catch (Exception e) {
-                e.printStackTrace();
+                messager.printMessage(Diagnostic.Kind.ERROR, "Couldn't write " + registryClassName + ": " + e);
             }
         }
+
+        // Generate the source of each element, then write them out in their original order
+        List<GeneratedSource> sources = isParallel() && tasks.size() > 1
+                ? createSourcesInParallel(tasks)
+                : createSources(tasks);
+        for (int i = 0; i < sources.size(); i++) {
+            GeneratedSource source = sources.get(i);
+            if (source == null) {
+                continue;
+            }
+            begin = profiler.begin();
+            try {
+                writeSource(source);
+                checkRequestCodes(context, tasks.get(i));
+                if (requestCodeRegistry) {
+                    writeRequestCodes(tasks.get(i));
+                }
+            } catch (Exception e) {
+                reportError(tasks.get(i), e);
+            }
+            profiler.end(Profiler.Phase.WRITE, begin);
+        }
         return true;
     }
 
+    /**
+     * Same as JavaFile.writeTo(Filer), but counting the characters written if profiling is enabled.
+     */
+    private void writeSource(GeneratedSource source) throws IOException {
+        JavaFileObject sourceFile = filer.createSourceFile(source.getFileName(), source.getOriginatingElements());
+        try {
+            Writer writer = new BufferedWriter(sourceFile.openWriter());
+            try {
+                if (profiler.isEnabled()) {
+                    StringBuilder text = new StringBuilder();
+                    source.writeTo(text);
+                    writer.write(text.toString());
+                    profiler.countGeneratedFile(text.length());
+                } else {
+                    source.writeTo(writer);
+                }
+            } finally {
+                writer.close();
+            }
+        } catch (IOException | RuntimeException e) {
+            // Don't leave a partial file behind
+            sourceFile.delete();
+            throw e;
+        }
+    }
+
+    /**
+     * Reports every request code of the task which a superclass or subclass of the task's element uses already.
+     * <p>
+     * Codes only have 8 bits, so unrelated classes may share them. Classes of one hierarchy may not, results and
+     * pending requests are kept by target and code, and a target would receive the results of both classes.
+     */
+    private void checkRequestCodes(ProcessingContext context, GenerationTask task) {
+        RequestCodeProvider provider = task.getRequestCodeProvider();
+        TypeElement element = task.getModel().getElement();
+        for (Map.Entry<String, Integer> entry : provider.getAllocatedCodes().entrySet()) {
+            String user = provider.getClassName() + "#" + entry.getKey();
+            List<String> previousUsers = requestCodeUsers.get(entry.getValue());
+            if (previousUsers == null) {
+                previousUsers = new ArrayList<>(1);
+                requestCodeUsers.put(entry.getValue(), previousUsers);
+            }
+            for (String previousUser : previousUsers) {
+                TypeElement previousElement = context.getElementUtils().getTypeElement(
+                        previousUser.substring(0, previousUser.indexOf('#')));
+                if (previousElement != null && !previousElement.equals(element)
+                        && (context.isSubtype(element, previousElement.asType())
+                        || context.isSubtype(previousElement, element.asType()))) {
+                    messager.printMessage(Diagnostic.Kind.ERROR, "Request code " + entry.getValue() + " of " + user
+                            + " is used by " + previousUser + " as well. Set " + Constants.OPTION_REQUEST_CODE_NAMESPACE
+                            + " to another value to move the codes of this module.", element);
+                }
+            }
+            previousUsers.add(user);
+        }
+    }
+
+    private void writeRequestCodes(GenerationTask task) throws IOException {
+        RequestCodeProvider provider = task.getRequestCodeProvider();
+        FileObject resource = filer.createResource(StandardLocation.CLASS_OUTPUT, "",
+                RequestCodeRegistry.fileName(provider.getClassName()), task.getModel().getElement());
+        RequestCodeRegistry.write(provider, resource.openOutputStream());
+    }
+
+    private void writeIndexService(PermissionArrayRegistry registry) throws IOException {
+        List<RuntimePermissionsModel> models = registry.getModels();
+        Element[] originatingElements = new Element[models.size()];
+        for (int i = 0; i < originatingElements.length; i++) {
+            originatingElements[i] = models.get(i).getElement();
+        }
+        FileObject resource = filer.createResource(StandardLocation.CLASS_OUTPUT, "",
+                Constants.PERMISSION_INDEX_SERVICE, originatingElements);
+        Writer writer = new OutputStreamWriter(resource.openOutputStream(), "UTF-8");
+        try {
+            writer.write(registry.getIndexBinaryName() + "\n");
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Writes the profiling report at the end of processing, if profiling is enabled.
+     * <p>
+     * The report goes to the path given as option value, or through the Filer to the class output.
+     */
+    private void reportProfile() {
+        if (!profiler.isEnabled()) {
+            return;
+        }
+        String profileOption = processingEnv.getOptions().get(Constants.OPTION_PROFILE);
+        try {
+            String report;
+            if (profileOption == null || profileOption.isEmpty() || "true".equalsIgnoreCase(profileOption)) {
+                FileObject resource = filer.createResource(StandardLocation.CLASS_OUTPUT, "", Constants.PROFILE_REPORT_PATH);
+                profiler.writeReport(resource.openOutputStream());
+                report = resource.toUri().toString();
+            } else {
+                File reportFile = new File(profileOption);
+                profiler.writeReport(reportFile);
+                report = reportFile.toString();
+            }
+            messager.printMessage(Diagnostic.Kind.NOTE, profiler.summary() + ", report: " + report);
+        } catch (Exception e) {
+            messager.printMessage(Diagnostic.Kind.NOTE, profiler.summary());
+            messager.printMessage(Diagnostic.Kind.WARNING, "Couldn't write the PermissionsDispatcher profile: " + e);
+        }
+    }
+
+    private void reportError(GenerationTask task, Throwable t) {
+        String message = t.getMessage() != null ? t.getMessage() : t.toString();
+        messager.printMessage(Diagnostic.Kind.ERROR, message, task.getModel().getElement());
+    }
+
+    private List<GeneratedSource> createSources(List<GenerationTask> tasks) {
+        List<GeneratedSource> sources = new ArrayList<>(tasks.size());
+        for (GenerationTask task : tasks) {
+            if (emitter == Emitter.STREAM) {
+                // Generated while written, errors are reported then
+                sources.add(task.stream());
+                continue;
+            }
+            try {
+                sources.add(task.call());
+            } catch (Exception e) {
+                reportError(task, e);
+                sources.add(null);
+            }
+        }
+        return sources;
+    }
+
+    /**
+     * Runs the code generation of all tasks on a fork-join pool.
+     * <p>
+     * Only the construction of JavaPoet trees, or the rendering of the streaming emitter, happens off the processor
+     * thread; the results are returned in task order, so the written output is identical to the serial mode.
+     */
+    private List<GeneratedSource> createSourcesInParallel(List<GenerationTask> tasks) {
+        List<GeneratedSource> sources = new ArrayList<>(tasks.size());
+        ForkJoinPool pool = new ForkJoinPool();
+        try {
+            List<Future<GeneratedSource>> futures = pool.invokeAll(tasks);
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    sources.add(futures.get(i).get());
+                } catch (ExecutionException e) {
+                    reportError(tasks.get(i), e.getCause());
+                    sources.add(null);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } finally {
+            pool.shutdown();
+        }
+        return sources;
+    }
+
+    public boolean isParallel() {
+        return parallel;
+    }
+
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
     public Filer getFiler() {
         return filer;
     }
@@ -119,20 +448,4 @@ public final class PermissionsProcessor extends AbstractProcessor {
     public void setProcessorUnits(List<ProcessorUnit> processorUnits) {
         this.processorUnits = processorUnits;
     }
-
-    public static Elements getElementUtils() {
-        return ELEMENT_UTILS;
-    }
-
-    public static void setElementUtils(Elements elementUtils) {
-        ELEMENT_UTILS = elementUtils;
-    }
-
-    public static Types getTypeUtils() {
-        return TYPE_UTILS;
-    }
-
-    public static void setTypeUtils(Types typeUtils) {
-        TYPE_UTILS = typeUtils;
-    }
 }
@@ -0,0 +1,148 @@
+package permissions.dispatcher.processor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.Name;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+
+/**
+ * Environment of a single processing round.
+ * <p>
+ * Holds the Element and Type utilities of the current compilation and memoizes
+ * the lookups done by the ProcessorUnits and Validators, so that each class name is resolved
+ * and each classpath probe is done only once per round. A new context is created for every round,
+ * which keeps concurrent compilations in the same JVM isolated from each other.
+ */
+public final class ProcessingContext {
+    private final Elements elementUtils;
+
+    private final Types typeUtils;
+
+    private final SdkVersions sdkVersions;
+
+    private final ConcurrentMap<String, Boolean> classpathProbes = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, TypeMirror> typeMirrors = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<Name, ConcurrentMap<Name, Boolean>> subtypeResults = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, String> permissionKeys = new ConcurrentHashMap<>();
+
+    public ProcessingContext(ProcessingEnvironment processingEnv, SdkVersions sdkVersions) {
+        this.elementUtils = processingEnv.getElementUtils();
+        this.typeUtils = processingEnv.getTypeUtils();
+        this.sdkVersions = sdkVersions;
+    }
+
+    public Elements getElementUtils() {
+        return this.elementUtils;
+    }
+
+    public Types getTypeUtils() {
+        return this.typeUtils;
+    }
+
+    /**
+     * Returns the API levels of the app the generated code may rely on.
+     */
+    public SdkVersions getSdkVersions() {
+        return this.sdkVersions;
+    }
+
+    /**
+     * Returns whether or not a class with the provided canonical name can be resolved in this compilation.
+     */
+    public boolean isOnClasspath(String className) {
+        Boolean present = this.classpathProbes.get(className);
+        if (present == null) {
+            TypeElement typeElement = this.elementUtils.getTypeElement(className);
+            if (typeElement != null) {
+                this.typeMirrors.putIfAbsent(className, typeElement.asType());
+            }
+            present = typeElement != null;
+            this.classpathProbes.putIfAbsent(className, present);
+        }
+        return present;
+    }
+
+    /**
+     * Returns the TypeMirror of the class with the provided canonical name,
+     * or null if that class isn't available in this compilation.
+     */
+    public TypeMirror typeMirrorOf(String className) {
+        return isOnClasspath(className) ? this.typeMirrors.get(className) : null;
+    }
+
+    /**
+     * Returns whether or not a class is a subtype of the provided TypeMirror.
+     * <p>
+     * For a class as supertype, the superclass chain is walked up to the first class with a known result,
+     * which is then kept for every class on the way. Classes sharing a base class, e.g. the Activities of an app,
+     * thus reuse its result instead of walking the whole hierarchy again.
+     */
+    public boolean isSubtype(TypeElement element, TypeMirror ofType) {
+        Element ofElement = this.typeUtils.asElement(ofType);
+        if (ofElement == null || ofElement.getKind() != ElementKind.CLASS) {
+            return this.typeUtils.isSubtype(element.asType(), ofType);
+        }
+        Name ofName = ((TypeElement) ofElement).getQualifiedName();
+        ConcurrentMap<Name, Boolean> results = this.subtypeResults.get(ofName);
+        if (results == null) {
+            results = new ConcurrentHashMap<>();
+            ConcurrentMap<Name, Boolean> existing = this.subtypeResults.putIfAbsent(ofName, results);
+            if (existing != null) {
+                results = existing;
+            }
+        }
+        List<Name> visited = new ArrayList<>();
+        TypeElement current = element;
+        Boolean result = null;
+        while (result == null) {
+            Name name = current.getQualifiedName();
+            result = results.get(name);
+            if (result != null) {
+                break;
+            }
+            visited.add(name);
+            TypeMirror superclass = current.getSuperclass();
+            if (name.contentEquals(ofName)) {
+                result = true;
+            } else if (superclass.getKind() != TypeKind.DECLARED) {
+                // java.lang.Object, or a superclass that can't be resolved
+                result = false;
+            } else {
+                current = (TypeElement) this.typeUtils.asElement(superclass);
+            }
+        }
+        for (Name name : visited) {
+            results.putIfAbsent(name, result);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the canonical instance of a permission-set key,
+     * so that equal keys of different elements share a single String.
+     */
+    public String internPermissionKey(String key) {
+        String existing = this.permissionKeys.putIfAbsent(key, key);
+        return existing != null ? existing : key;
+    }
+
+    /**
+     * Returns whether or not the two provided TypeMirrors represent the same type.
+     */
+    public boolean isSameType(TypeMirror type, TypeMirror otherType) {
+        return this.typeUtils.isSameType(type, otherType);
+    }
+}
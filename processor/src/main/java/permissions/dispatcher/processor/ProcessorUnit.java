@@ -2,11 +2,33 @@ package permissions.dispatcher.processor;
 
 import com.squareup.javapoet.JavaFile;
 
+import java.io.IOException;
+
 import javax.lang.model.type.TypeMirror;
 
 public interface ProcessorUnit {
-    TypeMirror getTargetType();
+    /**
+     * Returns the type handled by this unit,
+     * or null if that type isn't available in the current compilation.
+     */
+    TypeMirror getTargetType(ProcessingContext context);
+
+    /**
+     * Creates the dispatcher of the given element.
+     *
+     * @param registry the module's permission array registry in compact mode, null otherwise
+     */
+    JavaFile createJavaFile(ProcessingContext context,
+                            RuntimePermissionsModel paramRuntimePermissionsModel,
+                            RequestCodeProvider paramRequestCodeProvider,
+                            PermissionArrayRegistry registry);
 
-    JavaFile createJavaFile(RuntimePermissionsElement paramRuntimePermissionsElement,
-                            RequestCodeProvider paramRequestCodeProvider);
+    /**
+     * Writes the source of the same dispatcher straight to the given output, without building a JavaPoet tree.
+     */
+    void writeSource(ProcessingContext context,
+                     RuntimePermissionsModel model,
+                     RequestCodeProvider requestCodeProvider,
+                     PermissionArrayRegistry registry,
+                     Appendable out) throws IOException;
 }
@@ -0,0 +1,161 @@
+package permissions.dispatcher.processor;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects per-phase timings and counts of the processor, see Constants.OPTION_PROFILE.
+ * <p>
+ * When profiling is disabled, {@link #begin()} doesn't read the clock and all other methods return immediately,
+ * so the instrumentation costs a single branch per call. Phase timings are summed up across all rounds;
+ * in parallel mode, the code generation time is the sum over all worker threads.
+ */
+public final class Profiler {
+    public enum Phase {
+        DISCOVERY("discovery"),
+        CONSTRUCTION("construction"),
+        VALIDATION("validation"),
+        CODE_GENERATION("codeGeneration"),
+        WRITE("write");
+
+        private final String key;
+
+        Phase(String key) {
+            this.key = key;
+        }
+    }
+
+    private static final Profiler DISABLED = new Profiler(false);
+
+    private final boolean enabled;
+
+    private final AtomicLong[] phaseNanos = new AtomicLong[Phase.values().length];
+
+    private final AtomicLong rounds = new AtomicLong();
+
+    private final AtomicLong elements = new AtomicLong();
+
+    private final AtomicLong methods = new AtomicLong();
+
+    private final AtomicLong generatedFiles = new AtomicLong();
+
+    private final AtomicLong generatedChars = new AtomicLong();
+
+    private Profiler(boolean enabled) {
+        this.enabled = enabled;
+        for (int i = 0; i < this.phaseNanos.length; i++) {
+            this.phaseNanos[i] = new AtomicLong();
+        }
+    }
+
+    public static Profiler create(boolean enabled) {
+        return enabled ? new Profiler(true) : DISABLED;
+    }
+
+    public boolean isEnabled() {
+        return this.enabled;
+    }
+
+    /**
+     * Returns the start timestamp of a phase, to be passed to {@link #end(Phase, long)}.
+     */
+    public long begin() {
+        return this.enabled ? System.nanoTime() : 0L;
+    }
+
+    public void end(Phase phase, long begin) {
+        if (this.enabled) {
+            this.phaseNanos[phase.ordinal()].addAndGet(System.nanoTime() - begin);
+        }
+    }
+
+    public void countRound() {
+        if (this.enabled) {
+            this.rounds.incrementAndGet();
+        }
+    }
+
+    public void countElement(RuntimePermissionsElement rpe) {
+        if (this.enabled) {
+            this.elements.incrementAndGet();
+            this.methods.addAndGet(rpe.getNeedsElements().size() + rpe.getOnRationaleElements().size()
+                    + rpe.getOnDeniedElements().size() + rpe.getOnNeverAskElements().size());
+        }
+    }
+
+    public void countGeneratedFile(long chars) {
+        if (this.enabled) {
+            this.generatedFiles.incrementAndGet();
+            this.generatedChars.addAndGet(chars);
+        }
+    }
+
+    private long totalNanos() {
+        long total = 0;
+        for (AtomicLong nanos : this.phaseNanos) {
+            total += nanos.get();
+        }
+        return total;
+    }
+
+    /**
+     * Returns a one-line summary, suitable for a compiler note.
+     */
+    public String summary() {
+        StringBuilder summary = new StringBuilder(String.format(Locale.US,
+                "PermissionsDispatcher: %d elements, %d methods, %d files (%d chars) generated in %.1f ms (",
+                this.elements.get(), this.methods.get(), this.generatedFiles.get(), this.generatedChars.get(),
+                totalNanos() / 1e6));
+        for (Phase phase : Phase.values()) {
+            if (phase.ordinal() > 0) {
+                summary.append(", ");
+            }
+            summary.append(phase.key).append(' ')
+                    .append(String.format(Locale.US, "%.1f ms", this.phaseNanos[phase.ordinal()].get() / 1e6));
+        }
+        return summary.append(')').toString();
+    }
+
+    /**
+     * Writes the collected data as JSON document to the given file, creating its directory if needed.
+     */
+    public void writeReport(File file) throws IOException {
+        File parent = file.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Couldn't create directory " + parent);
+        }
+        writeReport(new FileOutputStream(file));
+    }
+
+    /**
+     * Writes the collected data as JSON document, and closes the stream.
+     */
+    public void writeReport(OutputStream out) throws IOException {
+        StringBuilder json = new StringBuilder("{\n")
+                .append("  \"rounds\": ").append(this.rounds.get()).append(",\n")
+                .append("  \"elements\": ").append(this.elements.get()).append(",\n")
+                .append("  \"methods\": ").append(this.methods.get()).append(",\n")
+                .append("  \"generatedFiles\": ").append(this.generatedFiles.get()).append(",\n")
+                .append("  \"generatedChars\": ").append(this.generatedChars.get()).append(",\n")
+                .append("  \"totalNanos\": ").append(totalNanos()).append(",\n")
+                .append("  \"phaseNanos\": {\n");
+        for (Phase phase : Phase.values()) {
+            json.append("    \"").append(phase.key).append("\": ").append(this.phaseNanos[phase.ordinal()].get())
+                    .append(phase.ordinal() < this.phaseNanos.length - 1 ? ",\n" : "\n");
+        }
+        json.append("  }\n}\n");
+
+        Writer writer = new OutputStreamWriter(out, "UTF-8");
+        try {
+            writer.write(json.toString());
+        } finally {
+            writer.close();
+        }
+    }
+}
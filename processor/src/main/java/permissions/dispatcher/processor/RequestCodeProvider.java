@@ -1,26 +1,75 @@
 package permissions.dispatcher.processor;
 
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
- * Helper class providing app-level unique request codes
- * for a round trip of the annotation processor.
+ * Helper class providing the request codes of a single @RuntimePermissions class.
+ * <p>
+ * Codes are derived from the module namespace, the qualified class name and the method name only,
+ * so they are stable across rounds, modules and builds, and a class keeps its codes when other classes are
+ * added or removed. They fit into the lower 8 bits, the only ones FragmentActivity and the support Fragment accept
+ * for permission requests. Collisions within the class are resolved by probing the next free code in declaration order,
+ * collisions with superclasses or subclasses in the module fail processing.
  */
 public final class RequestCodeProvider {
 
-    public final AtomicInteger getCurrentCode() {
-        return this.currentCode;
+    /* Permission request codes are limited to the lower 8 bits by the support library */
+    static final int MAX_REQUEST_CODE = 0xFF;
+
+    private final String namespace;
+
+    private final String className;
+
+    private final Map<String, Integer> codes = new LinkedHashMap<>();
+
+    public RequestCodeProvider(String namespace, String className) {
+        this.namespace = namespace == null ? "" : namespace;
+        this.className = className;
+    }
+
+    public final String getClassName() {
+        return this.className;
     }
 
+    /**
+     * Obtains the request code of the given method, allocating it on first use.
+     */
+    public final synchronized int requestCodeFor(String methodName) {
+        Integer existing = this.codes.get(methodName);
+        if (existing != null) {
+            return existing;
+        }
+        if (this.codes.size() > MAX_REQUEST_CODE) {
+            throw new IllegalStateException("No request codes left for " + this.className);
+        }
+        int code = hash(this.namespace + ":" + this.className + "#" + methodName);
+        while (this.codes.containsValue(code)) {
+            code = (code + 1) & MAX_REQUEST_CODE;
+        }
+        this.codes.put(methodName, code);
+        return code;
+    }
 
-    private final AtomicInteger currentCode = new AtomicInteger(0);
+    /**
+     * Returns the codes allocated so far, keyed by method name in allocation order.
+     */
+    public final synchronized Map<String, Integer> getAllocatedCodes() {
+        return Collections.unmodifiableMap(new LinkedHashMap<>(this.codes));
+    }
 
     /**
-     * Obtains the next unique request code.
-     * This method atomically increments the value
-     * returned upon the next invocation.
+     * 32-bit FNV-1a hash folded into 8 bits. String.hashCode() is avoided on purpose,
+     * its low bits are poorly distributed for names sharing a long common prefix.
      */
-    public final int nextRequestCode() {
-        return this.currentCode.getAndIncrement();
+    private static int hash(String key) {
+        int hash = 0x811C9DC5;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x01000193;
+        }
+        hash ^= hash >>> 16;
+        return (hash ^ (hash >>> 8)) & MAX_REQUEST_CODE;
     }
 }
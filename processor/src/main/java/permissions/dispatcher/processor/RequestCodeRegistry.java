@@ -0,0 +1,144 @@
+package permissions.dispatcher.processor;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Reads and writes the request code registry, see Constants.OPTION_REQUEST_CODE_REGISTRY.
+ * <p>
+ * Every @RuntimePermissions class gets one registry file in its module's class output, listing its codes as
+ * "code=qualified.ClassName#method" lines. Since the files travel with the compiled classes, the app module can
+ * run {@link #main(String[])} over its whole runtime classpath to find codes used by more than one class.
+ */
+public final class RequestCodeRegistry {
+
+    public static final String DIRECTORY = "META-INF/permissions-dispatcher/request-codes/";
+
+    private RequestCodeRegistry() {
+    }
+
+    public static String fileName(String className) {
+        return DIRECTORY + className + ".properties";
+    }
+
+    public static void write(RequestCodeProvider provider, OutputStream out) throws IOException {
+        Writer writer = new OutputStreamWriter(out, "UTF-8");
+        try {
+            for (Map.Entry<String, Integer> entry : provider.getAllocatedCodes().entrySet()) {
+                writer.write(entry.getValue() + "=" + provider.getClassName() + "#" + entry.getKey() + "\n");
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Collects the registered codes of all given directories and jar files.
+     *
+     * @return the users of every code, sorted by code
+     */
+    public static Map<Integer, Set<String>> collect(List<File> classpath) throws IOException {
+        Map<Integer, Set<String>> users = new TreeMap<>();
+        for (File entry : classpath) {
+            if (entry.isDirectory()) {
+                File[] files = new File(entry, DIRECTORY).listFiles();
+                if (files == null) {
+                    continue;
+                }
+                for (File file : files) {
+                    read(new FileInputStream(file), users);
+                }
+            } else if (entry.isFile()) {
+                ZipFile zip = new ZipFile(entry);
+                try {
+                    Enumeration<? extends ZipEntry> zipEntries = zip.entries();
+                    while (zipEntries.hasMoreElements()) {
+                        ZipEntry zipEntry = zipEntries.nextElement();
+                        if (zipEntry.getName().startsWith(DIRECTORY) && !zipEntry.isDirectory()) {
+                            read(zip.getInputStream(zipEntry), users);
+                        }
+                    }
+                } finally {
+                    zip.close();
+                }
+            }
+        }
+        return users;
+    }
+
+    /**
+     * Returns a description of every code used by more than one class.
+     */
+    public static List<String> findCollisions(Map<Integer, Set<String>> users) {
+        List<String> collisions = new ArrayList<>();
+        for (Map.Entry<Integer, Set<String>> entry : users.entrySet()) {
+            Set<String> classes = new LinkedHashSet<>();
+            for (String user : entry.getValue()) {
+                classes.add(user.substring(0, user.indexOf('#')));
+            }
+            if (classes.size() > 1) {
+                collisions.add("Request code " + entry.getKey() + " is used by " + entry.getValue());
+            }
+        }
+        return collisions;
+    }
+
+    private static void read(InputStream in, Map<Integer, Set<String>> users) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int separator = line.indexOf('=');
+                if (line.isEmpty() || line.startsWith("#") || separator < 0) {
+                    continue;
+                }
+                Integer code = Integer.valueOf(line.substring(0, separator).trim());
+                Set<String> codeUsers = users.get(code);
+                if (codeUsers == null) {
+                    codeUsers = new LinkedHashSet<>();
+                    users.put(code, codeUsers);
+                }
+                codeUsers.add(line.substring(separator + 1).trim());
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Checks the given classpath entries for request code collisions, exiting with status 1 if there are any.
+     */
+    public static void main(String[] args) throws IOException {
+        List<File> classpath = new ArrayList<>();
+        for (String arg : args) {
+            for (String path : arg.split(File.pathSeparator)) {
+                if (!path.isEmpty()) {
+                    classpath.add(new File(path));
+                }
+            }
+        }
+        List<String> collisions = findCollisions(collect(classpath));
+        for (String collision : collisions) {
+            System.err.println(collision);
+        }
+        if (!collisions.isEmpty()) {
+            System.exit(1);
+        }
+    }
+}
@@ -10,27 +10,28 @@ import permissions.dispatcher.OnShowRationale;
 import permissions.dispatcher.processor.util.Constants;
 import permissions.dispatcher.processor.util.ExtensionsUtils;
 import permissions.dispatcher.processor.util.HelperUtils;
+import permissions.dispatcher.processor.util.ValidationErrors;
 import permissions.dispatcher.processor.util.Validators;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import javax.lang.model.element.ExecutableElement;
 import javax.lang.model.element.TypeElement;
 import javax.lang.model.element.TypeParameterElement;
+import javax.lang.model.element.VariableElement;
 
-
+/**
+ * A @RuntimePermissions class as seen by javac, used to validate it.
+ * <p>
+ * Once validated, {@link #createModel()} extracts what code generation needs, and the element can be dropped.
+ */
 public final class RuntimePermissionsElement {
-    private final TypeName typeName;
-
-    private final List<TypeVariableName> typeVariables;
-
-    private final String packageName;
+    private final TypeElement element;
 
     private final String inputClassName;
 
-    private final String generatedClassName;
-
     private final List<ExecutableElement> needsElements;
 
     private final List<ExecutableElement> onRationaleElements;
@@ -39,109 +40,141 @@ public final class RuntimePermissionsElement {
 
     private final List<ExecutableElement> onNeverAskElements;
 
-    public RuntimePermissionsElement(TypeElement e) {
-        this.typeName = TypeName.get(e.asType());
-        this.typeVariables = new ArrayList<>();
-        for (TypeParameterElement parameterElement : e.getTypeParameters()) {
-            this.typeVariables.add(TypeVariableName.get(parameterElement));
-        }
-        this.packageName = ExtensionsUtils.getPackageName(e);
-        this.inputClassName = ExtensionsUtils.getSimpleString(e);
-        this.generatedClassName = inputClassName + Constants.GEN_CLASS_SUFFIX;
-        this.needsElements = ExtensionsUtils.getChildElementsAnnotatedWith(e, NeedsPermission.class);
-        this.onRationaleElements = ExtensionsUtils.getChildElementsAnnotatedWith(e, OnShowRationale.class);
-        this.onDeniedElements = ExtensionsUtils.getChildElementsAnnotatedWith(e, OnPermissionDenied.class);
-        this.onNeverAskElements = ExtensionsUtils.getChildElementsAnnotatedWith(e, OnNeverAskAgain.class);
-        validateNeedsMethods();
-        validateRationaleMethods();
-        validateDeniedMethods();
-        validateNeverAskMethods();
-    }
+    private final AnnotationIndex index;
 
-    public TypeName getTypeName() {
-        return this.typeName;
+    public RuntimePermissionsElement(ProcessingContext context, TypeElement e) {
+        this.element = e;
+        this.inputClassName = ExtensionsUtils.getSimpleString(e);
+        this.index = new AnnotationIndex(context, e);
+        this.needsElements = index.getElements(NeedsPermission.class);
+        this.onRationaleElements = index.getElements(OnShowRationale.class);
+        this.onDeniedElements = index.getElements(OnPermissionDenied.class);
+        this.onNeverAskElements = index.getElements(OnNeverAskAgain.class);
     }
 
-
-    public List<TypeVariableName> getTypeVariables() {
-        return this.typeVariables;
+    /**
+     * Checks all methods of this element against the rules of their annotation,
+     * collecting every violation in the provided errors.
+     */
+    public void validate(ProcessingContext context, ValidationErrors errors) {
+        validateNeedsMethods(errors);
+        validateRationaleMethods(context, errors);
+        validateDeniedMethods(context, errors);
+        validateNeverAskMethods(context, errors);
     }
 
-
-    public String getPackageName() {
-        return this.packageName;
+    /**
+     * Returns the annotated class this element was created from.
+     */
+    public TypeElement getElement() {
+        return this.element;
     }
 
-
     public String getInputClassName() {
         return this.inputClassName;
     }
 
-
-    public String getGeneratedClassName() {
-        return this.generatedClassName;
-    }
-
-
     public List<ExecutableElement> getNeedsElements() {
         return this.needsElements;
     }
 
-
     public List<ExecutableElement> getOnRationaleElements() {
         return this.onRationaleElements;
     }
 
-
     public List<ExecutableElement> getOnDeniedElements() {
         return this.onDeniedElements;
     }
 
-
     public List<ExecutableElement> getOnNeverAskElements() {
         return this.onNeverAskElements;
     }
 
-    private void validateNeedsMethods() {
-        Validators.checkNotEmpty(this.needsElements, this, NeedsPermission.class);
-        Validators.checkPrivateMethods(this.needsElements, NeedsPermission.class);
-        Validators.checkMethodSignature(this.needsElements);
-        Validators.checkMixPermissionType(this.needsElements, NeedsPermission.class);
+    private void validateNeedsMethods(ValidationErrors errors) {
+        Validators.checkNotEmpty(errors, this.needsElements, this, NeedsPermission.class);
+        Validators.checkPrivateMethods(errors, this.needsElements, NeedsPermission.class);
+        Validators.checkMethodSignature(errors, this.needsElements);
+        Validators.checkMixPermissionType(errors, this.index, this.needsElements, NeedsPermission.class);
+        Validators.checkPermissionCount(errors, this);
     }
 
-    private void validateRationaleMethods() {
-        Validators.checkDuplicatedValue(this.onRationaleElements, OnShowRationale.class);
-        Validators.checkPrivateMethods(this.onRationaleElements, OnShowRationale.class);
-        Validators.checkMethodSignature(this.onRationaleElements);
-        Validators.checkMethodParameters(this.onRationaleElements, 1,
-                HelperUtils.typeMirrorOf(Constants.PACKAGE_NAME + "." + Constants.GEN_PERMISSIONREQUEST_SUFFIX));
+    private void validateRationaleMethods(ProcessingContext context, ValidationErrors errors) {
+        Validators.checkDuplicatedValue(errors, this.index, this.onRationaleElements, OnShowRationale.class);
+        Validators.checkPrivateMethods(errors, this.onRationaleElements, OnShowRationale.class);
+        Validators.checkMethodSignature(errors, this.onRationaleElements);
+        Validators.checkMethodParameters(context, errors, this.onRationaleElements, 1,
+                context.typeMirrorOf(Constants.PACKAGE_NAME + "." + Constants.GEN_PERMISSIONREQUEST_SUFFIX));
     }
 
-    private void validateDeniedMethods() {
-        Validators.checkDuplicatedValue(this.onDeniedElements, OnPermissionDenied.class);
-        Validators.checkPrivateMethods(this.onDeniedElements, OnPermissionDenied.class);
-        Validators.checkMethodSignature(this.onDeniedElements);
-        Validators.checkMethodParameters(this.onDeniedElements, 0);
+    private void validateDeniedMethods(ProcessingContext context, ValidationErrors errors) {
+        Validators.checkDuplicatedValue(errors, this.index, this.onDeniedElements, OnPermissionDenied.class);
+        Validators.checkPrivateMethods(errors, this.onDeniedElements, OnPermissionDenied.class);
+        Validators.checkMethodSignature(errors, this.onDeniedElements);
+        Validators.checkMethodParameters(context, errors, this.onDeniedElements, 0);
     }
 
-    private void validateNeverAskMethods() {
-        Validators.checkDuplicatedValue(this.onNeverAskElements, OnNeverAskAgain.class);
-        Validators.checkPrivateMethods(this.onNeverAskElements, OnNeverAskAgain.class);
-        Validators.checkMethodSignature(this.onNeverAskElements);
-        Validators.checkMethodParameters(this.onNeverAskElements, 0);
+    private void validateNeverAskMethods(ProcessingContext context, ValidationErrors errors) {
+        Validators.checkDuplicatedValue(errors, this.index, this.onNeverAskElements, OnNeverAskAgain.class);
+        Validators.checkPrivateMethods(errors, this.onNeverAskElements, OnNeverAskAgain.class);
+        Validators.checkMethodSignature(errors, this.onNeverAskElements);
+        Validators.checkMethodParameters(context, errors, this.onNeverAskElements, 0);
+    }
+
+    /**
+     * Returns the permissions requested by a @NeedsPermission method, in the order they were declared in.
+     */
+    public List<String> getNeedsPermissions(ExecutableElement needsElement) {
+        return this.index.getPermissions(NeedsPermission.class, needsElement);
     }
 
     public ExecutableElement findOnRationaleForNeeds(ExecutableElement needsElement) {
-        return HelperUtils.findMatchingMethodForNeeds(needsElement, this.onRationaleElements, OnShowRationale.class);
+        return this.index.findMatchingMethodForNeeds(needsElement, OnShowRationale.class);
     }
 
     public ExecutableElement findOnDeniedForNeeds(ExecutableElement needsElement) {
-        return HelperUtils.findMatchingMethodForNeeds(needsElement, this.onDeniedElements, OnPermissionDenied.class);
+        return this.index.findMatchingMethodForNeeds(needsElement, OnPermissionDenied.class);
     }
 
     public ExecutableElement findOnNeverAskForNeeds(ExecutableElement needsElement) {
-        return HelperUtils.findMatchingMethodForNeeds(needsElement, this.onNeverAskElements, OnNeverAskAgain.class);
+        return this.index.findMatchingMethodForNeeds(needsElement, OnNeverAskAgain.class);
     }
 
+    /**
+     * Extracts the immutable model code generation works on, in a single pass over the @NeedsPermission methods.
+     */
+    public RuntimePermissionsModel createModel() {
+        List<TypeVariableName> typeVariables = new ArrayList<>();
+        for (TypeParameterElement parameterElement : this.element.getTypeParameters()) {
+            typeVariables.add(TypeVariableName.get(parameterElement));
+        }
+        List<NeedsPermissionMethod> needsMethods = new ArrayList<>(this.needsElements.size());
+        for (ExecutableElement needsElement : this.needsElements) {
+            List<MethodParameter> parameters = new ArrayList<>();
+            for (VariableElement parameter : needsElement.getParameters()) {
+                parameters.add(new MethodParameter(ExtensionsUtils.getSimpleString(parameter), HelperUtils.typeNameOf(parameter)));
+            }
+            needsMethods.add(new NeedsPermissionMethod(
+                    ExtensionsUtils.getSimpleString(needsElement),
+                    parameters.isEmpty() ? Collections.<MethodParameter>emptyList() : Collections.unmodifiableList(parameters),
+                    getNeedsPermissions(needsElement),
+                    this.index.getPermissionKey(NeedsPermission.class, needsElement),
+                    ((Number) this.index.getAttribute(NeedsPermission.class, needsElement, "priority")).intValue(),
+                    ((Number) this.index.getAttribute(NeedsPermission.class, needsElement, "timeoutMillis")).longValue(),
+                    nameOf(findOnRationaleForNeeds(needsElement)),
+                    nameOf(findOnDeniedForNeeds(needsElement)),
+                    nameOf(findOnNeverAskForNeeds(needsElement))));
+        }
+        return new RuntimePermissionsModel(this.element,
+                this.element.getQualifiedName().toString(),
+                TypeName.get(this.element.asType()),
+                Collections.unmodifiableList(typeVariables),
+                ExtensionsUtils.getPackageName(this.element),
+                this.inputClassName,
+                this.inputClassName + Constants.GEN_CLASS_SUFFIX,
+                Collections.unmodifiableList(needsMethods));
+    }
 
+    private static String nameOf(ExecutableElement method) {
+        return method != null ? ExtensionsUtils.getSimpleString(method) : null;
+    }
 }
@@ -0,0 +1,86 @@
+package permissions.dispatcher.processor;
+
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeVariableName;
+
+import java.util.List;
+
+import javax.lang.model.element.TypeElement;
+
+/**
+ * Immutable description of a validated @RuntimePermissions class, which is all that code generation works on.
+ * <p>
+ * It is extracted from a {@link RuntimePermissionsElement} in a single pass: names are converted to Strings,
+ * types to JavaPoet TypeNames and permission keys are interned once, so the method elements, their annotations
+ * and the index over them can be collected before any dispatcher is generated. The class element is kept only to
+ * report it as the originating element of the generated files; javac holds on to it for the whole compilation anyway.
+ */
+public final class RuntimePermissionsModel {
+    private final TypeElement element;
+
+    private final String qualifiedName;
+
+    private final TypeName typeName;
+
+    private final List<TypeVariableName> typeVariables;
+
+    private final String packageName;
+
+    private final String inputClassName;
+
+    private final String generatedClassName;
+
+    private final List<NeedsPermissionMethod> needsMethods;
+
+    RuntimePermissionsModel(TypeElement element, String qualifiedName, TypeName typeName,
+                            List<TypeVariableName> typeVariables, String packageName, String inputClassName,
+                            String generatedClassName, List<NeedsPermissionMethod> needsMethods) {
+        this.element = element;
+        this.qualifiedName = qualifiedName;
+        this.typeName = typeName;
+        this.typeVariables = typeVariables;
+        this.packageName = packageName;
+        this.inputClassName = inputClassName;
+        this.generatedClassName = generatedClassName;
+        this.needsMethods = needsMethods;
+    }
+
+    /**
+     * Returns the annotated class, to be reported as originating element only.
+     * This lets Gradle process the generated files incrementally.
+     */
+    public TypeElement getElement() {
+        return this.element;
+    }
+
+    public String getQualifiedName() {
+        return this.qualifiedName;
+    }
+
+    public TypeName getTypeName() {
+        return this.typeName;
+    }
+
+    public List<TypeVariableName> getTypeVariables() {
+        return this.typeVariables;
+    }
+
+    public String getPackageName() {
+        return this.packageName;
+    }
+
+    public String getInputClassName() {
+        return this.inputClassName;
+    }
+
+    public String getGeneratedClassName() {
+        return this.generatedClassName;
+    }
+
+    /**
+     * Returns the @NeedsPermission methods, in declaration order.
+     */
+    public List<NeedsPermissionMethod> getNeedsMethods() {
+        return this.needsMethods;
+    }
+}
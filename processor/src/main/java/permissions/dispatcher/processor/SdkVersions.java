@@ -0,0 +1,50 @@
+package permissions.dispatcher.processor;
+
+/**
+ * API levels of the app, as far as they are known at compile time, see Constants.OPTION_MIN_SDK and
+ * Constants.OPTION_TARGET_SDK.
+ * <p>
+ * Generated code asks the runtime for the target SDK version only if its outcome isn't known already.
+ * An app never targets an API level below its minimum one, so a minimum of 23 settles it as well.
+ */
+public final class SdkVersions {
+
+    /**
+     * API level of an unknown minimum or target SDK version.
+     */
+    public static final int UNKNOWN = 0;
+
+    /* API level from which permissions are requested at runtime instead of being granted on install */
+    private static final int RUNTIME_PERMISSIONS = 23;
+
+    private final int minSdkVersion;
+
+    private final int targetSdkVersion;
+
+    public SdkVersions(int minSdkVersion, int targetSdkVersion) {
+        this.minSdkVersion = minSdkVersion;
+        this.targetSdkVersion = targetSdkVersion;
+    }
+
+    public int getMinSdkVersion() {
+        return this.minSdkVersion;
+    }
+
+    public int getTargetSdkVersion() {
+        return this.targetSdkVersion;
+    }
+
+    /**
+     * Returns true if the app is known to target API level 23 or later, on every device.
+     */
+    public boolean targetsRuntimePermissions() {
+        return Math.max(this.minSdkVersion, this.targetSdkVersion) >= RUNTIME_PERMISSIONS;
+    }
+
+    /**
+     * Returns true if the app is known to target an API level below 23, so its permissions are granted on install.
+     */
+    public boolean targetsInstallTimePermissions() {
+        return this.targetSdkVersion != UNKNOWN && !targetsRuntimePermissions();
+    }
+}
@@ -1,10 +1,10 @@
 package permissions.dispatcher.processor.exception;
 
-import permissions.dispatcher.processor.RuntimePermissionsElement;
+import permissions.dispatcher.processor.RuntimePermissionsModel;
 
 public final class SupportV13MissingException
         extends RuntimeException {
-    public SupportV13MissingException(RuntimePermissionsElement e) {
+    public SupportV13MissingException(RuntimePermissionsModel e) {
         super("PermissionsDispatcher for annotated class '" + e.getInputClassName() + "' cannot be generated, because the support-permission.dispatcher.v13 dependency is missing on your project");
     }
 }
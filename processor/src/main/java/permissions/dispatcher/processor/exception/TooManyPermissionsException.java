@@ -0,0 +1,10 @@
+package permissions.dispatcher.processor.exception;
+
+import permissions.dispatcher.processor.RuntimePermissionsElement;
+
+public final class TooManyPermissionsException
+        extends RuntimeException {
+    public TooManyPermissionsException(RuntimePermissionsElement rpe, int count, int maxCount) {
+        super("Annotated class '" + rpe.getInputClassName() + "' uses " + count + " distinct permissions, only " + maxCount + " are supported.");
+    }
+}
@@ -1,9 +1,9 @@
 package permissions.dispatcher.processor.impl;
 
 import com.squareup.javapoet.ClassName;
-import com.squareup.javapoet.MethodSpec;
-import permissions.dispatcher.processor.RuntimePermissionsElement;
-import permissions.dispatcher.processor.util.HelperUtils;
+import permissions.dispatcher.processor.ProcessingContext;
+import permissions.dispatcher.processor.RuntimePermissionsModel;
+import permissions.dispatcher.processor.util.Snippet;
 
 import javax.lang.model.type.TypeMirror;
 
@@ -11,15 +11,15 @@ import javax.lang.model.type.TypeMirror;
  * ProcessorUnit implementation for Activity classes.
  */
 public final class ActivityProcessorUnit extends BaseProcessorUnit {
-    private final ClassName ACTIVITY_COMPAT =
-            ClassName.get("android.support.v4.app", "ActivityCompat");
+    private final ClassName PERMISSION_UTILS =
+            ClassName.get("permissions.dispatcher", "PermissionUtils");
 
 
-    public TypeMirror getTargetType() {
-        return HelperUtils.typeMirrorOf("android.app.Activity");
+    public TypeMirror getTargetType(ProcessingContext context) {
+        return context.typeMirrorOf("android.app.Activity");
     }
 
-    public void checkPrerequisites(RuntimePermissionsElement rpe) {
+    public void checkPrerequisites(ProcessingContext context, RuntimePermissionsModel model) {
         // Nothing to check
     }
 
@@ -27,12 +27,15 @@ public final class ActivityProcessorUnit extends BaseProcessorUnit {
         return targetParam;
     }
 
-    public void addShouldShowRequestPermissionRationaleCondition(MethodSpec.Builder builder, String targetParam, String permissionField, boolean isPositiveCondition) {
-        builder.beginControlFlow("if ($N$T.shouldShowRequestPermissionRationale($N, $N))", isPositiveCondition ? "" : "!",
-                getPERMISSION_UTILS(), targetParam, permissionField);
+    public Snippet queryPermissionStates(String targetParam, Snippet table, Snippet mask) {
+        return Snippet.of("$L.queryStates($N, $L)", table, targetParam, mask);
     }
 
-    public void addRequestPermissionsStatement(MethodSpec.Builder builder, String targetParam, String permissionField, String requestCodeField) {
-        builder.addStatement("$T.requestPermissions($N, $N, $N)", this.ACTIVITY_COMPAT, targetParam, permissionField, requestCodeField);
+    public Snippet queryPermissionState(String targetParam, Snippet table, Snippet ordinal) {
+        return Snippet.of("$L.queryState($N, $L)", table, targetParam, ordinal);
+    }
+
+    public Snippet requestPermissionsStatement(String targetParam, Snippet permissions, String requestCodeField) {
+        return Snippet.of("$T.requestPermissions($N, $L, $N)", this.PERMISSION_UTILS, targetParam, permissions, requestCodeField);
     }
 }
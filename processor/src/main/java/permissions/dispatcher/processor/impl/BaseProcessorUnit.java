@@ -1,6 +1,7 @@
 package permissions.dispatcher.processor.impl;
 
 
+import com.squareup.javapoet.AnnotationSpec;
 import com.squareup.javapoet.ArrayTypeName;
 import com.squareup.javapoet.ClassName;
 import com.squareup.javapoet.CodeBlock;
@@ -10,24 +11,26 @@ import com.squareup.javapoet.MethodSpec;
 import com.squareup.javapoet.ParameterizedTypeName;
 import com.squareup.javapoet.TypeName;
 import com.squareup.javapoet.TypeSpec;
-import permissions.dispatcher.NeedsPermission;
+import permissions.dispatcher.processor.MethodParameter;
+import permissions.dispatcher.processor.NeedsPermissionMethod;
+import permissions.dispatcher.processor.PermissionArrayRegistry;
+import permissions.dispatcher.processor.ProcessingContext;
 import permissions.dispatcher.processor.ProcessorUnit;
 import permissions.dispatcher.processor.RequestCodeProvider;
-import permissions.dispatcher.processor.RuntimePermissionsElement;
+import permissions.dispatcher.processor.RuntimePermissionsModel;
+import permissions.dispatcher.processor.SdkVersions;
 import permissions.dispatcher.processor.impl.helper.SensitivePermissionInterface;
 import permissions.dispatcher.processor.impl.helper.SystemAlertWindowHelper;
 import permissions.dispatcher.processor.impl.helper.WriteSettingsHelper;
 import permissions.dispatcher.processor.util.Constants;
-import permissions.dispatcher.processor.util.ExtensionsUtils;
-import permissions.dispatcher.processor.util.HelperUtils;
+import permissions.dispatcher.processor.util.Snippet;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 
-import javax.lang.model.element.ExecutableElement;
 import javax.lang.model.element.Modifier;
-import javax.lang.model.element.VariableElement;
 
 /**
  * Base class for ProcessorUnit implementations.
@@ -37,6 +40,10 @@ import javax.lang.model.element.VariableElement;
 public abstract class BaseProcessorUnit implements ProcessorUnit {
 
     private final ClassName PERMISSION_UTILS = ClassName.get(Constants.PACKAGE_NAME, "PermissionUtils");
+    private final ClassName PERMISSION_BROKER = ClassName.get(Constants.PACKAGE_NAME, "PermissionBroker");
+    private final ClassName PENDING_REQUESTS = ClassName.get(Constants.PACKAGE_NAME, "PendingRequests");
+    private final ClassName PERMISSION_OUTCOME_RESULT = ClassName.get(Constants.PACKAGE_NAME, "PermissionOutcome", "Result");
+    static final String BROKER_CLIENT_CLASS_NAME = "BrokerClient";
     private final String MANIFEST_WRITE_SETTING = "android.permission.WRITE_SETTINGS";
     private final String MANIFEST_SYSTEM_ALERT_WINDOW = "android.permission.SYSTEM_ALERT_WINDOW";
     private final HashMap<String, SensitivePermissionInterface> ADD_WITH_CHECK_BODY_MAP =
@@ -50,75 +57,141 @@ public abstract class BaseProcessorUnit implements ProcessorUnit {
      * <p>
      * This will delegate to other methods that compose generated code.
      */
-    public final JavaFile createJavaFile(RuntimePermissionsElement rpe,
-                                         RequestCodeProvider requestCodeProvider) {
-        checkPrerequisites(rpe);
-        return JavaFile.builder(rpe.getPackageName(), createTypeSpec(rpe, requestCodeProvider))
+    public final JavaFile createJavaFile(ProcessingContext context, RuntimePermissionsModel model,
+                                         RequestCodeProvider requestCodeProvider, PermissionArrayRegistry registry) {
+        checkPrerequisites(context, model);
+        return JavaFile.builder(model.getPackageName(), createTypeSpec(model, requestCodeProvider, registry,
+                context.getSdkVersions()))
                 .addFileComment(Constants.FILE_COMMENT)
                 .build();
     }
 
+    /**
+     * Writes the same source as createJavaFile() without building a JavaPoet tree, see SourceEmitter.
+     * Elements with types the streaming emitter can't write are left to JavaPoet.
+     */
+    public final void writeSource(ProcessingContext context, RuntimePermissionsModel model,
+                                  RequestCodeProvider requestCodeProvider, PermissionArrayRegistry registry,
+                                  Appendable out) throws IOException {
+        if (!SourceEmitter.canEmit(model)) {
+            createJavaFile(context, model, requestCodeProvider, registry).writeTo(out);
+            return;
+        }
+        checkPrerequisites(context, model);
+        new SourceEmitter(this, model, requestCodeProvider, PermissionSource.create(model, registry),
+                context.getSdkVersions()).writeTo(out);
+    }
+
     /* Begin abstract */
-    protected abstract void checkPrerequisites(RuntimePermissionsElement paramRuntimePermissionsElement);
+    protected abstract void checkPrerequisites(ProcessingContext context, RuntimePermissionsModel paramRuntimePermissionsModel);
 
-    protected abstract void addRequestPermissionsStatement(MethodSpec.Builder paramBuilder, String targetParam, String permissionField, String requestCodeField);
+    /**
+     * Returns the statement issuing the system request for the given permissions.
+     */
+    protected abstract Snippet requestPermissionsStatement(String targetParam, Snippet permissions, String requestCodeField);
+
+    /**
+     * Returns the expression querying the grant and rationale states of the permissions of a PermissionTable mask as one snapshot,
+     * evaluating to a combination of PermissionUtils.STATUS_GRANTED and PermissionUtils.STATUS_SHOW_RATIONALE.
+     */
+    protected abstract Snippet queryPermissionStates(String targetParam, Snippet table, Snippet mask);
 
-    protected abstract void addShouldShowRequestPermissionRationaleCondition(MethodSpec.Builder paramBuilder, String targetParam, String permissionField, boolean isPositiveCondition);
+    /**
+     * Returns the same as queryPermissionStates() for the single permission with the given ordinal.
+     */
+    protected abstract Snippet queryPermissionState(String targetParam, Snippet table, Snippet ordinal);
 
 
     protected abstract String getActivityName(String paramString);
 
     /* Begin private */
-    private TypeSpec createTypeSpec(RuntimePermissionsElement rpe,
-                                    RequestCodeProvider requestCodeProvider) {
-        return TypeSpec.classBuilder(rpe.getGeneratedClassName())
+    private TypeSpec createTypeSpec(RuntimePermissionsModel model,
+                                    RequestCodeProvider requestCodeProvider,
+                                    PermissionArrayRegistry registry,
+                                    SdkVersions sdkVersions) {
+        PermissionSource source = PermissionSource.create(model, registry);
+        TypeSpec.Builder builder = TypeSpec.classBuilder(model.getGeneratedClassName())
+                .addOriginatingElement(model.getElement())
                 .addModifiers(Modifier.FINAL)
-                .addFields(createFields(rpe.getNeedsElements(), requestCodeProvider))
+                .addFields(createFields(model, requestCodeProvider, source))
                 .addMethod(createConstructor())
-                .addMethods(createWithCheckMethods(rpe))
-                .addMethods(createPermissionHandlingMethods(rpe))
-                .addTypes(createPermissionRequestClasses(rpe))
-                .build();
+                .addMethods(createWithCheckMethods(model, source))
+                .addMethods(createPermissionHandlingMethods(model, source, sdkVersions))
+                .addTypes(createPermissionRequestClasses(model, source));
+        if (hasNormalPermission(model)) {
+            builder.addType(createBrokerClientClass(model));
+        }
+        return builder.build();
     }
 
-    private List<FieldSpec> createFields(List<? extends ExecutableElement> needsElements,
-                                         RequestCodeProvider requestCodeProvider) {
+    private List<FieldSpec> createFields(RuntimePermissionsModel model,
+                                         RequestCodeProvider requestCodeProvider,
+                                         PermissionSource source) {
         ArrayList<FieldSpec> fields = new ArrayList<>();
-        // For each method annotated with @NeedsPermission, add REQUEST integer and PERMISSION String[] fields
-        for (ExecutableElement element : needsElements) {
-            fields.add(createRequestCodeField(element, requestCodeProvider.nextRequestCode()));
-            fields.add(createPermissionField(element));
-
-            if (!element.getParameters().isEmpty()) {
-                fields.add(createPendingRequestField(element));
-            }
+        FieldSpec tableField = source.createTableField();
+        if (tableField != null) {
+            fields.add(tableField);
+        }
+        // For each method annotated with @NeedsPermission, add REQUEST integer, PERMISSION String[] and MASK long fields
+        for (NeedsPermissionMethod element : model.getNeedsMethods()) {
+            int requestCode = requestCodeProvider.requestCodeFor(element.getName());
+            fields.add(createRequestCodeField(element, requestCode));
+            fields.addAll(source.createFields(element));
         }
         return fields;
     }
 
-    private FieldSpec createRequestCodeField(ExecutableElement e, int index) {
-        return FieldSpec.builder(int.class, HelperUtils.requestCodeFieldName(e))
+    private FieldSpec createRequestCodeField(NeedsPermissionMethod needsMethod, int index) {
+        return FieldSpec.builder(int.class, needsMethod.getRequestCodeFieldName())
                 .addModifiers(Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
                 .initializer("$L", index)
                 .build();
     }
 
-    private FieldSpec createPermissionField(ExecutableElement e) {
-        List<String> permissionValue = ExtensionsUtils.getPermissionValue(e.getAnnotation(NeedsPermission.class));
-        for (int i = 0; i < permissionValue.size(); i++) {
-            permissionValue.set(i, "\"" + permissionValue.get(i) + "\"");
+    /**
+     * Returns the condition checking that all permissions of the given @NeedsPermission method have been granted.
+     */
+    Snippet hasSelfPermissions(String activityVar, NeedsPermissionMethod needsMethod, PermissionSource source) {
+        if (needsMethod.hasSinglePermission()) {
+            return Snippet.of("$L.hasSelfPermission($N, $L)", source.table(), activityVar, source.ordinalOf(needsMethod));
         }
-        String formattedValue = "{" + String.join(",", (String[]) permissionValue.toArray()) + "}";
-        return FieldSpec.builder(ArrayTypeName.of(String.class), HelperUtils.permissionFieldName(e))
-                .addModifiers(Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
-                .initializer("$N", "new String[] " + formattedValue)
-                .build();
+        return Snippet.of("$L.hasSelfPermissions($N, $L)", source.table(), activityVar, source.maskOf(needsMethod));
     }
 
-    private FieldSpec createPendingRequestField(ExecutableElement e) {
-        return FieldSpec.builder(ClassName.get(Constants.PACKAGE_NAME, "GrantableRequest"), HelperUtils.pendingRequestFieldName(e))
-                .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
-                .build();
+    /**
+     * Returns the expression querying the grant and rationale states of the permissions of the given @NeedsPermission method.
+     */
+    Snippet queryStates(String targetParam, NeedsPermissionMethod needsMethod, PermissionSource source) {
+        if (needsMethod.hasSinglePermission()) {
+            return queryPermissionState(targetParam, source.table(), source.ordinalOf(needsMethod));
+        }
+        return queryPermissionStates(targetParam, source.table(), source.maskOf(needsMethod));
+    }
+
+    /**
+     * Returns the condition checking the results of a request for the permissions of the given @NeedsPermission method.
+     */
+    Snippet verifyResults(NeedsPermissionMethod needsMethod, String grantResultsParam) {
+        String method = needsMethod.hasSinglePermission() ? "verifyPermission" : "verifyPermissions";
+        return Snippet.of("$T.$L($N)", PERMISSION_UTILS, method, grantResultsParam);
+    }
+
+    /**
+     * Returns the condition under which an app targeting an API level below 23 reports the permissions as denied,
+     * or null if the target SDK version rules the branch out. The target SDK version is only asked for if unknown.
+     */
+    Snippet legacyDeniedCondition(String activityVar, NeedsPermissionMethod needsMethod, PermissionSource source,
+                                  String statusVar, SdkVersions sdkVersions) {
+        if (sdkVersions.targetsRuntimePermissions()) {
+            return null;
+        }
+        Snippet denied = needsMethod.getOnNeverAskName() != null
+                ? Snippet.of("($N & $T.STATUS_GRANTED) == 0", statusVar, PERMISSION_UTILS)
+                : Snippet.of("!$L", hasSelfPermissions(activityVar, needsMethod, source));
+        if (sdkVersions.targetsInstallTimePermissions()) {
+            return denied;
+        }
+        return Snippet.of("$T.getTargetSdkVersion($N) < 23 && $L", PERMISSION_UTILS, activityVar, denied);
     }
 
     private MethodSpec createConstructor() {
@@ -127,86 +200,130 @@ public abstract class BaseProcessorUnit implements ProcessorUnit {
                 .build();
     }
 
-    private List<MethodSpec> createWithCheckMethods(RuntimePermissionsElement rpe) {
+    private List<MethodSpec> createWithCheckMethods(RuntimePermissionsModel model, PermissionSource source) {
         ArrayList<MethodSpec> methods = new ArrayList<>();
-        for (ExecutableElement executableElement : rpe.getNeedsElements()) {
+        for (NeedsPermissionMethod needsMethod : model.getNeedsMethods()) {
             // For each @NeedsPermission method, create the "WithCheck" equivalent
-            methods.add(createWithCheckMethod(rpe, executableElement));
+            methods.add(createWithCheckMethod(model, needsMethod, source));
+            // and the asynchronous check, unless the permission is granted through the system settings
+            if (sensitivePermissionOf(needsMethod) == null) {
+                methods.add(createOutcomeMethod(model, needsMethod, source));
+            }
         }
         return methods;
     }
 
-    private MethodSpec createWithCheckMethod(RuntimePermissionsElement rpe, ExecutableElement method) {
+    private MethodSpec createOutcomeMethod(RuntimePermissionsModel model, NeedsPermissionMethod method,
+                                           PermissionSource source) {
         String targetParam = "target";
-        MethodSpec.Builder builder = MethodSpec.methodBuilder(HelperUtils.withCheckMethodName(method))
-                .addTypeVariables((Iterable) rpe.getTypeVariables())
+        String executorParam = "executor";
+        return MethodSpec.methodBuilder(method.getOutcomeMethodName())
+                .addTypeVariables(model.getTypeVariables())
+                .addModifiers(Modifier.STATIC)
+                .returns(ClassName.get(Constants.PACKAGE_NAME, "PermissionOutcome"))
+                .addParameter(model.getTypeName(), targetParam)
+                .addParameter(ClassName.get("java.util.concurrent", "Executor"), executorParam)
+                .addStatement("return $T.checkAsync($N, $N, $L)", PERMISSION_UTILS, getActivityName(targetParam), executorParam,
+                        source.arrayOf(method).toCodeBlock())
+                .build();
+    }
+
+    private MethodSpec createWithCheckMethod(RuntimePermissionsModel model, NeedsPermissionMethod method,
+                                             PermissionSource source) {
+        String targetParam = "target";
+        MethodSpec.Builder builder = MethodSpec.methodBuilder(method.getWithCheckMethodName())
+                .addTypeVariables((Iterable) model.getTypeVariables())
                 .addModifiers(Modifier.STATIC)
                 .returns(TypeName.VOID)
-                .addParameter(rpe.getTypeName(), targetParam);
+                .addParameter(model.getTypeName(), targetParam);
         // If the method has parameters, add those as well
-        for (VariableElement element : method.getParameters()) {
-            builder.addParameter(HelperUtils.typeNameOf(element), ExtensionsUtils.getSimpleString(element));
+        for (MethodParameter parameter : method.getParameters()) {
+            builder.addParameter(parameter.getTypeName(), parameter.getName());
         }
         // Delegate method body generation to implementing classes
-        addWithCheckBody(builder, method, rpe, targetParam);
+        addWithCheckBody(builder, method, model, targetParam, source);
         return builder.build();
     }
 
-    private void addWithCheckBody(MethodSpec.Builder builder, ExecutableElement needsMethod, RuntimePermissionsElement rpe, String targetParam) {
-        String requestCodeField = HelperUtils.requestCodeFieldName(needsMethod);
-        String permissionField = HelperUtils.permissionFieldName(needsMethod);
+    private void addWithCheckBody(MethodSpec.Builder builder, NeedsPermissionMethod needsMethod, RuntimePermissionsModel model, String targetParam,
+                                  PermissionSource source) {
+        String requestCodeField = needsMethod.getRequestCodeFieldName();
+        Snippet permissions = source.arrayOf(needsMethod);
+        SensitivePermissionInterface sensitivePermissionInterface = sensitivePermissionOf(needsMethod);
+        boolean reportsFlow = sensitivePermissionInterface == null;
+        if (reportsFlow) {
+            builder.addStatement("$T.flowStarted($N, $N)", PERMISSION_UTILS, targetParam, requestCodeField);
+        }
+
+        // If a rationale may be shown, query grant and rationale states at once
+        String onRationale = needsMethod.getOnRationaleName();
+        String statusVar = statusVariableName(needsMethod);
+        if (onRationale != null) {
+            builder.addStatement("int $N = $L", statusVar, queryStates(targetParam, needsMethod, source).toCodeBlock());
+        }
 
         // Add the conditional for when permission has already been granted
-        String needsPermissionParameter = needsMethod.getAnnotation(NeedsPermission.class).value()[0];
         String activityVar = getActivityName(targetParam);
-        SensitivePermissionInterface sensitivePermissionInterface = ADD_WITH_CHECK_BODY_MAP.get(needsPermissionParameter);
         if (sensitivePermissionInterface != null) {
-            sensitivePermissionInterface.addHasSelfPermissionsCondition(builder, activityVar, permissionField);
+            builder.beginControlFlow("if ($L)", sensitivePermissionInterface.hasSelfPermissionsCondition(activityVar,
+                    hasSelfPermissions(activityVar, needsMethod, source)).toCodeBlock());
+        } else if (onRationale != null) {
+            builder.beginControlFlow("if (($N & $T.STATUS_GRANTED) != 0)", statusVar, PERMISSION_UTILS);
         } else {
-            builder.beginControlFlow("if ($T.hasSelfPermissions($N, $N))", PERMISSION_UTILS, activityVar, permissionField);
+            builder.beginControlFlow("if ($L)", hasSelfPermissions(activityVar, needsMethod, source).toCodeBlock());
+        }
+        if (reportsFlow) {
+            addFlowFinishedStatement(builder, targetParam, requestCodeField, "GRANTED");
         }
         builder.addCode(CodeBlock.builder()
-                .add("$N.$N(", targetParam, ExtensionsUtils.getSimpleString(needsMethod))
-                .add(HelperUtils.varargsParametersCodeBlock(needsMethod))
+                .add("$N.$N(", targetParam, needsMethod.getName())
+                .add(needsMethod.getArguments())
                 .addStatement(")")
                 .build()
         );
         builder.nextControlFlow("else");
 
         // Add the conditional for "OnShowRationale", if present
-        ExecutableElement onRationale = rpe.findOnRationaleForNeeds(needsMethod);
-        Boolean hasParameters = !needsMethod.getParameters().isEmpty();
+        Boolean hasParameters = needsMethod.hasParameters();
+        String pendingVar = pendingVariableName(needsMethod);
         if (hasParameters) {
             // If the method has parameters, precede the potential OnRationale call with
-            // an instantiation of the temporary Request object
+            // creating the Request object capturing the arguments, and keep it until the result arrives
+            TypeName requestType = requestTypeOf(model, needsMethod);
             CodeBlock.Builder varargsCall = CodeBlock.builder()
-                    .add("$N = new $N($N, ",
-                            HelperUtils.pendingRequestFieldName(needsMethod),
-                            upperCaseFirst(HelperUtils.permissionRequestTypeName(needsMethod)),
+                    .add("$T $N = new $T$L($N, ",
+                            requestType,
+                            pendingVar,
+                            requestRawTypeOf(model, needsMethod),
+                            model.getTypeVariables().isEmpty() ? "" : "<>",
                             targetParam
                     )
-                    .add(HelperUtils.varargsParametersCodeBlock(needsMethod))
+                    .add(needsMethod.getArguments())
                     .addStatement(")");
             builder.addCode(varargsCall.build());
+            builder.addStatement("$T.getInstance().put($N, $N, $N, $N)", PENDING_REQUESTS, activityVar, targetParam,
+                    needsMethod.getRequestCodeFieldName(), pendingVar);
         }
         if (onRationale != null) {
-            addShouldShowRequestPermissionRationaleCondition(builder, targetParam, permissionField, true);
+            builder.beginControlFlow("if (($N & $T.STATUS_SHOW_RATIONALE) != 0)", statusVar, PERMISSION_UTILS);
+            if (reportsFlow) {
+                builder.addStatement("$T.rationaleShown($N, $N)", PERMISSION_UTILS, targetParam, requestCodeField);
+            }
             if (hasParameters) {
                 // For methods with parameters, use the PermissionRequest instantiated above
-                builder.addStatement("$N.$N($N)", targetParam, ExtensionsUtils.getSimpleString(onRationale), HelperUtils.pendingRequestFieldName(needsMethod));
+                builder.addStatement("$N.$N($N)", targetParam, onRationale, pendingVar);
             } else {
-                // Otherwise, create a new PermissionRequest on-the-fly
-                builder.addStatement("$N.$N(new $N($N))", targetParam, ExtensionsUtils.getSimpleString(onRationale), upperCaseFirst(HelperUtils.permissionRequestTypeName(needsMethod)), targetParam);
+                // Otherwise, bind the reusable PermissionRequest on-the-fly
+                builder.addStatement("$N.$N($N.obtain($N))", targetParam, onRationale, needsMethod.getRequestClassName(), targetParam);
             }
             builder.nextControlFlow("else");
         }
 
         // Add the branch for "request permission"
-        SensitivePermissionInterface requestPermissionInterfaceObj = ADD_WITH_CHECK_BODY_MAP.get(needsPermissionParameter);
-        if (requestPermissionInterfaceObj != null) {
-            requestPermissionInterfaceObj.addRequestPermissionsStatement(builder, activityVar, requestCodeField);
+        if (sensitivePermissionInterface != null) {
+            addStatements(builder, sensitivePermissionInterface.requestPermissionsStatements(activityVar, requestCodeField));
         } else {
-            addRequestPermissionsStatement(builder, targetParam, permissionField, requestCodeField);
+            addBrokerRequestStatement(builder, needsMethod, targetParam, permissions, requestCodeField);
         }
 
         if (onRationale != null) {
@@ -215,36 +332,40 @@ public abstract class BaseProcessorUnit implements ProcessorUnit {
         builder.endControlFlow();
     }
 
-    private List<MethodSpec> createPermissionHandlingMethods(RuntimePermissionsElement rpe) {
+    private List<MethodSpec> createPermissionHandlingMethods(RuntimePermissionsModel model, PermissionSource source,
+                                                             SdkVersions sdkVersions) {
         ArrayList<MethodSpec> methods = new ArrayList<>();
-        if (hasNormalPermission(rpe)) {
-            methods.add(createPermissionResultMethod(rpe));
+        if (hasNormalPermission(model)) {
+            methods.add(createPermissionResultMethod(model, source, sdkVersions));
         }
-        if ((hasSystemAlertWindowPermission(rpe)) || (hasWriteSettingPermission(rpe))) {
-            methods.add(createOnActivityResultMethod(rpe));
+        if ((hasSystemAlertWindowPermission(model)) || (hasWriteSettingPermission(model))) {
+            methods.add(createOnActivityResultMethod(model, source, sdkVersions));
         }
         return methods;
     }
 
-    private MethodSpec createOnActivityResultMethod(RuntimePermissionsElement rpe) {
+    private MethodSpec createOnActivityResultMethod(RuntimePermissionsModel model, PermissionSource source,
+                                                    SdkVersions sdkVersions) {
         String targetParam = "target";
         String requestCodeParam = "requestCode";
         String grantResultsParam = "grantResults";
         MethodSpec.Builder builder = MethodSpec.methodBuilder("onActivityResult")
-                .addTypeVariables((Iterable) rpe.getTypeVariables())
+                .addTypeVariables((Iterable) model.getTypeVariables())
                 .addModifiers(Modifier.STATIC)
                 .returns(TypeName.VOID)
-                .addParameter(rpe.getTypeName(), targetParam)
+                .addParameter(model.getTypeName(), targetParam)
                 .addParameter(TypeName.INT, requestCodeParam);
 
+        // The user may have granted the permission on the settings screen
+        builder.addStatement("$T.invalidate()", PERMISSION_UTILS);
         builder.beginControlFlow("switch ($N)", requestCodeParam);
-        for (ExecutableElement needsMethod : rpe.getNeedsElements()) {
-            String needsPermissionParameter = (needsMethod.getAnnotation(NeedsPermission.class)).value()[0];
-            if (this.ADD_WITH_CHECK_BODY_MAP.containsKey(needsPermissionParameter)) {
+        for (NeedsPermissionMethod needsMethod : model.getNeedsMethods()) {
+            // Only the special permissions are granted through a settings screen
+            if (sensitivePermissionOf(needsMethod) == null) {
                 continue;
             }
-            builder.addCode("case $N:\n", HelperUtils.requestCodeFieldName(needsMethod));
-            addResultCaseBody(builder, needsMethod, rpe, targetParam, grantResultsParam);
+            builder.addCode("case $N:\n", needsMethod.getRequestCodeFieldName());
+            addResultCaseBody(builder, needsMethod, model, targetParam, grantResultsParam, source, sdkVersions);
         }
         builder
                 .addCode("default:\n")
@@ -253,28 +374,35 @@ public abstract class BaseProcessorUnit implements ProcessorUnit {
         return builder.build();
     }
 
-    private MethodSpec createPermissionResultMethod(RuntimePermissionsElement rpe) {
+    private MethodSpec createPermissionResultMethod(RuntimePermissionsModel model, PermissionSource source,
+                                                    SdkVersions sdkVersions) {
         String targetParam = "target";
         String requestCodeParam = "requestCode";
         String grantResultsParam = "grantResults";
         MethodSpec.Builder builder = MethodSpec.methodBuilder("onRequestPermissionsResult")
-                .addTypeVariables((Iterable) rpe.getTypeVariables())
+                .addTypeVariables((Iterable) model.getTypeVariables())
                 .addModifiers(Modifier.STATIC)
                 .returns(TypeName.VOID)
-                .addParameter(rpe.getTypeName(), targetParam)
+                .addParameter(model.getTypeName(), targetParam)
                 .addParameter(TypeName.INT, requestCodeParam)
                 .addParameter(ArrayTypeName.of(TypeName.INT), grantResultsParam);
+        // Grant states cached before the request are outdated now
+        builder.addStatement("$T.invalidate()", PERMISSION_UTILS);
+        // Results of coalesced requests are delivered to every waiting target by the broker
+        builder.beginControlFlow("if ($T.getInstance().onRequestPermissionsResult($N, $N, $N))",
+                PERMISSION_BROKER, getActivityName(targetParam), requestCodeParam, grantResultsParam)
+                .addStatement("return")
+                .endControlFlow();
         // For each @NeedsPermission method, add a switch case
         builder.beginControlFlow("switch ($N)", requestCodeParam);
-        for (ExecutableElement needsMethod : rpe.getNeedsElements()) {
-            String needsPermissionParameter = (needsMethod.getAnnotation(NeedsPermission.class)).value()[0];
-            if (this.ADD_WITH_CHECK_BODY_MAP.containsKey(needsPermissionParameter)) {
+        for (NeedsPermissionMethod needsMethod : model.getNeedsMethods()) {
+            if (sensitivePermissionOf(needsMethod) != null) {
                 continue;
             }
-            builder.addCode("case $N:\n", HelperUtils.requestCodeFieldName(needsMethod));
+            builder.addCode("case $N:\n", needsMethod.getRequestCodeFieldName());
 
             // Delegate switch-case generation to implementing classes
-            addResultCaseBody(builder, needsMethod, rpe, targetParam, grantResultsParam);
+            addResultCaseBody(builder, needsMethod, model, targetParam, grantResultsParam, source, sdkVersions);
         }
         // Add the default case
         builder
@@ -285,51 +413,68 @@ public abstract class BaseProcessorUnit implements ProcessorUnit {
         return builder.build();
     }
 
-    private void addResultCaseBody(MethodSpec.Builder builder, ExecutableElement needsMethod, RuntimePermissionsElement rpe, String targetParam, String grantResultsParam) {
+    private void addResultCaseBody(MethodSpec.Builder builder, NeedsPermissionMethod needsMethod, RuntimePermissionsModel model, String targetParam, String grantResultsParam,
+                                   PermissionSource source, SdkVersions sdkVersions) {
         // just workaround, see https://github.com/hotchemi/PermissionsDispatcher/issues/45
-        ExecutableElement onDenied = rpe.findOnDeniedForNeeds(needsMethod);
+        String onDenied = needsMethod.getOnDeniedName();
         Boolean hasDenied = onDenied != null;
-        String needsPermissionParameter = needsMethod.getAnnotation(NeedsPermission.class).value()[0];
-        String permissionField = HelperUtils.permissionFieldName(needsMethod);
-        if (!ADD_WITH_CHECK_BODY_MAP.containsKey(needsPermissionParameter)) {
-            builder.beginControlFlow("if ($T.getTargetSdkVersion($N) < 23 && !$T.hasSelfPermissions($N, $N))",
-                    PERMISSION_UTILS, getActivityName(targetParam), PERMISSION_UTILS, getActivityName(targetParam), permissionField);
+        SensitivePermissionInterface permissionInterface = sensitivePermissionOf(needsMethod);
+        String onNeverAsk = needsMethod.getOnNeverAskName();
+        Boolean hasNeverAsk = onNeverAsk != null;
+
+        // For methods with parameters, take the pending request out of the table before anything else,
+        // so its arguments are released on every path
+        Boolean hasParameters = needsMethod.hasParameters();
+        String pendingVar = pendingVariableName(needsMethod);
+        if (hasParameters) {
+            builder.addStatement("$T $N = $T.getInstance().remove($N, $N)", ClassName.get(Constants.PACKAGE_NAME, "GrantableRequest"),
+                    pendingVar, PENDING_REQUESTS, targetParam, needsMethod.getRequestCodeFieldName());
+        }
+
+        // If "never ask again" has to be told apart from "denied", query grant and rationale states at once
+        String statusVar = statusVariableName(needsMethod);
+        if (hasNeverAsk) {
+            builder.addStatement("int $N = $L", statusVar, queryStates(targetParam, needsMethod, source).toCodeBlock());
+        }
+        // Results of apps targeting an API level below 23 don't tell anything, so their permissions are checked instead
+        Snippet legacyDenied = permissionInterface == null
+                ? legacyDeniedCondition(getActivityName(targetParam), needsMethod, source, statusVar, sdkVersions)
+                : null;
+        if (legacyDenied != null) {
+            builder.beginControlFlow("if ($L)", legacyDenied.toCodeBlock());
             if (hasDenied) {
-                builder.addStatement("$N.$N()", targetParam, ExtensionsUtils.getSimpleString(onDenied));
+                builder.addStatement("$N.$N()", targetParam, onDenied);
             }
             builder.addStatement("return");
             builder.endControlFlow();
         }
 
         // Add the conditional for "permission verified"
-        SensitivePermissionInterface permissionInterface = ADD_WITH_CHECK_BODY_MAP.get(needsPermissionParameter);
         if (permissionInterface != null) {
-            permissionInterface.addHasSelfPermissionsCondition(builder, getActivityName(targetParam), permissionField);
+            builder.beginControlFlow("if ($L)", permissionInterface.hasSelfPermissionsCondition(getActivityName(targetParam),
+                    hasSelfPermissions(getActivityName(targetParam), needsMethod, source)).toCodeBlock());
         } else {
-            builder.beginControlFlow("if ($T.verifyPermissions($N))", PERMISSION_UTILS, grantResultsParam);
+            builder.beginControlFlow("if ($L)", verifyResults(needsMethod, grantResultsParam).toCodeBlock());
         }
         // Based on whether or not the method has parameters, delegate to the "pending request" object or invoke the method directly
-        Boolean hasParameters = !needsMethod.getParameters().isEmpty();
         if (hasParameters) {
-            String pendingField = HelperUtils.pendingRequestFieldName(needsMethod);
-            builder.beginControlFlow("if ($N != null)", pendingField);
-            builder.addStatement("$N.grant()", pendingField);
+            builder.beginControlFlow("if ($N != null)", pendingVar);
+            builder.addStatement("$N.grant()", pendingVar);
             builder.endControlFlow();
         } else {
-            builder.addStatement("target.$N()", ExtensionsUtils.getSimpleString(needsMethod));
+            builder.addStatement("target.$N()", needsMethod.getName());
         }
 
         // Add the conditional for "permission denied" and/or "never ask again", if present
-        ExecutableElement onNeverAsk = rpe.findOnNeverAskForNeeds(needsMethod);
-        Boolean hasNeverAsk = onNeverAsk != null;
-
         if (hasDenied || hasNeverAsk) {
             builder.nextControlFlow("else");
         }
         if (hasNeverAsk) {
-            // Split up the "else" case with another if condition checking for "never ask again" first
-            addShouldShowRequestPermissionRationaleCondition(builder, targetParam, HelperUtils.permissionFieldName(needsMethod), false);
-            builder.addStatement("target.$N()", ExtensionsUtils.getSimpleString(onNeverAsk));
+            // Split up the "else" case with another if condition checking for "never ask again" first.
+            // Requests cancelled by the system or expired in the PermissionBroker have no results, they count as denied
+            builder.beginControlFlow("if ($N.length > 0 && ($N & $T.STATUS_SHOW_RATIONALE) == 0)", grantResultsParam, statusVar,
+                    PERMISSION_UTILS);
+            builder.addStatement("target.$N()", onNeverAsk);
 
             // If a "permission denied" is present as well, go into an else case, otherwise close this temporary branch
             if (hasDenied) {
@@ -340,7 +485,7 @@ public abstract class BaseProcessorUnit implements ProcessorUnit {
         }
         if (hasDenied) {
             // Add the "permissionDenied" statement
-            builder.addStatement("$N.$N()", targetParam, ExtensionsUtils.getSimpleString(onDenied));
+            builder.addStatement("$N.$N()", targetParam, onDenied);
 
             // Close the additional control flow potentially opened by a "never ask again" method
             if (hasNeverAsk) {
@@ -350,16 +495,39 @@ public abstract class BaseProcessorUnit implements ProcessorUnit {
         // Close the "switch" control flow
         builder.endControlFlow();
 
-        // Remove the temporary pending request field, in case it was used for a method with parameters
-        if (hasParameters) {
-            builder.addStatement("$N = null", HelperUtils.pendingRequestFieldName(needsMethod));
-        }
         builder.addStatement("break");
     }
 
-    private boolean hasNormalPermission(RuntimePermissionsElement rpe) {
-        for (ExecutableElement element : rpe.getNeedsElements()) {
-            List<String> permissionValue = ExtensionsUtils.getPermissionValue(element.getAnnotation(NeedsPermission.class));
+    /**
+     * Returns the name of the local variable holding the permission states snapshot,
+     * unique per method since all cases of a switch share one scope.
+     */
+    String statusVariableName(NeedsPermissionMethod needsMethod) {
+        return needsMethod.getName() + "Status";
+    }
+
+    /**
+     * Returns the name of the local variable holding the pending request of a method with parameters.
+     */
+    String pendingVariableName(NeedsPermissionMethod needsMethod) {
+        return needsMethod.getName() + "Pending";
+    }
+
+    ClassName requestRawTypeOf(RuntimePermissionsModel model, NeedsPermissionMethod needsMethod) {
+        return ClassName.get(model.getPackageName(), model.getGeneratedClassName(),
+                needsMethod.getRequestClassName());
+    }
+
+    TypeName requestTypeOf(RuntimePermissionsModel model, NeedsPermissionMethod needsMethod) {
+        ClassName rawType = requestRawTypeOf(model, needsMethod);
+        return model.getTypeVariables().isEmpty()
+                ? rawType
+                : ParameterizedTypeName.get(rawType, model.getTypeVariables().toArray(new TypeName[model.getTypeVariables().size()]));
+    }
+
+    boolean hasNormalPermission(RuntimePermissionsModel model) {
+        for (NeedsPermissionMethod element : model.getNeedsMethods()) {
+            List<String> permissionValue = element.getPermissions();
             if (!permissionValue.contains(MANIFEST_SYSTEM_ALERT_WINDOW) && !permissionValue.contains(MANIFEST_WRITE_SETTING)) {
                 return true;
             }
@@ -367,17 +535,17 @@ public abstract class BaseProcessorUnit implements ProcessorUnit {
         return false;
     }
 
-    private boolean hasSystemAlertWindowPermission(RuntimePermissionsElement rpe) {
-        return isDefinePermission(rpe, this.MANIFEST_SYSTEM_ALERT_WINDOW);
+    boolean hasSystemAlertWindowPermission(RuntimePermissionsModel model) {
+        return isDefinePermission(model, this.MANIFEST_SYSTEM_ALERT_WINDOW);
     }
 
-    private boolean hasWriteSettingPermission(RuntimePermissionsElement rpe) {
-        return isDefinePermission(rpe, this.MANIFEST_WRITE_SETTING);
+    boolean hasWriteSettingPermission(RuntimePermissionsModel model) {
+        return isDefinePermission(model, this.MANIFEST_WRITE_SETTING);
     }
 
-    private boolean isDefinePermission(RuntimePermissionsElement rpe, String permissionName) {
-        for (ExecutableElement element : rpe.getNeedsElements()) {
-            List<String> permissionValue = ExtensionsUtils.getPermissionValue(element.getAnnotation(NeedsPermission.class));
+    private boolean isDefinePermission(RuntimePermissionsModel model, String permissionName) {
+        for (NeedsPermissionMethod element : model.getNeedsMethods()) {
+            List<String> permissionValue = element.getPermissions();
             if (permissionValue.contains(permissionName)) {
                 return true;
             }
@@ -385,62 +553,136 @@ public abstract class BaseProcessorUnit implements ProcessorUnit {
         return false;
     }
 
-    private List<TypeSpec> createPermissionRequestClasses(RuntimePermissionsElement rpe) {
-        ArrayList<TypeSpec> classes = new ArrayList<>();
-        for (ExecutableElement element : rpe.getNeedsElements()) {
-            ExecutableElement onRationale = rpe.findOnRationaleForNeeds(element);
-            if (onRationale != null || !element.getParameters().isEmpty()) {
-                classes.add(createPermissionRequestClass(rpe, element));
-            }
+    /**
+     * Returns the helper of the special permission the given method needs, or null if it needs runtime permissions.
+     */
+    SensitivePermissionInterface sensitivePermissionOf(NeedsPermissionMethod needsMethod) {
+        return this.ADD_WITH_CHECK_BODY_MAP.get(needsMethod.getPermissions().get(0));
+    }
+
+    private void addStatements(MethodSpec.Builder builder, List<Snippet> statements) {
+        for (Snippet statement : statements) {
+            builder.addStatement("$L", statement.toCodeBlock());
         }
-        return classes;
     }
 
-    private String upperCaseFirst(String value) {
-        // Convert String to char array.
-        if (value != null) {
-            char[] array = value.toCharArray();
-            // Modify first element in array.
-            array[0] = Character.toUpperCase(array[0]);
-            // Return string.
-            return new String(array);
+    private void addFlowFinishedStatement(MethodSpec.Builder builder, String targetParam, String requestCodeField, String result) {
+        builder.addStatement("$T.flowFinished($N, $N, $T.$L)", PERMISSION_UTILS, targetParam, requestCodeField,
+                PERMISSION_OUTCOME_RESULT, result);
+    }
+
+    private void addBrokerRequestStatement(MethodSpec.Builder builder, NeedsPermissionMethod needsMethod, String targetParam,
+                                           Snippet permissions, String requestCodeField) {
+        builder.addStatement("$L", brokerRequestStatement(needsMethod, targetParam, permissions, requestCodeField).toCodeBlock());
+    }
+
+    /**
+     * Returns the statement handing a request to the PermissionBroker, which issues it through the BrokerClient.
+     */
+    Snippet brokerRequestStatement(NeedsPermissionMethod needsMethod, String targetParam, Snippet permissions,
+                                   String requestCodeField) {
+        if (needsMethod.getPriority() == 0 && needsMethod.getTimeoutMillis() <= 0) {
+            return Snippet.of("$T.getInstance().request($N, $N, $L, $N, $N.INSTANCE)",
+                    PERMISSION_BROKER, getActivityName(targetParam), targetParam, permissions, requestCodeField, BROKER_CLIENT_CLASS_NAME);
+        } else {
+            return Snippet.of("$T.getInstance().request($N, $N, $L, $N, $L, $LL, $N.INSTANCE)",
+                    PERMISSION_BROKER, getActivityName(targetParam), targetParam, permissions, requestCodeField,
+                    needsMethod.getPriority(), Math.max(needsMethod.getTimeoutMillis(), 0L), BROKER_CLIENT_CLASS_NAME);
         }
-        return "";
     }
 
-    private TypeSpec createPermissionRequestClass(RuntimePermissionsElement rpe, ExecutableElement needsMethod) {
+    private TypeSpec createBrokerClientClass(RuntimePermissionsModel model) {
+        TypeName targetType = model.getTypeName();
+        ClassName rawType = ClassName.get(model.getPackageName(), model.getGeneratedClassName(), BROKER_CLIENT_CLASS_NAME);
+        String targetParam = "target";
+        String permissionsParam = "permissions";
+        String requestCodeParam = "requestCode";
+        String grantResultsParam = "grantResults";
+
+        // The system request is issued the same way as without the broker
+        MethodSpec.Builder requestMethod = MethodSpec.methodBuilder("requestPermissions")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .returns(TypeName.VOID)
+                .addParameter(targetType, targetParam)
+                .addParameter(ArrayTypeName.of(String.class), permissionsParam)
+                .addParameter(TypeName.INT, requestCodeParam);
+        requestMethod.addStatement("$L", requestPermissionsStatement(targetParam, Snippet.of("$N", permissionsParam), requestCodeParam).toCodeBlock());
+
+        MethodSpec resultMethod = MethodSpec.methodBuilder("onRequestPermissionsResult")
+                .addAnnotation(Override.class)
+                .addModifiers(Modifier.PUBLIC)
+                .returns(TypeName.VOID)
+                .addParameter(targetType, targetParam)
+                .addParameter(TypeName.INT, requestCodeParam)
+                .addParameter(ArrayTypeName.of(TypeName.INT), grantResultsParam)
+                .addStatement("$T.onRequestPermissionsResult($N, $N, $N)",
+                        ClassName.get(model.getPackageName(), model.getGeneratedClassName()), targetParam, requestCodeParam, grantResultsParam)
+                .build();
+
+        // Stateless, so a single instance serves all targets
+        return TypeSpec.classBuilder(BROKER_CLIENT_CLASS_NAME)
+                .addTypeVariables(model.getTypeVariables())
+                .addSuperinterface(ParameterizedTypeName.get(PERMISSION_BROKER.nestedClass("Client"), targetType))
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                .addField(FieldSpec.builder(rawType, "INSTANCE", Modifier.STATIC, Modifier.FINAL)
+                        .initializer("new $T()", rawType)
+                        .build())
+                .addMethod(requestMethod.build())
+                .addMethod(resultMethod)
+                .build();
+    }
+
+    private List<TypeSpec> createPermissionRequestClasses(RuntimePermissionsModel model, PermissionSource source) {
+        ArrayList<TypeSpec> classes = new ArrayList<>();
+        for (NeedsPermissionMethod element : model.getNeedsMethods()) {
+            String onRationale = element.getOnRationaleName();
+            if (onRationale != null || element.hasParameters()) {
+                classes.add(createPermissionRequestClass(model, element, source));
+            }
+        }
+        return classes;
+    }
+
+    private TypeSpec createPermissionRequestClass(RuntimePermissionsModel model, NeedsPermissionMethod needsMethod,
+                                                  PermissionSource source) {
         // Select the superinterface of the generated class
         // based on whether or not the annotated method has parameters
-        Boolean hasParameters = !needsMethod.getParameters().isEmpty();
+        Boolean hasParameters = needsMethod.hasParameters();
         String superInterfaceName = (hasParameters) ? "GrantableRequest" : "PermissionRequest";
 
-        TypeName targetType = rpe.getTypeName();
-        TypeSpec.Builder builder = TypeSpec.classBuilder(upperCaseFirst(HelperUtils.permissionRequestTypeName(needsMethod)))
-                .addTypeVariables(rpe.getTypeVariables())
+        TypeName targetType = model.getTypeName();
+        String className = needsMethod.getRequestClassName();
+        ClassName rawType = ClassName.get(model.getPackageName(), model.getGeneratedClassName(), className);
+        TypeName requestType = model.getTypeVariables().isEmpty()
+                ? rawType
+                : ParameterizedTypeName.get(rawType, model.getTypeVariables().toArray(new TypeName[model.getTypeVariables().size()]));
+        TypeSpec.Builder builder = TypeSpec.classBuilder(className)
+                .addTypeVariables(model.getTypeVariables())
                 .addSuperinterface(ClassName.get(Constants.PACKAGE_NAME, superInterfaceName))
                 .addModifiers(Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL);
 
-        // Add required fields to the target
         String weakFieldName = "weakTarget";
-        ParameterizedTypeName weakFieldType = ParameterizedTypeName.get(ClassName.get("java.lang.ref", "WeakReference"), targetType);
-        builder.addField(weakFieldType, weakFieldName, Modifier.PRIVATE, Modifier.FINAL);
-        for (VariableElement element : needsMethod.getParameters()) {
-            builder.addField(HelperUtils.typeNameOf(element), ExtensionsUtils.getSimpleString(element), Modifier.PRIVATE, Modifier.FINAL);
-        }
-
-        // Add constructor
         String targetParam = "target";
-        MethodSpec.Builder constructorBuilder = MethodSpec.constructorBuilder()
-                .addModifiers(Modifier.PRIVATE)
-                .addParameter(targetType, targetParam)
-                .addStatement("this.$L = new WeakReference<>($N)", weakFieldName, targetParam);
-        for (VariableElement element : needsMethod.getParameters()) {
-            String fieldName = ExtensionsUtils.getSimpleString(element);
-            constructorBuilder
-                    .addParameter(HelperUtils.typeNameOf(element), fieldName)
-                    .addStatement("this.$L = $N", fieldName, fieldName);
+        ParameterizedTypeName weakFieldType = ParameterizedTypeName.get(ClassName.get("java.lang.ref", "WeakReference"), targetType);
+        if (hasParameters) {
+            // Requests with parameters capture their arguments and are kept in the PendingRequests table,
+            // so every call gets its own instance
+            builder.addField(weakFieldType, weakFieldName, Modifier.PRIVATE, Modifier.FINAL);
+            MethodSpec.Builder constructor = MethodSpec.constructorBuilder()
+                    .addParameter(targetType, targetParam)
+                    .addStatement("this.$L = new WeakReference<>($N)", weakFieldName, targetParam);
+            for (MethodParameter parameter : needsMethod.getParameters()) {
+                String fieldName = parameter.getName();
+                builder.addField(parameter.getTypeName(), fieldName, Modifier.PRIVATE, Modifier.FINAL);
+                constructor
+                        .addParameter(parameter.getTypeName(), fieldName)
+                        .addStatement("this.$L = $N", fieldName, fieldName);
+            }
+            builder.addMethod(constructor.build());
+        } else {
+            addReusableInstance(builder, model, rawType, requestType, weakFieldType, weakFieldName, targetParam);
         }
-        builder.addMethod(constructorBuilder.build());
 
         // Add proceed() override
         MethodSpec.Builder proceedMethod = MethodSpec.methodBuilder("proceed")
@@ -449,12 +691,12 @@ public abstract class BaseProcessorUnit implements ProcessorUnit {
                 .returns(TypeName.VOID)
                 .addStatement("$T target = $N.get()", targetType, weakFieldName)
                 .addStatement("if (target == null) return");
-        String requestCodeField = HelperUtils.requestCodeFieldName(needsMethod);
-        SensitivePermissionInterface permissionInterface = ADD_WITH_CHECK_BODY_MAP.get(needsMethod.getAnnotation(NeedsPermission.class).value()[0]);
+        String requestCodeField = needsMethod.getRequestCodeFieldName();
+        SensitivePermissionInterface permissionInterface = sensitivePermissionOf(needsMethod);
         if (permissionInterface != null) {
-            permissionInterface.addRequestPermissionsStatement(proceedMethod, getActivityName(targetParam), requestCodeField);
+            addStatements(proceedMethod, permissionInterface.requestPermissionsStatements(getActivityName(targetParam), requestCodeField));
         } else {
-            addRequestPermissionsStatement(proceedMethod, targetParam, HelperUtils.permissionFieldName(needsMethod), requestCodeField);
+            addBrokerRequestStatement(proceedMethod, needsMethod, targetParam, source.arrayOf(needsMethod), requestCodeField);
         }
         builder.addMethod(proceedMethod.build());
 
@@ -463,12 +705,21 @@ public abstract class BaseProcessorUnit implements ProcessorUnit {
                 .addAnnotation(Override.class)
                 .addModifiers(Modifier.PUBLIC)
                 .returns(TypeName.VOID);
-        ExecutableElement onDenied = rpe.findOnDeniedForNeeds(needsMethod);
-        if (onDenied != null) {
+        if (hasParameters) {
+            // The request is finished, release its arguments
+            cancelMethod.addStatement("$T.getInstance().remove(this)", PENDING_REQUESTS);
+        }
+        String onDenied = needsMethod.getOnDeniedName();
+        if (onDenied != null || permissionInterface == null) {
             cancelMethod
                     .addStatement("$T target = $N.get()", targetType, weakFieldName)
-                    .addStatement("if (target == null) return")
-                    .addStatement("target.$N()", ExtensionsUtils.getSimpleString(onDenied));
+                    .addStatement("if (target == null) return");
+        }
+        if (permissionInterface == null) {
+            addFlowFinishedStatement(cancelMethod, targetParam, requestCodeField, "DENIED");
+        }
+        if (onDenied != null) {
+            cancelMethod.addStatement("target.$N()", onDenied);
         }
         builder.addMethod(cancelMethod.build());
 
@@ -487,8 +738,8 @@ public abstract class BaseProcessorUnit implements ProcessorUnit {
             // to compose the method call and its parameters
             grantMethod.addCode(
                     CodeBlock.builder()
-                            .add("target.$N(", ExtensionsUtils.getSimpleString(needsMethod))
-                            .add(HelperUtils.varargsParametersCodeBlock(needsMethod))
+                            .add("target.$N(", needsMethod.getName())
+                            .add(needsMethod.getArguments())
                             .addStatement(")")
                             .build()
             );
@@ -498,6 +749,42 @@ public abstract class BaseProcessorUnit implements ProcessorUnit {
         return builder.build();
     }
 
+    /**
+     * Adds the reusable instance of a request without parameters, and obtain() returning it for a target.
+     * The instance is bound to a single target for good, so a request kept by one target never acts on another one;
+     * obtain() only allocates when it's called for a different target than the previous time.
+     */
+    private void addReusableInstance(TypeSpec.Builder builder, RuntimePermissionsModel model, ClassName rawType, TypeName requestType,
+                                     ParameterizedTypeName weakFieldType, String weakFieldName, String targetParam) {
+        String instanceFieldName = "INSTANCE";
+        builder.addField(rawType, instanceFieldName, Modifier.PRIVATE, Modifier.STATIC);
+        builder.addField(weakFieldType, weakFieldName, Modifier.PRIVATE, Modifier.FINAL);
+        builder.addMethod(MethodSpec.constructorBuilder()
+                .addModifiers(Modifier.PRIVATE)
+                .addParameter(model.getTypeName(), targetParam)
+                .addStatement("this.$L = new WeakReference<>($N)", weakFieldName, targetParam)
+                .build());
+
+        MethodSpec.Builder obtainMethod = MethodSpec.methodBuilder("obtain")
+                .addTypeVariables(model.getTypeVariables())
+                .addModifiers(Modifier.STATIC)
+                .returns(requestType)
+                .addParameter(model.getTypeName(), targetParam);
+        if (model.getTypeVariables().isEmpty()) {
+            obtainMethod.addStatement("$T request = $N", requestType, instanceFieldName);
+        } else {
+            obtainMethod.addAnnotation(AnnotationSpec.builder(SuppressWarnings.class)
+                    .addMember("value", "$S", "unchecked")
+                    .build());
+            obtainMethod.addStatement("$T request = ($T) $N", requestType, requestType, instanceFieldName);
+        }
+        obtainMethod.beginControlFlow("if (request == null || request.$L.get() != $N)", weakFieldName, targetParam)
+                .addStatement(model.getTypeVariables().isEmpty() ? "request = new $T($N)" : "request = new $T<>($N)", rawType, targetParam)
+                .addStatement("$N = request", instanceFieldName)
+                .endControlFlow();
+        builder.addMethod(obtainMethod.addStatement("return request").build());
+    }
+
     protected ClassName getPERMISSION_UTILS() {
         return this.PERMISSION_UTILS;
     }
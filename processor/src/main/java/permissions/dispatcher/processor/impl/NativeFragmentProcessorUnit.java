@@ -1,11 +1,11 @@
 package permissions.dispatcher.processor.impl;
 
 import com.squareup.javapoet.ClassName;
-import com.squareup.javapoet.MethodSpec;
-import permissions.dispatcher.processor.RuntimePermissionsElement;
+import permissions.dispatcher.processor.ProcessingContext;
+import permissions.dispatcher.processor.RuntimePermissionsModel;
 import permissions.dispatcher.processor.exception.SupportV13MissingException;
 import permissions.dispatcher.processor.util.Constants;
-import permissions.dispatcher.processor.util.HelperUtils;
+import permissions.dispatcher.processor.util.Snippet;
 
 import javax.lang.model.type.TypeMirror;
 
@@ -16,22 +16,16 @@ public final class NativeFragmentProcessorUnit extends BaseProcessorUnit {
         PERMISSION_UTILS_V13 = ClassName.get(Constants.PACKAGE_NAME + ".v13", "PermissionUtilsV13");
     }
 
-    public TypeMirror getTargetType() {
-        return HelperUtils.typeMirrorOf("android.app.Fragment");
+    public TypeMirror getTargetType(ProcessingContext context) {
+        return context.typeMirrorOf("android.app.Fragment");
     }
 
-    public void checkPrerequisites(RuntimePermissionsElement rpe) {
-        try {
-            // Check if FragmentCompat can be accessed; if not, throw an exception
-            Class.forName("android.support.permission.dispatcher.v13.app.FragmentCompat");
-        } catch (ClassNotFoundException ex) {
-            // Thrown if support-permission.dispatcher.v13 is missing on the classpath
-            throw new SupportV13MissingException(rpe);
-        } catch (NoClassDefFoundError ex) {
-            // Expected in success cases, because the Android environment is still missing
-            // when this is called from within the Annotation processor. 'FragmentCompat' itself
-            // can be resolved, but accessing it requires an Android environment, which doesn't exist
-            // since this is an annotation processor
+    public void checkPrerequisites(ProcessingContext context, RuntimePermissionsModel model) {
+        // Check if FragmentCompat is part of the compilation; if not, throw an exception.
+        // This asks the compiler rather than the processor's own class loader,
+        // which doesn't see the project's dependencies
+        if (!context.isOnClasspath("android.support.v13.app.FragmentCompat")) {
+            throw new SupportV13MissingException(model);
         }
     }
 
@@ -39,12 +33,15 @@ public final class NativeFragmentProcessorUnit extends BaseProcessorUnit {
         return targetParam + ".getActivity()";
     }
 
-    public void addShouldShowRequestPermissionRationaleCondition(MethodSpec.Builder builder, String targetParam, String permissionField, boolean isPositiveCondition) {
-        builder.beginControlFlow("if ($N$T.getInstance().shouldShowRequestPermissionRationale($N, $N))",
-                isPositiveCondition ? "" : "!", this.PERMISSION_UTILS_V13, targetParam, permissionField);
+    public Snippet queryPermissionStates(String targetParam, Snippet table, Snippet mask) {
+        return Snippet.of("$T.getInstance().queryStates($N, $L, $L)", this.PERMISSION_UTILS_V13, targetParam, table, mask);
     }
 
-    public void addRequestPermissionsStatement(MethodSpec.Builder builder, String targetParam, String permissionField, String requestCodeField) {
-        builder.addStatement("$T.getInstance().requestPermissions($N, $N, $N)", this.PERMISSION_UTILS_V13, targetParam, permissionField, requestCodeField);
+    public Snippet queryPermissionState(String targetParam, Snippet table, Snippet ordinal) {
+        return Snippet.of("$T.getInstance().queryState($N, $L, $L)", this.PERMISSION_UTILS_V13, targetParam, table, ordinal);
+    }
+
+    public Snippet requestPermissionsStatement(String targetParam, Snippet permissions, String requestCodeField) {
+        return Snippet.of("$T.getInstance().requestPermissions($N, $L, $N)", this.PERMISSION_UTILS_V13, targetParam, permissions, requestCodeField);
     }
 }
@@ -0,0 +1,175 @@
+package permissions.dispatcher.processor.impl;
+
+import com.squareup.javapoet.ArrayTypeName;
+import com.squareup.javapoet.FieldSpec;
+import com.squareup.javapoet.TypeName;
+import permissions.dispatcher.processor.NeedsPermissionMethod;
+import permissions.dispatcher.processor.PermissionArrayRegistry;
+import permissions.dispatcher.processor.PermissionMetadata;
+import permissions.dispatcher.processor.PermissionOrdinals;
+import permissions.dispatcher.processor.RuntimePermissionsModel;
+import permissions.dispatcher.processor.util.Snippet;
+
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.lang.model.element.Modifier;
+
+/**
+ * Tells the generated code of a dispatcher where to obtain its permissions from.
+ * <p>
+ * Requests need the permissions as String[], which are either fields of the dispatcher or, in compact mode,
+ * entries of the module's registry. Checks pass bitmasks of permission ordinals to a PermissionTable,
+ * which is either a field of the dispatcher or the module-wide table of the registry.
+ * Methods needing a single permission pass its ordinal instead of a mask.
+ */
+final class PermissionSource {
+
+    private static final String TABLE_FIELD_NAME = "PERMISSION_TABLE";
+
+    private static final TypeName STRING_ARRAY = ArrayTypeName.of(String.class);
+
+    private final PermissionArrayRegistry registry;
+
+    private final PermissionOrdinals ordinals;
+
+    private final boolean moduleTable;
+
+    private PermissionSource(PermissionArrayRegistry registry, PermissionOrdinals ordinals, boolean moduleTable) {
+        this.registry = registry;
+        this.ordinals = ordinals;
+        this.moduleTable = moduleTable;
+    }
+
+    static PermissionSource create(RuntimePermissionsModel model, PermissionArrayRegistry registry) {
+        // The module-wide table is only used if all permissions of the module fit into one mask
+        if (registry != null && registry.getOrdinals().fitsInMask()) {
+            return new PermissionSource(registry, registry.getOrdinals(), true);
+        }
+        return new PermissionSource(registry, PermissionOrdinals.of(model), false);
+    }
+
+    /**
+     * Returns the PermissionTable field the dispatcher has to declare itself, or null if it uses the module's table.
+     */
+    FieldSpec createTableField() {
+        if (this.moduleTable) {
+            return null;
+        }
+        return FieldSpec.builder(PermissionOrdinals.PERMISSION_TABLE, TABLE_FIELD_NAME)
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                .initializer(this.ordinals.tableInitializer(PermissionMetadata.get()).toCodeBlock())
+                .build();
+    }
+
+    /**
+     * Writes the PermissionTable field the dispatcher has to declare itself, if any, for the streaming emitter.
+     */
+    void writeTableField(SourceWriter writer) throws IOException {
+        if (this.moduleTable) {
+            return;
+        }
+        writer.beginMember();
+        writer.emit("private static final $T $L = $L;\n", PermissionOrdinals.PERMISSION_TABLE, TABLE_FIELD_NAME,
+                this.ordinals.tableInitializer(PermissionMetadata.get()));
+    }
+
+    /**
+     * Returns the permission fields the dispatcher has to declare for the given @NeedsPermission method.
+     */
+    List<FieldSpec> createFields(NeedsPermissionMethod needsMethod) {
+        List<FieldSpec> fields = new ArrayList<>();
+        // In compact mode, the permission arrays live in the module's registry instead
+        if (this.registry == null) {
+            fields.add(createArrayField(needsMethod));
+        }
+        if (needsMethod.hasSinglePermission()) {
+            fields.add(FieldSpec.builder(int.class, needsMethod.getPermissionOrdinalFieldName())
+                    .addModifiers(Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                    .initializer(ordinalInitializer(needsMethod).toCodeBlock())
+                    .build());
+        } else {
+            fields.add(FieldSpec.builder(long.class, needsMethod.getPermissionMaskFieldName())
+                    .addModifiers(Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                    .initializer(maskInitializer(needsMethod).toCodeBlock())
+                    .build());
+        }
+        return fields;
+    }
+
+    /**
+     * Writes the permission fields of the given @NeedsPermission method for the streaming emitter.
+     */
+    void writeFields(SourceWriter writer, NeedsPermissionMethod needsMethod) throws IOException {
+        if (this.registry == null) {
+            writer.beginMember();
+            writer.emit("private static final $T $L = $L;\n", STRING_ARRAY, needsMethod.getPermissionFieldName(),
+                    arrayInitializer(needsMethod));
+        }
+        writer.beginMember();
+        if (needsMethod.hasSinglePermission()) {
+            writer.emit("private static final $T $L = $L;\n", TypeName.INT, needsMethod.getPermissionOrdinalFieldName(),
+                    ordinalInitializer(needsMethod));
+        } else {
+            writer.emit("private static final $T $L = $L;\n", TypeName.LONG, needsMethod.getPermissionMaskFieldName(),
+                    maskInitializer(needsMethod));
+        }
+    }
+
+    private FieldSpec createArrayField(NeedsPermissionMethod needsMethod) {
+        return FieldSpec.builder(STRING_ARRAY, needsMethod.getPermissionFieldName())
+                .addModifiers(Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                .initializer(arrayInitializer(needsMethod).toCodeBlock())
+                .build();
+    }
+
+    private Snippet arrayInitializer(NeedsPermissionMethod needsMethod) {
+        List<String> permissions = needsMethod.getPermissions();
+        List<Snippet> values = new ArrayList<>(permissions.size());
+        for (String permission : permissions) {
+            values.add(Snippet.of("$S", permission));
+        }
+        return Snippet.of("new String[] {$L}", Snippet.join(",", values));
+    }
+
+    private Snippet maskInitializer(NeedsPermissionMethod needsMethod) {
+        return Snippet.of("0x$LL", Long.toHexString(this.ordinals.maskOf(needsMethod.getPermissions())));
+    }
+
+    private Snippet ordinalInitializer(NeedsPermissionMethod needsMethod) {
+        return Snippet.of("$L", this.ordinals.ordinalOf(needsMethod.getPermissions().get(0)));
+    }
+
+    /**
+     * Returns the expression providing the permissions of the given @NeedsPermission method as String[].
+     */
+    Snippet arrayOf(NeedsPermissionMethod needsMethod) {
+        if (this.registry != null) {
+            return this.registry.reference(needsMethod.getPermissions());
+        }
+        return Snippet.of("$N", needsMethod.getPermissionFieldName());
+    }
+
+    /**
+     * Returns the expression providing the ordinal bitmask of the given @NeedsPermission method.
+     */
+    Snippet maskOf(NeedsPermissionMethod needsMethod) {
+        return Snippet.of("$N", needsMethod.getPermissionMaskFieldName());
+    }
+
+    /**
+     * Returns the expression providing the ordinal of the permission of the given single-permission method.
+     */
+    Snippet ordinalOf(NeedsPermissionMethod needsMethod) {
+        return Snippet.of("$N", needsMethod.getPermissionOrdinalFieldName());
+    }
+
+    /**
+     * Returns the expression providing the PermissionTable the masks refer to.
+     */
+    Snippet table() {
+        return this.moduleTable ? this.registry.tableReference() : Snippet.of("$N", TABLE_FIELD_NAME);
+    }
+}
@@ -0,0 +1,544 @@
+package permissions.dispatcher.processor.impl;
+
+import com.squareup.javapoet.ArrayTypeName;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.ParameterizedTypeName;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeVariableName;
+import permissions.dispatcher.processor.MethodParameter;
+import permissions.dispatcher.processor.NeedsPermissionMethod;
+import permissions.dispatcher.processor.RequestCodeProvider;
+import permissions.dispatcher.processor.RuntimePermissionsModel;
+import permissions.dispatcher.processor.SdkVersions;
+import permissions.dispatcher.processor.impl.helper.SensitivePermissionInterface;
+import permissions.dispatcher.processor.util.Constants;
+import permissions.dispatcher.processor.util.Snippet;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Streaming emitter, writing the dispatcher of an element straight to an Appendable.
+ * <p>
+ * Mirrors the JavaPoet code of BaseProcessorUnit method by method, sharing the fragments that differ between
+ * target types, and has to be kept in sync with it; "-Apermissions.dispatcher.emitter=verify" compares both.
+ */
+final class SourceEmitter {
+
+    private static final ClassName PERMISSION_BROKER = ClassName.get(Constants.PACKAGE_NAME, "PermissionBroker");
+    private static final ClassName PENDING_REQUESTS = ClassName.get(Constants.PACKAGE_NAME, "PendingRequests");
+    private static final ClassName GRANTABLE_REQUEST = ClassName.get(Constants.PACKAGE_NAME, "GrantableRequest");
+    private static final ClassName PERMISSION_REQUEST = ClassName.get(Constants.PACKAGE_NAME, "PermissionRequest");
+    private static final ClassName PERMISSION_OUTCOME = ClassName.get(Constants.PACKAGE_NAME, "PermissionOutcome");
+    private static final ClassName PERMISSION_OUTCOME_RESULT = PERMISSION_OUTCOME.nestedClass("Result");
+    private static final ClassName EXECUTOR = ClassName.get("java.util.concurrent", "Executor");
+    private static final ClassName WEAK_REFERENCE = ClassName.get("java.lang.ref", "WeakReference");
+    private static final ClassName OVERRIDE = ClassName.get(Override.class);
+    private static final ClassName SUPPRESS_WARNINGS = ClassName.get(SuppressWarnings.class);
+    private static final TypeName STRING_ARRAY = ArrayTypeName.of(String.class);
+    private static final TypeName INT_ARRAY = ArrayTypeName.of(TypeName.INT);
+
+    private static final String TARGET = "target";
+    private static final String REQUEST_CODE = "requestCode";
+    private static final String GRANT_RESULTS = "grantResults";
+    private static final String WEAK_TARGET = "weakTarget";
+    private static final String INSTANCE = "INSTANCE";
+
+    private final BaseProcessorUnit unit;
+
+    private final RuntimePermissionsModel model;
+
+    private final RequestCodeProvider requestCodeProvider;
+
+    private final PermissionSource source;
+
+    private final SdkVersions sdkVersions;
+
+    private final ClassName permissionUtils;
+
+    private final List<TypeVariableName> typeVariables;
+
+    private final ClassName dispatcherType;
+
+    SourceEmitter(BaseProcessorUnit unit, RuntimePermissionsModel model, RequestCodeProvider requestCodeProvider,
+                  PermissionSource source, SdkVersions sdkVersions) {
+        this.unit = unit;
+        this.model = model;
+        this.requestCodeProvider = requestCodeProvider;
+        this.source = source;
+        this.sdkVersions = sdkVersions;
+        this.permissionUtils = unit.getPERMISSION_UTILS();
+        this.typeVariables = model.getTypeVariables();
+        this.dispatcherType = ClassName.get(model.getPackageName(), model.getGeneratedClassName());
+    }
+
+    /**
+     * Returns whether the dispatcher of the given element can be streamed, see SourceWriter.canWrite().
+     * Permissions spanning several lines are wrapped by JavaPoet, so they are left to it as well.
+     */
+    static boolean canEmit(RuntimePermissionsModel model) {
+        if (!SourceWriter.canWrite(model.getTypeName())) {
+            return false;
+        }
+        for (TypeVariableName typeVariable : model.getTypeVariables()) {
+            if (!SourceWriter.canDeclare(typeVariable)) {
+                return false;
+            }
+        }
+        for (NeedsPermissionMethod needsMethod : model.getNeedsMethods()) {
+            for (MethodParameter parameter : needsMethod.getParameters()) {
+                if (!SourceWriter.canWrite(parameter.getTypeName())) {
+                    return false;
+                }
+            }
+            for (String permission : needsMethod.getPermissions()) {
+                if (permission.indexOf('\n') >= 0) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes the dispatcher; the first pass only collects the imports.
+     */
+    void writeTo(Appendable out) throws IOException {
+        SourceWriter collector = SourceWriter.collecting(this.model.getPackageName());
+        emitFile(collector);
+        emitFile(SourceWriter.writing(collector, out));
+    }
+
+    private void emitFile(SourceWriter writer) throws IOException {
+        writer.emitFileHeader(Constants.FILE_COMMENT);
+        List<String> nestedTypeNames = new ArrayList<>();
+        for (NeedsPermissionMethod needsMethod : this.model.getNeedsMethods()) {
+            if (hasRequestClass(needsMethod)) {
+                nestedTypeNames.add(needsMethod.getRequestClassName());
+            }
+        }
+        boolean hasNormalPermission = this.unit.hasNormalPermission(this.model);
+        if (hasNormalPermission) {
+            nestedTypeNames.add(BaseProcessorUnit.BROKER_CLIENT_CLASS_NAME);
+        }
+        writer.emit("final class $L", this.model.getGeneratedClassName());
+        writer.beginType(this.dispatcherType, nestedTypeNames);
+
+        emitFields(writer);
+        writer.beginMember();
+        writer.emit("private $L()", this.model.getGeneratedClassName());
+        writer.beginMethodBody();
+        writer.endMethodBody();
+        for (NeedsPermissionMethod needsMethod : this.model.getNeedsMethods()) {
+            emitWithCheckMethod(writer, needsMethod);
+            if (this.unit.sensitivePermissionOf(needsMethod) == null) {
+                emitOutcomeMethod(writer, needsMethod);
+            }
+        }
+        if (hasNormalPermission) {
+            emitPermissionResultMethod(writer);
+        }
+        if (this.unit.hasSystemAlertWindowPermission(this.model) || this.unit.hasWriteSettingPermission(this.model)) {
+            emitOnActivityResultMethod(writer);
+        }
+        for (NeedsPermissionMethod needsMethod : this.model.getNeedsMethods()) {
+            if (hasRequestClass(needsMethod)) {
+                emitPermissionRequestClass(writer, needsMethod);
+            }
+        }
+        if (hasNormalPermission) {
+            emitBrokerClientClass(writer);
+        }
+        writer.endType();
+    }
+
+    private static boolean hasRequestClass(NeedsPermissionMethod needsMethod) {
+        return needsMethod.getOnRationaleName() != null || needsMethod.hasParameters();
+    }
+
+    private void emitFields(SourceWriter writer) throws IOException {
+        this.source.writeTableField(writer);
+        for (NeedsPermissionMethod needsMethod : this.model.getNeedsMethods()) {
+            writer.beginMember();
+            writer.emit("private static final $T $L = $L;\n", TypeName.INT, needsMethod.getRequestCodeFieldName(),
+                    this.requestCodeProvider.requestCodeFor(needsMethod.getName()));
+            this.source.writeFields(writer, needsMethod);
+        }
+    }
+
+    /**
+     * Writes a method declaration up to the opening brace of its body.
+     *
+     * @param parameters types and names of the parameters, alternating
+     */
+    private void beginMethod(SourceWriter writer, String modifiers, List<TypeVariableName> typeVariables,
+                             TypeName returnType, String name, Object... parameters) throws IOException {
+        writer.beginMember();
+        writer.emit(modifiers);
+        if (!typeVariables.isEmpty()) {
+            writer.emitTypeVariables(typeVariables);
+            writer.emit(" ");
+        }
+        writer.emit("$T $L(", returnType, name);
+        for (int i = 0; i < parameters.length; i += 2) {
+            writer.emit(i == 0 ? "$T $L" : ", $T $L", parameters[i], parameters[i + 1]);
+        }
+        writer.emit(")");
+        writer.beginMethodBody();
+    }
+
+    private void beginOverride(SourceWriter writer, String name, Object... parameters) throws IOException {
+        writer.beginMember();
+        writer.emit("@$T\n", OVERRIDE);
+        writer.emit("public $T $L(", TypeName.VOID, name);
+        for (int i = 0; i < parameters.length; i += 2) {
+            writer.emit(i == 0 ? "$T $L" : ", $T $L", parameters[i], parameters[i + 1]);
+        }
+        writer.emit(")");
+        writer.beginMethodBody();
+    }
+
+    private void emitOutcomeMethod(SourceWriter writer, NeedsPermissionMethod needsMethod) throws IOException {
+        String executorParam = "executor";
+        beginMethod(writer, "static ", this.typeVariables, PERMISSION_OUTCOME, needsMethod.getOutcomeMethodName(),
+                this.model.getTypeName(), TARGET, EXECUTOR, executorParam);
+        writer.statement("return $T.checkAsync($N, $N, $L)", this.permissionUtils, this.unit.getActivityName(TARGET),
+                executorParam, this.source.arrayOf(needsMethod));
+        writer.endMethodBody();
+    }
+
+    private void emitWithCheckMethod(SourceWriter writer, NeedsPermissionMethod needsMethod) throws IOException {
+        List<MethodParameter> methodParameters = needsMethod.getParameters();
+        Object[] parameters = new Object[2 + 2 * methodParameters.size()];
+        parameters[0] = this.model.getTypeName();
+        parameters[1] = TARGET;
+        for (int i = 0; i < methodParameters.size(); i++) {
+            parameters[2 + 2 * i] = methodParameters.get(i).getTypeName();
+            parameters[3 + 2 * i] = methodParameters.get(i).getName();
+        }
+        beginMethod(writer, "static ", this.typeVariables, TypeName.VOID, needsMethod.getWithCheckMethodName(), parameters);
+
+        String requestCodeField = needsMethod.getRequestCodeFieldName();
+        SensitivePermissionInterface sensitivePermission = this.unit.sensitivePermissionOf(needsMethod);
+        boolean reportsFlow = sensitivePermission == null;
+        if (reportsFlow) {
+            writer.statement("$T.flowStarted($N, $N)", this.permissionUtils, TARGET, requestCodeField);
+        }
+
+        String onRationale = needsMethod.getOnRationaleName();
+        String statusVar = this.unit.statusVariableName(needsMethod);
+        if (onRationale != null) {
+            writer.statement("int $N = $L", statusVar, this.unit.queryStates(TARGET, needsMethod, this.source));
+        }
+
+        String activityVar = this.unit.getActivityName(TARGET);
+        if (sensitivePermission != null) {
+            writer.beginControlFlow("if ($L)", sensitivePermission.hasSelfPermissionsCondition(activityVar,
+                    this.unit.hasSelfPermissions(activityVar, needsMethod, this.source)));
+        } else if (onRationale != null) {
+            writer.beginControlFlow("if (($N & $T.STATUS_GRANTED) != 0)", statusVar, this.permissionUtils);
+        } else {
+            writer.beginControlFlow("if ($L)", this.unit.hasSelfPermissions(activityVar, needsMethod, this.source));
+        }
+        if (reportsFlow) {
+            emitFlowFinishedStatement(writer, requestCodeField, "GRANTED");
+        }
+        writer.statement("$N.$N($L)", TARGET, needsMethod.getName(), needsMethod.getArgumentList());
+        writer.nextControlFlow("else");
+
+        boolean hasParameters = needsMethod.hasParameters();
+        String pendingVar = this.unit.pendingVariableName(needsMethod);
+        if (hasParameters) {
+            writer.statement("$T $N = new $T$L($N, $L)", this.unit.requestTypeOf(this.model, needsMethod), pendingVar,
+                    this.unit.requestRawTypeOf(this.model, needsMethod), this.typeVariables.isEmpty() ? "" : "<>",
+                    TARGET, needsMethod.getArgumentList());
+            writer.statement("$T.getInstance().put($N, $N, $N, $N)", PENDING_REQUESTS, activityVar, TARGET,
+                    requestCodeField, pendingVar);
+        }
+        if (onRationale != null) {
+            writer.beginControlFlow("if (($N & $T.STATUS_SHOW_RATIONALE) != 0)", statusVar, this.permissionUtils);
+            if (reportsFlow) {
+                writer.statement("$T.rationaleShown($N, $N)", this.permissionUtils, TARGET, requestCodeField);
+            }
+            if (hasParameters) {
+                writer.statement("$N.$N($N)", TARGET, onRationale, pendingVar);
+            } else {
+                writer.statement("$N.$N($N.obtain($N))", TARGET, onRationale, needsMethod.getRequestClassName(), TARGET);
+            }
+            writer.nextControlFlow("else");
+        }
+
+        if (sensitivePermission != null) {
+            emitStatements(writer, sensitivePermission.requestPermissionsStatements(activityVar, requestCodeField));
+        } else {
+            writer.statement("$L", this.unit.brokerRequestStatement(needsMethod, TARGET, this.source.arrayOf(needsMethod),
+                    requestCodeField));
+        }
+        if (onRationale != null) {
+            writer.endControlFlow();
+        }
+        writer.endControlFlow();
+        writer.endMethodBody();
+    }
+
+    private void emitPermissionResultMethod(SourceWriter writer) throws IOException {
+        beginMethod(writer, "static ", this.typeVariables, TypeName.VOID, "onRequestPermissionsResult",
+                this.model.getTypeName(), TARGET, TypeName.INT, REQUEST_CODE, INT_ARRAY, GRANT_RESULTS);
+        writer.statement("$T.invalidate()", this.permissionUtils);
+        writer.beginControlFlow("if ($T.getInstance().onRequestPermissionsResult($N, $N, $N))",
+                PERMISSION_BROKER, this.unit.getActivityName(TARGET), REQUEST_CODE, GRANT_RESULTS);
+        writer.statement("return");
+        writer.endControlFlow();
+        writer.beginControlFlow("switch ($N)", REQUEST_CODE);
+        for (NeedsPermissionMethod needsMethod : this.model.getNeedsMethods()) {
+            if (this.unit.sensitivePermissionOf(needsMethod) != null) {
+                continue;
+            }
+            writer.emit("case $N:\n", needsMethod.getRequestCodeFieldName());
+            emitResultCaseBody(writer, needsMethod);
+        }
+        writer.emit("default:\n");
+        writer.statement("break");
+        writer.endControlFlow();
+        writer.endMethodBody();
+    }
+
+    private void emitOnActivityResultMethod(SourceWriter writer) throws IOException {
+        beginMethod(writer, "static ", this.typeVariables, TypeName.VOID, "onActivityResult",
+                this.model.getTypeName(), TARGET, TypeName.INT, REQUEST_CODE);
+        writer.statement("$T.invalidate()", this.permissionUtils);
+        writer.beginControlFlow("switch ($N)", REQUEST_CODE);
+        for (NeedsPermissionMethod needsMethod : this.model.getNeedsMethods()) {
+            if (this.unit.sensitivePermissionOf(needsMethod) == null) {
+                continue;
+            }
+            writer.emit("case $N:\n", needsMethod.getRequestCodeFieldName());
+            emitResultCaseBody(writer, needsMethod);
+        }
+        writer.emit("default:\n");
+        writer.statement("break");
+        writer.endControlFlow();
+        writer.endMethodBody();
+    }
+
+    private void emitResultCaseBody(SourceWriter writer, NeedsPermissionMethod needsMethod) throws IOException {
+        String onDenied = needsMethod.getOnDeniedName();
+        boolean hasDenied = onDenied != null;
+        SensitivePermissionInterface sensitivePermission = this.unit.sensitivePermissionOf(needsMethod);
+        String onNeverAsk = needsMethod.getOnNeverAskName();
+        boolean hasNeverAsk = onNeverAsk != null;
+        String activityVar = this.unit.getActivityName(TARGET);
+
+        boolean hasParameters = needsMethod.hasParameters();
+        String pendingVar = this.unit.pendingVariableName(needsMethod);
+        if (hasParameters) {
+            writer.statement("$T $N = $T.getInstance().remove($N, $N)", GRANTABLE_REQUEST, pendingVar, PENDING_REQUESTS,
+                    TARGET, needsMethod.getRequestCodeFieldName());
+        }
+
+        String statusVar = this.unit.statusVariableName(needsMethod);
+        if (hasNeverAsk) {
+            writer.statement("int $N = $L", statusVar, this.unit.queryStates(TARGET, needsMethod, this.source));
+        }
+        Snippet legacyDenied = sensitivePermission == null
+                ? this.unit.legacyDeniedCondition(activityVar, needsMethod, this.source, statusVar, this.sdkVersions)
+                : null;
+        if (legacyDenied != null) {
+            writer.beginControlFlow("if ($L)", legacyDenied);
+            if (hasDenied) {
+                writer.statement("$N.$N()", TARGET, onDenied);
+            }
+            writer.statement("return");
+            writer.endControlFlow();
+        }
+
+        if (sensitivePermission != null) {
+            writer.beginControlFlow("if ($L)", sensitivePermission.hasSelfPermissionsCondition(activityVar,
+                    this.unit.hasSelfPermissions(activityVar, needsMethod, this.source)));
+        } else {
+            writer.beginControlFlow("if ($L)", this.unit.verifyResults(needsMethod, GRANT_RESULTS));
+        }
+        if (hasParameters) {
+            writer.beginControlFlow("if ($N != null)", pendingVar);
+            writer.statement("$N.grant()", pendingVar);
+            writer.endControlFlow();
+        } else {
+            writer.statement("target.$N()", needsMethod.getName());
+        }
+
+        if (hasDenied || hasNeverAsk) {
+            writer.nextControlFlow("else");
+        }
+        if (hasNeverAsk) {
+            writer.beginControlFlow("if ($N.length > 0 && ($N & $T.STATUS_SHOW_RATIONALE) == 0)", GRANT_RESULTS, statusVar,
+                    this.permissionUtils);
+            writer.statement("target.$N()", onNeverAsk);
+            if (hasDenied) {
+                writer.nextControlFlow("else");
+            } else {
+                writer.endControlFlow();
+            }
+        }
+        if (hasDenied) {
+            writer.statement("$N.$N()", TARGET, onDenied);
+            if (hasNeverAsk) {
+                writer.endControlFlow();
+            }
+        }
+        writer.endControlFlow();
+        writer.statement("break");
+    }
+
+    private void emitFlowFinishedStatement(SourceWriter writer, String requestCodeField, String result) throws IOException {
+        writer.statement("$T.flowFinished($N, $N, $T.$L)", this.permissionUtils, TARGET, requestCodeField,
+                PERMISSION_OUTCOME_RESULT, result);
+    }
+
+    private void emitStatements(SourceWriter writer, List<Snippet> statements) throws IOException {
+        for (Snippet statement : statements) {
+            writer.statement("$L", statement);
+        }
+    }
+
+    private void emitPermissionRequestClass(SourceWriter writer, NeedsPermissionMethod needsMethod) throws IOException {
+        boolean hasParameters = needsMethod.hasParameters();
+        TypeName targetType = this.model.getTypeName();
+        ClassName rawType = this.unit.requestRawTypeOf(this.model, needsMethod);
+        TypeName weakFieldType = ParameterizedTypeName.get(WEAK_REFERENCE, targetType);
+
+        writer.beginMember();
+        writer.emit("private static final class $L", needsMethod.getRequestClassName());
+        writer.emitTypeVariables(this.typeVariables);
+        writer.emit(" implements $T", hasParameters ? GRANTABLE_REQUEST : PERMISSION_REQUEST);
+        writer.beginType(rawType, Collections.<String>emptyList());
+
+        if (hasParameters) {
+            // Requests with parameters capture their arguments, see BaseProcessorUnit
+            writer.beginMember();
+            writer.emit("private final $T $L;\n", weakFieldType, WEAK_TARGET);
+            List<MethodParameter> methodParameters = needsMethod.getParameters();
+            for (MethodParameter parameter : methodParameters) {
+                writer.beginMember();
+                writer.emit("private final $T $L;\n", parameter.getTypeName(), parameter.getName());
+            }
+            writer.beginMember();
+            writer.emit("$L($T $L", needsMethod.getRequestClassName(), targetType, TARGET);
+            for (MethodParameter parameter : methodParameters) {
+                writer.emit(", $T $L", parameter.getTypeName(), parameter.getName());
+            }
+            writer.emit(")");
+            writer.beginMethodBody();
+            writer.statement("this.$L = new WeakReference<>($N)", WEAK_TARGET, TARGET);
+            for (MethodParameter parameter : methodParameters) {
+                writer.statement("this.$L = $N", parameter.getName(), parameter.getName());
+            }
+            writer.endMethodBody();
+        } else {
+            emitReusableInstance(writer, needsMethod, rawType, weakFieldType);
+        }
+
+        String requestCodeField = needsMethod.getRequestCodeFieldName();
+        SensitivePermissionInterface sensitivePermission = this.unit.sensitivePermissionOf(needsMethod);
+        beginOverride(writer, "proceed");
+        writer.statement("$T target = $N.get()", targetType, WEAK_TARGET);
+        writer.statement("if (target == null) return");
+        if (sensitivePermission != null) {
+            emitStatements(writer, sensitivePermission.requestPermissionsStatements(this.unit.getActivityName(TARGET),
+                    requestCodeField));
+        } else {
+            writer.statement("$L", this.unit.brokerRequestStatement(needsMethod, TARGET, this.source.arrayOf(needsMethod),
+                    requestCodeField));
+        }
+        writer.endMethodBody();
+
+        beginOverride(writer, "cancel");
+        if (hasParameters) {
+            writer.statement("$T.getInstance().remove(this)", PENDING_REQUESTS);
+        }
+        String onDenied = needsMethod.getOnDeniedName();
+        if (onDenied != null || sensitivePermission == null) {
+            writer.statement("$T target = $N.get()", targetType, WEAK_TARGET);
+            writer.statement("if (target == null) return");
+        }
+        if (sensitivePermission == null) {
+            emitFlowFinishedStatement(writer, requestCodeField, "DENIED");
+        }
+        if (onDenied != null) {
+            writer.statement("target.$N()", onDenied);
+        }
+        writer.endMethodBody();
+
+        if (hasParameters) {
+            beginOverride(writer, "grant");
+            writer.statement("$T target = $N.get()", targetType, WEAK_TARGET);
+            writer.statement("if (target == null) return");
+            writer.statement("target.$N($L)", needsMethod.getName(), needsMethod.getArgumentList());
+            writer.endMethodBody();
+        }
+        writer.endType();
+    }
+
+    private void emitReusableInstance(SourceWriter writer, NeedsPermissionMethod needsMethod, ClassName rawType,
+                                      TypeName weakFieldType) throws IOException {
+        TypeName requestType = this.unit.requestTypeOf(this.model, needsMethod);
+        writer.beginMember();
+        writer.emit("private static $T $L;\n", rawType, INSTANCE);
+        writer.beginMember();
+        writer.emit("private final $T $L;\n", weakFieldType, WEAK_TARGET);
+        writer.beginMember();
+        writer.emit("private $L($T $L)", needsMethod.getRequestClassName(), this.model.getTypeName(), TARGET);
+        writer.beginMethodBody();
+        writer.statement("this.$L = new WeakReference<>($N)", WEAK_TARGET, TARGET);
+        writer.endMethodBody();
+
+        writer.beginMember();
+        if (!this.typeVariables.isEmpty()) {
+            writer.emit("@$T($S)\n", SUPPRESS_WARNINGS, "unchecked");
+        }
+        writer.emit("static ");
+        if (!this.typeVariables.isEmpty()) {
+            writer.emitTypeVariables(this.typeVariables);
+            writer.emit(" ");
+        }
+        writer.emit("$T obtain($T $L)", requestType, this.model.getTypeName(), TARGET);
+        writer.beginMethodBody();
+        if (this.typeVariables.isEmpty()) {
+            writer.statement("$T request = $N", requestType, INSTANCE);
+        } else {
+            writer.statement("$T request = ($T) $N", requestType, requestType, INSTANCE);
+        }
+        writer.beginControlFlow("if (request == null || request.$L.get() != $N)", WEAK_TARGET, TARGET);
+        writer.statement(this.typeVariables.isEmpty() ? "request = new $T($N)" : "request = new $T<>($N)", rawType, TARGET);
+        writer.statement("$N = request", INSTANCE);
+        writer.endControlFlow();
+        writer.statement("return request");
+        writer.endMethodBody();
+    }
+
+    private void emitBrokerClientClass(SourceWriter writer) throws IOException {
+        TypeName targetType = this.model.getTypeName();
+        ClassName rawType = this.dispatcherType.nestedClass(BaseProcessorUnit.BROKER_CLIENT_CLASS_NAME);
+        String permissionsParam = "permissions";
+
+        writer.beginMember();
+        writer.emit("private static final class $L", BaseProcessorUnit.BROKER_CLIENT_CLASS_NAME);
+        writer.emitTypeVariables(this.typeVariables);
+        writer.emit(" implements $T", ParameterizedTypeName.get(PERMISSION_BROKER.nestedClass("Client"), targetType));
+        writer.beginType(rawType, Collections.<String>emptyList());
+
+        writer.beginMember();
+        writer.emit("static final $T $L = new $T();\n", rawType, INSTANCE, rawType);
+
+        beginOverride(writer, "requestPermissions", targetType, TARGET, STRING_ARRAY, permissionsParam, TypeName.INT, REQUEST_CODE);
+        writer.statement("$L", this.unit.requestPermissionsStatement(TARGET, Snippet.of("$N", permissionsParam), REQUEST_CODE));
+        writer.endMethodBody();
+
+        beginOverride(writer, "onRequestPermissionsResult", targetType, TARGET, TypeName.INT, REQUEST_CODE,
+                INT_ARRAY, GRANT_RESULTS);
+        writer.statement("$T.onRequestPermissionsResult($N, $N, $N)", this.dispatcherType, TARGET, REQUEST_CODE, GRANT_RESULTS);
+        writer.endMethodBody();
+        writer.endType();
+    }
+}
@@ -0,0 +1,513 @@
+package permissions.dispatcher.processor.impl;
+
+import com.squareup.javapoet.ArrayTypeName;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.ParameterizedTypeName;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeVariableName;
+import com.squareup.javapoet.WildcardTypeName;
+import permissions.dispatcher.processor.util.Snippet;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Writes Java source text directly, laid out the way JavaPoet 1.7 writes a JavaFile.
+ * <p>
+ * Takes JavaPoet format strings ($L, $N, $S, $T, $$), but parses each of them only once and builds no tree:
+ * a file is emitted twice, first without output to collect the types it refers to, then into the output with the
+ * resulting imports. Name resolution, imports, indentation and blank lines between members follow JavaPoet,
+ * so both emitters produce the same text.
+ */
+final class SourceWriter {
+
+    private static final String INDENT = "  ";
+
+    // Parsed format strings; only constant formats are passed, so this stays small
+    private static final ConcurrentMap<String, Template> TEMPLATES = new ConcurrentHashMap<>();
+
+    private final String packageName;
+
+    private final Map<String, ClassName> importedTypes;
+
+    // Null while collecting imports
+    private final Appendable out;
+
+    private final Map<String, ClassName> importableTypes = new LinkedHashMap<>();
+
+    private final Set<String> referencedNames = new HashSet<>();
+
+    private final List<Scope> scopes = new ArrayList<>();
+
+    private int indentLevel;
+
+    private boolean trailingNewline = true;
+
+    private SourceWriter(String packageName, Map<String, ClassName> importedTypes, Appendable out) {
+        this.packageName = packageName;
+        this.importedTypes = importedTypes;
+        this.out = out;
+    }
+
+    /**
+     * Returns a writer collecting the imports of a file in the given package, without writing anything.
+     */
+    static SourceWriter collecting(String packageName) {
+        return new SourceWriter(packageName, Collections.<String, ClassName>emptyMap(), null);
+    }
+
+    /**
+     * Returns a writer writing a file to the given output, with the imports collected by the given writer.
+     */
+    static SourceWriter writing(SourceWriter collector, Appendable out) {
+        Map<String, ClassName> imports = new LinkedHashMap<>(collector.importableTypes);
+        imports.keySet().removeAll(collector.referencedNames);
+        return new SourceWriter(collector.packageName, imports, out);
+    }
+
+    /**
+     * Returns whether the given type can be written by this class. JavaPoet has to write annotated types,
+     * and types nested in a parameterized type. Bounds of type variables are only written where the variables
+     * are declared, so they aren't checked here, see {@link #canDeclare(TypeVariableName)}.
+     */
+    static boolean canWrite(TypeName type) {
+        if (type.isAnnotated()) {
+            return false;
+        }
+        if (type instanceof ParameterizedTypeName) {
+            ParameterizedTypeName parameterized = (ParameterizedTypeName) type;
+            if (!canWrite(parameterized.rawType) || !type.toString().startsWith(parameterized.rawType + "<")) {
+                return false;
+            }
+            return canWriteAll(parameterized.typeArguments);
+        }
+        if (type instanceof ArrayTypeName) {
+            return canWrite(((ArrayTypeName) type).componentType);
+        }
+        if (type instanceof WildcardTypeName) {
+            WildcardTypeName wildcard = (WildcardTypeName) type;
+            return canWriteAll(wildcard.upperBounds) && canWriteAll(wildcard.lowerBounds);
+        }
+        return true;
+    }
+
+    /**
+     * Returns whether the declaration of the given type variable can be written by this class.
+     */
+    static boolean canDeclare(TypeVariableName typeVariable) {
+        return canWrite(typeVariable) && canWriteAll(typeVariable.bounds);
+    }
+
+    private static boolean canWriteAll(List<TypeName> types) {
+        for (TypeName type : types) {
+            if (!canWrite(type)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes the file comment, the package declaration and the imports.
+     */
+    void emitFileHeader(String comment) throws IOException {
+        emitAndIndent("// " + comment + "\n");
+        if (!this.packageName.isEmpty()) {
+            emitAndIndent("package " + this.packageName + ";\n");
+            emitAndIndent("\n");
+        }
+        Set<String> imports = new TreeSet<>();
+        for (ClassName className : this.importedTypes.values()) {
+            imports.add(className.toString());
+        }
+        for (String className : imports) {
+            emitAndIndent("import " + className + ";\n");
+        }
+        if (!imports.isEmpty()) {
+            emitAndIndent("\n");
+        }
+    }
+
+    SourceWriter emit(String format, Object... args) throws IOException {
+        Template template = TEMPLATES.get(format);
+        if (template == null) {
+            template = Template.parse(format);
+            TEMPLATES.putIfAbsent(format, template);
+        }
+        String[] literals = template.literals;
+        char[] placeholders = template.placeholders;
+        int arg = 0;
+        for (int i = 0; i < placeholders.length; i++) {
+            emitAndIndent(literals[i]);
+            switch (placeholders[i]) {
+                case 'L':
+                    emitLiteral(args[arg++]);
+                    break;
+                case 'N':
+                    emitAndIndent(String.valueOf(args[arg++]));
+                    break;
+                case 'S':
+                    Object string = args[arg++];
+                    emitAndIndent(string != null ? stringLiteral((String) string) : "null");
+                    break;
+                case 'T':
+                    emitType((TypeName) args[arg++]);
+                    break;
+                case '>':
+                    this.indentLevel++;
+                    break;
+                case '<':
+                    this.indentLevel--;
+                    break;
+                default:
+                    // Statement markers only matter to JavaPoet's line wrapping
+                    break;
+            }
+        }
+        emitAndIndent(literals[placeholders.length]);
+        return this;
+    }
+
+    SourceWriter emit(Snippet snippet) throws IOException {
+        if (snippet.getFormat() == null) {
+            List<Snippet> parts = snippet.getParts();
+            for (int i = 0; i < parts.size(); i++) {
+                if (i > 0) {
+                    emitAndIndent(snippet.getSeparator());
+                }
+                emit(parts.get(i));
+            }
+            return this;
+        }
+        Object[] args = new Object[snippet.getArgCount()];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = snippet.getArg(i);
+        }
+        return emit(snippet.getFormat(), args);
+    }
+
+    void statement(String format, Object... args) throws IOException {
+        emit(format, args);
+        emitAndIndent(";\n");
+    }
+
+    void beginControlFlow(String format, Object... args) throws IOException {
+        emit(format, args);
+        emitAndIndent(" {\n");
+        this.indentLevel++;
+    }
+
+    void nextControlFlow(String format, Object... args) throws IOException {
+        this.indentLevel--;
+        emitAndIndent("} ");
+        emit(format, args);
+        emitAndIndent(" {\n");
+        this.indentLevel++;
+    }
+
+    void endControlFlow() throws IOException {
+        this.indentLevel--;
+        emitAndIndent("}\n");
+    }
+
+    /**
+     * Separates the members of a type by blank lines, to be called before each of them.
+     */
+    void beginMember() throws IOException {
+        Scope scope = this.scopes.get(this.scopes.size() - 1);
+        if (!scope.firstMember) {
+            emitAndIndent("\n");
+        }
+        scope.firstMember = false;
+    }
+
+    void emitTypeVariables(List<TypeVariableName> typeVariables) throws IOException {
+        if (typeVariables.isEmpty()) {
+            return;
+        }
+        emitAndIndent("<");
+        for (int i = 0; i < typeVariables.size(); i++) {
+            TypeVariableName typeVariable = typeVariables.get(i);
+            if (i > 0) {
+                emitAndIndent(", ");
+            }
+            emitAndIndent(typeVariable.name);
+            for (int j = 0; j < typeVariable.bounds.size(); j++) {
+                emitAndIndent(j == 0 ? " extends " : " & ");
+                emitType(typeVariable.bounds.get(j));
+            }
+        }
+        emitAndIndent(">");
+    }
+
+    /**
+     * Opens the body of a type whose declaration has been written, so its nested types resolve by simple name.
+     */
+    void beginType(ClassName className, List<String> nestedTypeNames) throws IOException {
+        emitAndIndent(" {\n");
+        this.scopes.add(new Scope(className, nestedTypeNames));
+        this.indentLevel++;
+    }
+
+    void endType() throws IOException {
+        this.indentLevel--;
+        this.scopes.remove(this.scopes.size() - 1);
+        emitAndIndent("}\n");
+    }
+
+    /**
+     * Opens the body of a method whose declaration has been written.
+     */
+    void beginMethodBody() throws IOException {
+        emitAndIndent(" {\n");
+        this.indentLevel++;
+    }
+
+    void endMethodBody() throws IOException {
+        this.indentLevel--;
+        emitAndIndent("}\n");
+    }
+
+    void emitType(TypeName type) throws IOException {
+        if (type instanceof ClassName) {
+            emitAndIndent(lookupName((ClassName) type));
+        } else if (type instanceof ParameterizedTypeName) {
+            ParameterizedTypeName parameterized = (ParameterizedTypeName) type;
+            emitAndIndent(lookupName(parameterized.rawType));
+            emitAndIndent("<");
+            for (int i = 0; i < parameterized.typeArguments.size(); i++) {
+                if (i > 0) {
+                    emitAndIndent(", ");
+                }
+                emitType(parameterized.typeArguments.get(i));
+            }
+            emitAndIndent(">");
+        } else if (type instanceof ArrayTypeName) {
+            emitType(((ArrayTypeName) type).componentType);
+            emitAndIndent("[]");
+        } else if (type instanceof WildcardTypeName) {
+            WildcardTypeName wildcard = (WildcardTypeName) type;
+            if (wildcard.lowerBounds.size() == 1) {
+                emitAndIndent("? super ");
+                emitType(wildcard.lowerBounds.get(0));
+            } else if (wildcard.upperBounds.get(0).equals(TypeName.OBJECT)) {
+                emitAndIndent("?");
+            } else {
+                emitAndIndent("? extends ");
+                emitType(wildcard.upperBounds.get(0));
+            }
+        } else if (type instanceof TypeVariableName) {
+            emitAndIndent(((TypeVariableName) type).name);
+        } else {
+            // Primitive types and void
+            emitAndIndent(type.toString());
+        }
+    }
+
+    private void emitLiteral(Object value) throws IOException {
+        if (value instanceof Snippet) {
+            emit((Snippet) value);
+        } else {
+            emitAndIndent(String.valueOf(value));
+        }
+    }
+
+    /**
+     * Returns the shortest name of the given class that resolves to it, marking it for import if necessary.
+     */
+    private String lookupName(ClassName className) {
+        boolean nameResolved = false;
+        for (ClassName c = className; c != null; c = c.enclosingClassName()) {
+            ClassName resolved = resolve(c.simpleName());
+            nameResolved = resolved != null;
+            if (c.equals(resolved)) {
+                List<String> simpleNames = className.simpleNames();
+                int suffixOffset = c.simpleNames().size() - 1;
+                return join(simpleNames.subList(suffixOffset, simpleNames.size()));
+            }
+        }
+        // The simple name refers to another class
+        if (nameResolved) {
+            return className.toString();
+        }
+        if (this.packageName.equals(className.packageName())) {
+            this.referencedNames.add(className.topLevelClassName().simpleName());
+            return join(className.simpleNames());
+        }
+        if (!className.packageName().isEmpty()) {
+            ClassName topLevelClassName = className.topLevelClassName();
+            String simpleName = topLevelClassName.simpleName();
+            if (!this.importableTypes.containsKey(simpleName)) {
+                this.importableTypes.put(simpleName, topLevelClassName);
+            }
+        }
+        return className.toString();
+    }
+
+    private ClassName resolve(String simpleName) {
+        // A type nested in one of the enclosing types
+        for (int i = this.scopes.size() - 1; i >= 0; i--) {
+            Scope scope = this.scopes.get(i);
+            if (scope.nestedTypeNames.contains(simpleName)) {
+                return scope.className.nestedClass(simpleName);
+            }
+        }
+        // The top-level type
+        if (!this.scopes.isEmpty() && this.scopes.get(0).className.simpleName().equals(simpleName)) {
+            return ClassName.get(this.packageName, simpleName);
+        }
+        return this.importedTypes.get(simpleName);
+    }
+
+    private static String join(List<String> simpleNames) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < simpleNames.size(); i++) {
+            if (i > 0) {
+                result.append('.');
+            }
+            result.append(simpleNames.get(i));
+        }
+        return result.toString();
+    }
+
+    /**
+     * Writes the given text, indenting each line that isn't empty.
+     */
+    private void emitAndIndent(String text) throws IOException {
+        if (this.out == null) {
+            return;
+        }
+        int start = 0;
+        int length = text.length();
+        while (start <= length) {
+            int end = text.indexOf('\n', start);
+            if (end < 0) {
+                end = length;
+            }
+            if (start > 0) {
+                this.out.append('\n');
+                this.trailingNewline = true;
+            }
+            if (end > start) {
+                if (this.trailingNewline) {
+                    for (int i = 0; i < this.indentLevel; i++) {
+                        this.out.append(INDENT);
+                    }
+                }
+                this.out.append(text, start, end);
+                this.trailingNewline = false;
+            }
+            start = end + 1;
+        }
+    }
+
+    /**
+     * Returns the given string as Java literal; strings spanning several lines are left to JavaPoet.
+     */
+    private static String stringLiteral(String value) {
+        StringBuilder result = new StringBuilder(value.length() + 2);
+        result.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\b':
+                    result.append("\\b");
+                    break;
+                case '\t':
+                    result.append("\\t");
+                    break;
+                case '\n':
+                    result.append("\\n");
+                    break;
+                case '\f':
+                    result.append("\\f");
+                    break;
+                case '\r':
+                    result.append("\\r");
+                    break;
+                case '"':
+                    result.append("\\\"");
+                    break;
+                case '\\':
+                    result.append("\\\\");
+                    break;
+                default:
+                    if (Character.isISOControl(c)) {
+                        result.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        result.append(c);
+                    }
+                    break;
+            }
+        }
+        return result.append('"').toString();
+    }
+
+    /**
+     * A type whose body is being written.
+     */
+    private static final class Scope {
+        final ClassName className;
+
+        final List<String> nestedTypeNames;
+
+        boolean firstMember = true;
+
+        Scope(ClassName className, List<String> nestedTypeNames) {
+            this.className = className;
+            this.nestedTypeNames = nestedTypeNames;
+        }
+    }
+
+    /**
+     * A format string split into literal text and placeholders.
+     */
+    private static final class Template {
+        // The text before each placeholder, and after the last one
+        final String[] literals;
+
+        final char[] placeholders;
+
+        private Template(String[] literals, char[] placeholders) {
+            this.literals = literals;
+            this.placeholders = placeholders;
+        }
+
+        static Template parse(String format) {
+            List<String> literals = new ArrayList<>();
+            StringBuilder placeholders = new StringBuilder();
+            StringBuilder literal = new StringBuilder();
+            for (int i = 0; i < format.length(); i++) {
+                char c = format.charAt(i);
+                if (c != '$') {
+                    literal.append(c);
+                    continue;
+                }
+                if (i + 1 == format.length()) {
+                    throw new IllegalArgumentException("Dangling $ in " + format);
+                }
+                char placeholder = format.charAt(++i);
+                if (placeholder == '$') {
+                    literal.append('$');
+                } else if ("LNST<>[]".indexOf(placeholder) >= 0) {
+                    literals.add(literal.toString());
+                    literal.setLength(0);
+                    placeholders.append(placeholder);
+                } else {
+                    throw new IllegalArgumentException("Unsupported placeholder $" + placeholder + " in " + format);
+                }
+            }
+            literals.add(literal.toString());
+            return new Template(literals.toArray(new String[literals.size()]), placeholders.toString().toCharArray());
+        }
+    }
+}
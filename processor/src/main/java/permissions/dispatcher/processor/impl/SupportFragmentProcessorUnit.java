@@ -1,8 +1,8 @@
 package permissions.dispatcher.processor.impl;
 
-import com.squareup.javapoet.MethodSpec;
-import permissions.dispatcher.processor.RuntimePermissionsElement;
-import permissions.dispatcher.processor.util.HelperUtils;
+import permissions.dispatcher.processor.ProcessingContext;
+import permissions.dispatcher.processor.RuntimePermissionsModel;
+import permissions.dispatcher.processor.util.Snippet;
 
 import javax.lang.model.type.TypeMirror;
 
@@ -11,11 +11,11 @@ import javax.lang.model.type.TypeMirror;
  */
 public final class SupportFragmentProcessorUnit extends BaseProcessorUnit {
 
-    public TypeMirror getTargetType() {
-        return HelperUtils.typeMirrorOf("android.support.v4.app.Fragment");
+    public TypeMirror getTargetType(ProcessingContext context) {
+        return context.typeMirrorOf("android.support.v4.app.Fragment");
     }
 
-    public void checkPrerequisites(RuntimePermissionsElement rpe) {
+    public void checkPrerequisites(ProcessingContext context, RuntimePermissionsModel model) {
         // Nothing to check
     }
 
@@ -23,11 +23,15 @@ public final class SupportFragmentProcessorUnit extends BaseProcessorUnit {
         return targetParam + ".getActivity()";
     }
 
-    public void addShouldShowRequestPermissionRationaleCondition(MethodSpec.Builder builder, String targetParam, String permissionField, boolean isPositiveCondition) {
-        builder.beginControlFlow("if ($N$T.shouldShowRequestPermissionRationale($N.getActivity(), $N))", isPositiveCondition ? "" : "!", getPERMISSION_UTILS(), targetParam, permissionField);
+    public Snippet queryPermissionStates(String targetParam, Snippet table, Snippet mask) {
+        return Snippet.of("$L.queryStates($N.getActivity(), $L)", table, targetParam, mask);
     }
 
-    public void addRequestPermissionsStatement(MethodSpec.Builder builder, String targetParam, String permissionField, String requestCodeField) {
-        builder.addStatement("$N.requestPermissions($N, $N)", targetParam, permissionField, requestCodeField);
+    public Snippet queryPermissionState(String targetParam, Snippet table, Snippet ordinal) {
+        return Snippet.of("$L.queryState($N.getActivity(), $L)", table, targetParam, ordinal);
+    }
+
+    public Snippet requestPermissionsStatement(String targetParam, Snippet permissions, String requestCodeField) {
+        return Snippet.of("$N.requestPermissions($L, $N)", targetParam, permissions, requestCodeField);
     }
 }
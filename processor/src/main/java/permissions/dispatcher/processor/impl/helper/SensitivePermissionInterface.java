@@ -1,9 +1,11 @@
 package permissions.dispatcher.processor.impl.helper;
 
-import com.squareup.javapoet.MethodSpec;
+import permissions.dispatcher.processor.util.Snippet;
+
+import java.util.List;
 
 public interface SensitivePermissionInterface {
-    void addHasSelfPermissionsCondition(MethodSpec.Builder paramBuilder, String activityVar, String permissionField);
+    Snippet hasSelfPermissionsCondition(String activityVar, Snippet grantedCheck);
 
-    void addRequestPermissionsStatement(MethodSpec.Builder paramBuilder, String activityVar, String requestCodeField);
+    List<Snippet> requestPermissionsStatements(String activityVar, String requestCodeField);
 }
@@ -5,8 +5,22 @@ public final class Constants {
     public static final String GEN_CLASS_SUFFIX = "PermissionsDispatcher";
     public static final String GEN_REQUESTCODE_PREFIX = "REQUEST_";
     public static final String GEN_PERMISSION_PREFIX = "PERMISSION_";
-    public static final String GEN_PENDING_PREFIX = "PENDING_";
+    public static final String GEN_PERMISSION_MASK_PREFIX = "MASK_";
+    public static final String GEN_PERMISSION_ORDINAL_PREFIX = "ORDINAL_";
     public static final String GEN_WITHCHECK_SUFFIX = "WithCheck";
+    public static final String GEN_OUTCOME_SUFFIX = "Outcome";
     public static final String GEN_PERMISSIONREQUEST_SUFFIX = "PermissionRequest";
     public static final String PACKAGE_NAME = "permissions.dispatcher";
+    public static final String OPTION_PARALLEL = "permissions.dispatcher.parallel";
+    public static final String OPTION_PROFILE = "permissions.dispatcher.profile";
+    public static final String OPTION_REQUEST_CODE_NAMESPACE = "permissions.dispatcher.requestCodeNamespace";
+    public static final String OPTION_REQUEST_CODE_REGISTRY = "permissions.dispatcher.requestCodeRegistry";
+    public static final String OPTION_REGISTRY = "permissions.dispatcher.registry";
+    public static final String OPTION_EMITTER = "permissions.dispatcher.emitter";
+    public static final String OPTION_MIN_SDK = "permissions.dispatcher.minSdk";
+    public static final String OPTION_TARGET_SDK = "permissions.dispatcher.targetSdk";
+    public static final String GRADLE_ISOLATING = "org.gradle.annotation.processing.isolating";
+    public static final String GRADLE_AGGREGATING = "org.gradle.annotation.processing.aggregating";
+    public static final String PERMISSION_INDEX_SERVICE = "META-INF/services/permissions.dispatcher.PermissionIndex";
+    public static final String PROFILE_REPORT_PATH = "META-INF/permissions-dispatcher/profile.json";
 }
@@ -0,0 +1,90 @@
+package permissions.dispatcher.processor.util;
+
+import com.squareup.javapoet.CodeBlock;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A fragment of generated code, given as a JavaPoet format string and its arguments.
+ * <p>
+ * Fragments shared by both emitters are kept in this form: the JavaPoet emitter turns them into CodeBlocks,
+ * the streaming emitter writes them out directly. Arguments of {@code $L} may be Snippets themselves.
+ */
+public final class Snippet {
+
+    private final String format;
+
+    private final Object[] args;
+
+    private final String separator;
+
+    private final List<Snippet> parts;
+
+    private Snippet(String format, Object[] args, String separator, List<Snippet> parts) {
+        this.format = format;
+        this.args = args;
+        this.separator = separator;
+        this.parts = parts;
+    }
+
+    /**
+     * Creates a fragment from a constant format string; the streaming emitter parses each format only once.
+     */
+    public static Snippet of(String format, Object... args) {
+        return new Snippet(format, args, null, null);
+    }
+
+    /**
+     * Creates a fragment joining the given fragments with the given separator.
+     */
+    public static Snippet join(String separator, List<Snippet> parts) {
+        return new Snippet(null, null, separator, Collections.unmodifiableList(parts));
+    }
+
+    /**
+     * Returns the format string, or null if this fragment joins others.
+     */
+    public String getFormat() {
+        return this.format;
+    }
+
+    public Object getArg(int index) {
+        return this.args[index];
+    }
+
+    public int getArgCount() {
+        return this.args.length;
+    }
+
+    public String getSeparator() {
+        return this.separator;
+    }
+
+    /**
+     * Returns the joined fragments, or null if this fragment has a format string.
+     */
+    public List<Snippet> getParts() {
+        return this.parts;
+    }
+
+    public CodeBlock toCodeBlock() {
+        if (this.format == null) {
+            CodeBlock.Builder builder = CodeBlock.builder();
+            for (int i = 0; i < this.parts.size(); i++) {
+                if (i > 0) {
+                    builder.add("$L", this.separator);
+                }
+                builder.add(this.parts.get(i).toCodeBlock());
+            }
+            return builder.build();
+        }
+        Object[] args = this.args.clone();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i] instanceof Snippet) {
+                args[i] = ((Snippet) args[i]).toCodeBlock();
+            }
+        }
+        return CodeBlock.of(this.format, args);
+    }
+}
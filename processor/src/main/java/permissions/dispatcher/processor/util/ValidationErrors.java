@@ -0,0 +1,45 @@
+package permissions.dispatcher.processor.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.processing.Messager;
+import javax.lang.model.element.Element;
+import javax.tools.Diagnostic;
+
+/**
+ * Collects the violations found by the Validators.
+ * <p>
+ * Validation doesn't stop at the first problem: every rule is checked for every element,
+ * and all violations are reported at once, each one pointing at the offending element.
+ */
+public final class ValidationErrors {
+    private final List<Element> elements = new ArrayList<>();
+
+    private final List<String> messages = new ArrayList<>();
+
+    /**
+     * Records a violation. The exception only carries the message and isn't thrown.
+     */
+    public void report(Element element, RuntimeException error) {
+        this.elements.add(element);
+        this.messages.add(error.getMessage());
+    }
+
+    public boolean isEmpty() {
+        return this.messages.isEmpty();
+    }
+
+    public int size() {
+        return this.messages.size();
+    }
+
+    /**
+     * Prints all recorded violations as errors, which makes the compilation fail.
+     */
+    public void printTo(Messager messager) {
+        for (int i = 0; i < this.messages.size(); i++) {
+            messager.printMessage(Diagnostic.Kind.ERROR, this.messages.get(i), this.elements.get(i));
+        }
+    }
+}
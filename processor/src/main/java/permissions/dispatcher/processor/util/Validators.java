@@ -1,7 +1,9 @@
 package permissions.dispatcher.processor.util;
 
 
-import permissions.dispatcher.processor.PermissionsProcessor;
+import permissions.dispatcher.processor.AnnotationIndex;
+import permissions.dispatcher.processor.PermissionOrdinals;
+import permissions.dispatcher.processor.ProcessingContext;
 import permissions.dispatcher.processor.ProcessorUnit;
 import permissions.dispatcher.processor.RuntimePermissionsElement;
 import permissions.dispatcher.processor.exception.DuplicatedValueException;
@@ -9,19 +11,19 @@ import permissions.dispatcher.processor.exception.MixPermissionTypeException;
 import permissions.dispatcher.processor.exception.NoAnnotatedMethodsException;
 import permissions.dispatcher.processor.exception.NoParametersAllowedException;
 import permissions.dispatcher.processor.exception.PrivateMethodException;
+import permissions.dispatcher.processor.exception.TooManyPermissionsException;
 import permissions.dispatcher.processor.exception.WrongClassException;
 import permissions.dispatcher.processor.exception.WrongParametersException;
 import permissions.dispatcher.processor.exception.WrongReturnTypeException;
 
 import java.lang.annotation.Annotation;
-import java.util.ArrayList;
-import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
-import java.util.NoSuchElementException;
 
 import javax.lang.model.element.Element;
 import javax.lang.model.element.ExecutableElement;
 import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
 import javax.lang.model.element.VariableElement;
 import javax.lang.model.type.TypeKind;
 import javax.lang.model.type.TypeMirror;
@@ -32,53 +34,46 @@ public final class Validators {
 
     /**
      * Obtains the ProcessorUnit implementation for the provided element.
-     * Raises an exception if no suitable implementation exists
+     * Reports an error and returns null if no suitable implementation exists
      */
-    public static ProcessorUnit findAndValidateProcessorUnit(List<? extends ProcessorUnit> units, Element e) {
+    public static ProcessorUnit findAndValidateProcessorUnit(ProcessingContext context, ValidationErrors errors, List<? extends ProcessorUnit> units, Element e) {
         TypeMirror typeMirror = e.asType();
-        try {
-            for (ProcessorUnit processorUnit : units) {
-                if (ExtensionsUtils.isSubtypeOf(typeMirror, processorUnit.getTargetType())) {
-                    return processorUnit;
-                }
+        for (ProcessorUnit processorUnit : units) {
+            // Units whose target type isn't on the classpath can't handle this element
+            TypeMirror targetType = processorUnit.getTargetType(context);
+            if (targetType != null && context.isSubtype((TypeElement) e, targetType)) {
+                return processorUnit;
             }
-        } catch (NoSuchElementException ex) {
-            throw new WrongClassException(typeMirror);
         }
+        errors.report(e, new WrongClassException(typeMirror));
         return null;
     }
 
     /**
      * Checks the elements in the provided list annotated with an annotation against duplicate values.
      * <p>
-     * Raises an exception if any annotation value is found multiple times.
+     * Reports an error for every element whose annotation value was already used by a preceding element.
      */
     public static <A extends Annotation> void checkDuplicatedValue
-    (List<? extends ExecutableElement> items, Class<A> annotationClass) {
-        ArrayList<List<String>> allItems = new ArrayList<>();
+    (ValidationErrors errors, AnnotationIndex index, List<? extends ExecutableElement> items, Class<A> annotationClass) {
+        // Canonical keys don't depend on the order of the permissions, so a set lookup detects duplicates
+        HashSet<String> allKeys = new HashSet<>();
         for (ExecutableElement executableElement : items) {
-            List<String> permissionValue =
-                    ExtensionsUtils.getPermissionValue(executableElement
-                            .getAnnotation(annotationClass));
-            Collections.sort(permissionValue);
-            for (List<String> item : allItems) {
-                if (item.equals(permissionValue)) {
-                    throw new DuplicatedValueException(permissionValue, executableElement,
-                            annotationClass);
-                }
+            if (!allKeys.add(index.getPermissionKey(annotationClass, executableElement))) {
+                errors.report(executableElement, new DuplicatedValueException(
+                        index.getPermissions(annotationClass, executableElement), executableElement, annotationClass));
             }
-            allItems.add(permissionValue);
         }
     }
 
     /**
      * Checks the elements in the provided list for elements.
      * <p>
-     * Raises an exception if it doesn't contain any elements.
+     * Reports an error if it doesn't contain any elements.
      */
-    public static <A extends Annotation> void checkNotEmpty(List<? extends ExecutableElement> items, RuntimePermissionsElement rpe, Class<A> annotationClass) {
+    public static <A extends Annotation> void checkNotEmpty(ValidationErrors errors, List<? extends ExecutableElement> items, RuntimePermissionsElement rpe, Class<A> annotationClass) {
         if (items.isEmpty()) {
-            throw new NoAnnotatedMethodsException(rpe, annotationClass);
+            errors.report(rpe.getElement(), new NoAnnotatedMethodsException(rpe, annotationClass));
         }
     }
 
@@ -86,12 +81,12 @@ public final class Validators {
      * Checks the elements in the provided list annotated with an annotation
      * against private modifiers.
      * <p>
-     * Raises an exception if any element contains the "private" modifier.
+     * Reports an error for every element containing the "private" modifier.
      */
-    public static <A extends Annotation> void checkPrivateMethods(List<? extends ExecutableElement> items, Class<A> annotationClass) {
+    public static <A extends Annotation> void checkPrivateMethods(ValidationErrors errors, List<? extends ExecutableElement> items, Class<A> annotationClass) {
         for (ExecutableElement element : items) {
             if (element.getModifiers().contains(Modifier.PRIVATE)) {
-                throw new PrivateMethodException(element, annotationClass);
+                errors.report(element, new PrivateMethodException(element, annotationClass));
             }
         }
     }
@@ -99,50 +94,62 @@ public final class Validators {
     /**
      * Checks the return type of the elements in the provided list.
      * <p>
-     * Raises an exception if any element specifies a return type other than 'void'.
+     * Reports an error for every element specifying a return type other than 'void'.
      */
-    public static void checkMethodSignature(List<? extends ExecutableElement> items) {
+    public static void checkMethodSignature(ValidationErrors errors, List<? extends ExecutableElement> items) {
         for (ExecutableElement element : items) {
             if (element.getReturnType().getKind() != TypeKind.VOID) {
-                throw new WrongReturnTypeException(element);
+                errors.report(element, new WrongReturnTypeException(element));
             }
         }
     }
 
-    public static void checkMethodParameters(List<? extends ExecutableElement> items,
+    public static void checkMethodParameters(ProcessingContext context, ValidationErrors errors, List<? extends ExecutableElement> items,
                                                    int numParams, TypeMirror... requiredTypes) {
         // Check each element's parameters against the requirements
         for (ExecutableElement element : items) {
             List<? extends VariableElement> params = element.getParameters();
             if (numParams == 0 && !params.isEmpty()) {
-                throw new NoParametersAllowedException(element);
+                errors.report(element, new NoParametersAllowedException(element));
+                continue;
             }
             if (numParams != params.size()) {
-                throw new WrongParametersException(element, (String[])
-                        ExtensionsUtils.getStringArray(requiredTypes));
+                errors.report(element, new WrongParametersException(element,
+                        ExtensionsUtils.getStringArray(requiredTypes)));
+                continue;
             }
             for (int i = 0; i < params.size(); i++) {
                 VariableElement param = params.get(i);
                 TypeMirror requiredType = requiredTypes[i];
-                if (!PermissionsProcessor.getTypeUtils().isSameType(param.asType(), requiredType)) {
-                    throw new WrongParametersException
-                            (element, (String[]) ExtensionsUtils.getStringArray(requiredTypes));
+                if (!context.isSameType(param.asType(), requiredType)) {
+                    errors.report(element, new WrongParametersException
+                            (element, ExtensionsUtils.getStringArray(requiredTypes)));
+                    break;
                 }
             }
         }
     }
 
+    public static void checkPermissionCount(ValidationErrors errors, RuntimePermissionsElement rpe) {
+        HashSet<String> permissions = new HashSet<>();
+        for (ExecutableElement element : rpe.getNeedsElements()) {
+            permissions.addAll(rpe.getNeedsPermissions(element));
+        }
+        if (permissions.size() > PermissionOrdinals.MAX_SIZE) {
+            errors.report(rpe.getElement(), new TooManyPermissionsException(rpe,
+                    permissions.size(), PermissionOrdinals.MAX_SIZE));
+        }
+    }
+
     public static <A extends Annotation> void checkMixPermissionType
-            (List<? extends ExecutableElement> items, Class<A> annotationClass) {
+            (ValidationErrors errors, AnnotationIndex index, List<? extends ExecutableElement> items, Class<A> annotationClass) {
         for (ExecutableElement element : items) {
-            List<String> permissionValue =
-                    ExtensionsUtils.getPermissionValue(element
-                            .getAnnotation(annotationClass));
+            List<String> permissionValue = index.getPermissions(annotationClass, element);
             if (permissionValue.size() > 1) {
                 if (permissionValue.contains(WRITE_SETTINGS)) {
-                    throw new MixPermissionTypeException(element, WRITE_SETTINGS);
+                    errors.report(element, new MixPermissionTypeException(element, WRITE_SETTINGS));
                 } else if (permissionValue.contains(SYSTEM_ALERT_WINDOW)) {
-                    throw new MixPermissionTypeException(element, SYSTEM_ALERT_WINDOW);
+                    errors.report(element, new MixPermissionTypeException(element, SYSTEM_ALERT_WINDOW));
                 }
             }
         }
@@ -0,0 +1,309 @@
+package permissions.dispatcher.processor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Filer;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.TypeElement;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+
+/**
+ * Runs PermissionsProcessor over in-memory sources, stopping after annotation processing.
+ * <p>
+ * The processor only resolves the Android types its units handle, which are compiled from in-memory stand-ins, so
+ * neither the Android SDK nor the runtime is required. The generated sources are not compiled against the runtime,
+ * their errors are ignored. They are kept in memory, together with the originating elements they were created with.
+ */
+final class Compilation {
+
+    // Android classes resolved by the processor units
+    private static final String[][] ANDROID_STUBS = {
+            {"android.content.Context", "package android.content; public class Context {}"},
+            {"android.app.Activity", "package android.app; public class Activity extends android.content.Context {}"},
+            {"android.app.Fragment", "package android.app; public class Fragment {}"},
+            {"android.support.v4.app.Fragment", "package android.support.v4.app; public class Fragment {}"},
+            {"android.support.v13.app.FragmentCompat", "package android.support.v13.app; public class FragmentCompat {}"},
+    };
+
+    private final Map<String, MemoryOutput> outputs = new LinkedHashMap<>();
+
+    private final Map<String, List<String>> originatingElements = new LinkedHashMap<>();
+
+    private final List<String> errors = new ArrayList<>();
+
+    private Compilation() {
+    }
+
+    /**
+     * Compiles the given sources along with the Android stand-ins.
+     *
+     * @param sources          sources of the @RuntimePermissions classes
+     * @param processorOptions processor options, e.g. "permissions.dispatcher.parallel=true"
+     */
+    static Compilation compile(List<JavaFileObject> sources, String... processorOptions) {
+        return compile(new PermissionsProcessor(), sources, processorOptions);
+    }
+
+    /**
+     * Compiles the given sources with the given processor instance, e.g. to inspect its state afterwards.
+     *
+     * @see #compile(List, String...)
+     */
+    static Compilation compile(PermissionsProcessor processor, List<JavaFileObject> sources, String... processorOptions) {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            throw new IllegalStateException("No system Java compiler available, the tests must run on a JDK");
+        }
+        List<String> options = new ArrayList<>(Arrays.asList("-proc:only", "-nowarn",
+                "-classpath", System.getProperty("java.class.path")));
+        for (String processorOption : processorOptions) {
+            options.add("-A" + processorOption);
+        }
+        List<JavaFileObject> allSources = new ArrayList<>(sources);
+        for (String[] stub : ANDROID_STUBS) {
+            allSources.add(source(stub[0], stub[1]));
+        }
+
+        Compilation compilation = new Compilation();
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        JavaFileManager fileManager = compilation.new MemoryFileManager(compiler.getStandardFileManager(diagnostics, null, null));
+        JavaCompiler.CompilationTask task = compiler.getTask(null, fileManager, diagnostics, options, null, allSources);
+        task.setProcessors(Collections.singletonList(compilation.new RecordingProcessor(processor)));
+        task.call();
+        for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+            // Generated sources refer to the runtime, which isn't on the class path
+            if (diagnostic.getKind() == Diagnostic.Kind.ERROR && !(diagnostic.getSource() instanceof MemoryOutput)) {
+                compilation.errors.add(diagnostic.getMessage(null));
+            }
+        }
+        return compilation;
+    }
+
+    /**
+     * Creates a source from its content.
+     */
+    static JavaFileObject source(String qualifiedName, String content) {
+        return new Source(qualifiedName, content);
+    }
+
+    /**
+     * Creates a source from a test resource, e.g. "targets/com/example/MainActivity.java".
+     */
+    static JavaFileObject resource(String path) {
+        InputStream in = Compilation.class.getClassLoader().getResourceAsStream(path);
+        if (in == null) {
+            throw new IllegalArgumentException("Missing resource " + path);
+        }
+        try {
+            try {
+                ByteArrayOutputStream content = new ByteArrayOutputStream();
+                byte[] buffer = new byte[4096];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    content.write(buffer, 0, read);
+                }
+                String qualifiedName = path.substring(path.indexOf('/') + 1, path.length() - JavaFileObject.Kind.SOURCE.extension.length())
+                        .replace('/', '.');
+                return new Source(qualifiedName, content.toString("UTF-8"));
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Couldn't read " + path, e);
+        }
+    }
+
+    /**
+     * Returns the error messages reported by the processor and for the given sources.
+     */
+    List<String> getErrors() {
+        return this.errors;
+    }
+
+    /**
+     * Returns the generated sources by qualified name, in the order they were written.
+     */
+    Map<String, String> getGenerated() {
+        Map<String, String> generated = new LinkedHashMap<>();
+        for (Map.Entry<String, MemoryOutput> entry : this.outputs.entrySet()) {
+            generated.put(entry.getKey(), entry.getValue().getCharContent(true).toString());
+        }
+        return generated;
+    }
+
+    /**
+     * Returns the originating elements of every generated source, by the qualified name of the source.
+     */
+    Map<String, List<String>> getOriginatingElements() {
+        return this.originatingElements;
+    }
+
+    /**
+     * Returns the originating elements the given generated source was created with, by qualified name.
+     */
+    List<String> getOriginatingElements(String qualifiedName) {
+        return this.originatingElements.get(qualifiedName);
+    }
+
+    private final class MemoryFileManager extends ForwardingJavaFileManager<JavaFileManager> {
+        private MemoryFileManager(JavaFileManager fileManager) {
+            super(fileManager);
+        }
+
+        @Override
+        public JavaFileObject getJavaFileForOutput(Location location, String className,
+                                                   JavaFileObject.Kind kind, FileObject sibling) {
+            MemoryOutput output = new MemoryOutput(className.replace('.', '/') + kind.extension, kind);
+            if (kind == JavaFileObject.Kind.SOURCE) {
+                outputs.put(className, output);
+            }
+            return output;
+        }
+
+        @Override
+        public FileObject getFileForOutput(Location location, String packageName, String relativeName, FileObject sibling) {
+            // Resources such as the permission index aren't inspected
+            return new MemoryOutput(packageName.replace('.', '/') + "/" + relativeName, JavaFileObject.Kind.OTHER);
+        }
+    }
+
+    private static final class MemoryOutput extends SimpleJavaFileObject {
+        private final ByteArrayOutputStream content = new ByteArrayOutputStream();
+
+        private MemoryOutput(String path, Kind kind) {
+            super(URI.create("mem:///" + path), kind);
+        }
+
+        @Override
+        public OutputStream openOutputStream() {
+            this.content.reset();
+            return this.content;
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            // Written through SimpleJavaFileObject.openWriter(), which uses the default charset
+            return this.content.toString();
+        }
+    }
+
+    /**
+     * Hands the processor a Filer recording the originating elements of every generated source.
+     */
+    private final class RecordingProcessor extends AbstractProcessor {
+        private final PermissionsProcessor delegate;
+
+        private RecordingProcessor(PermissionsProcessor delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public Set<String> getSupportedOptions() {
+            return this.delegate.getSupportedOptions();
+        }
+
+        @Override
+        public Set<String> getSupportedAnnotationTypes() {
+            return this.delegate.getSupportedAnnotationTypes();
+        }
+
+        @Override
+        public SourceVersion getSupportedSourceVersion() {
+            return this.delegate.getSupportedSourceVersion();
+        }
+
+        @Override
+        public synchronized void init(ProcessingEnvironment processingEnv) {
+            super.init(processingEnv);
+            final Filer filer = delegating(Filer.class, processingEnv.getFiler(), new Interceptor() {
+                @Override
+                public Object intercept(Method method, Object[] args) {
+                    if (method.getName().equals("createSourceFile")) {
+                        List<String> names = new ArrayList<>();
+                        for (Element element : (Element[]) args[1]) {
+                            names.add(((TypeElement) element).getQualifiedName().toString());
+                        }
+                        originatingElements.put(args[0].toString(), names);
+                    }
+                    return null;
+                }
+            });
+            this.delegate.init(delegating(ProcessingEnvironment.class, processingEnv, new Interceptor() {
+                @Override
+                public Object intercept(Method method, Object[] args) {
+                    return method.getName().equals("getFiler") ? filer : null;
+                }
+            }));
+        }
+
+        @Override
+        public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+            return this.delegate.process(annotations, roundEnv);
+        }
+    }
+
+    private interface Interceptor {
+        /**
+         * Returns the result of the call, or null to pass it on to the delegate.
+         */
+        Object intercept(Method method, Object[] args);
+    }
+
+    private static <T> T delegating(Class<T> type, final T delegate, final Interceptor interceptor) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                Object result = interceptor.intercept(method, args);
+                if (result != null) {
+                    return result;
+                }
+                try {
+                    return method.invoke(delegate, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            }
+        }));
+    }
+
+    private static final class Source extends SimpleJavaFileObject {
+        private final String content;
+
+        private Source(String qualifiedName, String content) {
+            super(URI.create("string:///" + qualifiedName.replace('.', '/') + Kind.SOURCE.extension), Kind.SOURCE);
+            this.content = content;
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return this.content;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package permissions.dispatcher.processor;
+
+import org.junit.Test;
+import permissions.dispatcher.processor.util.Constants;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import javax.tools.JavaFileObject;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The streaming emitter has to produce the same dispatchers as JavaPoet, in every mode that changes the generated code.
+ * The targets cover all processor units, sensitive permissions, type variables, nested types, clashing simple names
+ * and type annotations, for which the streaming emitter falls back to JavaPoet.
+ */
+public class EmitterConsistencyTest {
+
+    private static final String[] TARGETS = {
+            "targets/com/example/MainActivity.java",
+            "targets/com/example/SupportFrag.java",
+            "targets/com/example/NativeFrag.java",
+            "targets/com/example/GenericActivity.java",
+            "targets/com/example/NestedActivity.java",
+            "targets/com/example/ConflictActivity.java",
+            "targets/com/example/AnnotatedActivity.java",
+            "targets/com/foo/PermissionBroker.java",
+            "targets/com/foo/Settings.java",
+            "targets/org/x/Outer.java",
+    };
+
+    // One dispatcher per @RuntimePermissions class, ConflictActivity.java declares two of them
+    private static final int DISPATCHERS = 8;
+
+    @Test
+    public void defaultMode() {
+        assertSameOutput();
+    }
+
+    @Test
+    public void parallelMode() {
+        assertSameOutput(Constants.OPTION_PARALLEL + "=true");
+    }
+
+    @Test
+    public void compactMode() {
+        assertSameOutput(Constants.OPTION_REGISTRY + "=com.example.AppPermissions");
+    }
+
+    @Test
+    public void runtimePermissionsOnly() {
+        assertSameOutput(Constants.OPTION_MIN_SDK + "=23");
+    }
+
+    @Test
+    public void installTimePermissionsOnly() {
+        assertSameOutput(Constants.OPTION_MIN_SDK + "=16", Constants.OPTION_TARGET_SDK + "=22");
+    }
+
+    private static void assertSameOutput(String... options) {
+        // The verify emitter generates every dispatcher both ways and reports the first difference as an error
+        Compilation verify = compile("verify", options);
+        assertEquals(Collections.<String>emptyList(), verify.getErrors());
+
+        Map<String, String> expected = compile("javapoet", options).getGenerated();
+        assertEquals(DISPATCHERS, countDispatchers(expected));
+        Compilation stream = compile("stream", options);
+        assertEquals(Collections.<String>emptyList(), stream.getErrors());
+        assertEquals(expected, stream.getGenerated());
+        assertEquals(expected, verify.getGenerated());
+    }
+
+    private static Compilation compile(String emitter, String... options) {
+        List<JavaFileObject> sources = new ArrayList<>();
+        for (String target : TARGETS) {
+            sources.add(Compilation.resource(target));
+        }
+        List<String> allOptions = new ArrayList<>(Arrays.asList(options));
+        allOptions.add(Constants.OPTION_EMITTER + "=" + emitter);
+        return Compilation.compile(sources, allOptions.toArray(new String[allOptions.size()]));
+    }
+
+    private static int countDispatchers(Map<String, String> generated) {
+        int count = 0;
+        for (String qualifiedName : generated.keySet()) {
+            if (qualifiedName.endsWith(Constants.GEN_CLASS_SUFFIX)) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
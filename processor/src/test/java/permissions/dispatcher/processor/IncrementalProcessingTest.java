@@ -0,0 +1,82 @@
+package permissions.dispatcher.processor;
+
+import org.junit.Test;
+import permissions.dispatcher.processor.util.Constants;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.tools.JavaFileObject;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Gradle's isolating mode regenerates a file only if one of its originating elements changed,
+ * so every dispatcher has to name its own @RuntimePermissions class, and nothing else.
+ */
+public class IncrementalProcessingTest {
+
+    private static final String CAMERA_ACTIVITY = "com.example.CameraActivity";
+
+    private static final String CONTACTS_ACTIVITY = "com.example.ContactsActivity";
+
+    @Test
+    public void isIsolatingByDefault() {
+        assertTrue(new PermissionsProcessor().getSupportedOptions().contains(Constants.GRADLE_ISOLATING));
+    }
+
+    @Test
+    public void everyDispatcherOriginatesFromExactlyItsTarget() {
+        Compilation compilation = Compilation.compile(Arrays.asList(cameraActivity("showCamera"), contactsActivity()));
+
+        assertEquals(Collections.<String>emptyList(), compilation.getErrors());
+        Map<String, List<String>> expected = new LinkedHashMap<>();
+        expected.put(CAMERA_ACTIVITY + Constants.GEN_CLASS_SUFFIX, Collections.singletonList(CAMERA_ACTIVITY));
+        expected.put(CONTACTS_ACTIVITY + Constants.GEN_CLASS_SUFFIX, Collections.singletonList(CONTACTS_ACTIVITY));
+        // Gradle regenerates a file of an isolating processor only if its single originating element changed
+        assertEquals(expected, compilation.getOriginatingElements());
+    }
+
+    @Test
+    public void isAggregatingInCompactMode() {
+        PermissionsProcessor processor = new PermissionsProcessor();
+        Compilation compilation = Compilation.compile(processor, Arrays.asList(cameraActivity("showCamera"), contactsActivity()),
+                Constants.OPTION_REGISTRY + "=com.example.AppPermissions");
+
+        assertEquals(Collections.<String>emptyList(), compilation.getErrors());
+        assertTrue(processor.getSupportedOptions().contains(Constants.GRADLE_AGGREGATING));
+        assertFalse(processor.getSupportedOptions().contains(Constants.GRADLE_ISOLATING));
+        // The registry is built from both classes, so it has to name them both
+        assertEquals(Arrays.asList(CAMERA_ACTIVITY, CONTACTS_ACTIVITY),
+                compilation.getOriginatingElements("com.example.AppPermissions"));
+    }
+
+    private static JavaFileObject cameraActivity(String methodName) {
+        return Compilation.source(CAMERA_ACTIVITY, ""
+                + "package com.example;\n"
+                + "import permissions.dispatcher.*;\n"
+                + "@RuntimePermissions\n"
+                + "public class CameraActivity extends android.app.Activity {\n"
+                + "    @NeedsPermission(\"android.permission.CAMERA\")\n"
+                + "    void " + methodName + "() {}\n"
+                + "}\n");
+    }
+
+    private static JavaFileObject contactsActivity() {
+        return Compilation.source(CONTACTS_ACTIVITY, ""
+                + "package com.example;\n"
+                + "import permissions.dispatcher.*;\n"
+                + "@RuntimePermissions\n"
+                + "public class ContactsActivity extends android.app.Activity {\n"
+                + "    @NeedsPermission({\"android.permission.READ_CONTACTS\", \"android.permission.WRITE_CONTACTS\"})\n"
+                + "    void showContacts(String query) {}\n"
+                + "    @OnPermissionDenied({\"android.permission.READ_CONTACTS\", \"android.permission.WRITE_CONTACTS\"})\n"
+                + "    void contactsDenied() {}\n"
+                + "}\n");
+    }
+}
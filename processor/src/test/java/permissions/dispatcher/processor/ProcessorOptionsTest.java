@@ -0,0 +1,66 @@
+package permissions.dispatcher.processor;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.tools.JavaFileObject;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ProcessorOptionsTest {
+
+    @Test
+    public void invalidRegistryIsReported() {
+        for (String registry : new String[]{"compact", "com.example", "com.example.App-Permissions"}) {
+            Compilation compilation = Compilation.compile(cameraActivity(), "permissions.dispatcher.registry=" + registry);
+
+            assertEquals(registry, 1, compilation.getErrors().size());
+            assertTrue(compilation.getErrors().get(0), compilation.getErrors().get(0).contains("'" + registry + "'"));
+        }
+    }
+
+    @Test
+    public void validRegistryIsGenerated() {
+        Compilation compilation = Compilation.compile(cameraActivity(), "permissions.dispatcher.registry=com.example.AppPermissions");
+
+        assertEquals(Collections.<String>emptyList(), compilation.getErrors());
+        assertTrue(compilation.getGenerated().containsKey("com.example.AppPermissions"));
+    }
+
+    @Test
+    public void requestCodeCollisionIsReported() {
+        // Both classes hash to request code 16 without a namespace, which unrelated classes may share
+        Compilation compilation = Compilation.compile(Arrays.asList(
+                cameraActivity("Activity7", "android.app.Activity"), cameraActivity("Activity8", "android.app.Activity")));
+        assertEquals(Collections.<String>emptyList(), compilation.getErrors());
+
+        List<JavaFileObject> sources = Arrays.asList(
+                cameraActivity("Activity7", "android.app.Activity"), cameraActivity("Activity8", "Activity7"));
+        compilation = Compilation.compile(sources);
+        assertEquals(1, compilation.getErrors().size());
+        assertTrue(compilation.getErrors().get(0), compilation.getErrors().get(0).contains(
+                "Request code 16 of com.example.Activity8#showCamera is used by com.example.Activity7#showCamera"));
+
+        compilation = Compilation.compile(sources, "permissions.dispatcher.requestCodeNamespace=app");
+        assertEquals(Collections.<String>emptyList(), compilation.getErrors());
+    }
+
+    private static List<JavaFileObject> cameraActivity() {
+        return Collections.singletonList(cameraActivity("CameraActivity", "android.app.Activity"));
+    }
+
+    private static JavaFileObject cameraActivity(String simpleName, String superclass) {
+        return Compilation.source("com.example." + simpleName, ""
+                + "package com.example;\n"
+                + "import permissions.dispatcher.*;\n"
+                + "@RuntimePermissions\n"
+                + "public class " + simpleName + " extends " + superclass + " {\n"
+                + "    @NeedsPermission(\"android.permission.CAMERA\")\n"
+                + "    void showCamera() {}\n"
+                + "}\n");
+    }
+}
@@ -0,0 +1,70 @@
+package permissions.dispatcher.processor;
+
+import org.junit.Test;
+import permissions.dispatcher.processor.util.Constants;
+
+import java.util.Collections;
+import java.util.List;
+
+import javax.tools.JavaFileObject;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Requests cancelled by the platform or expired in the PermissionBroker deliver empty grant results.
+ * The generated result cases have to treat them as denied, even though a permission that was never asked for
+ * has no rationale, which would otherwise mean "never ask again".
+ */
+public class ResultCaseTest {
+
+    private static final String DISPATCHER = "com.example.CameraActivityPermissionsDispatcher";
+
+    @Test
+    public void emptyResultsAreDenied() {
+        for (String emitter : new String[]{"javapoet", "stream"}) {
+            String dispatcher = generate(emitter, ""
+                    + "    @OnPermissionDenied(\"android.permission.CAMERA\")\n"
+                    + "    void cameraDenied() {}\n"
+                    + "    @OnNeverAskAgain(\"android.permission.CAMERA\")\n"
+                    + "    void cameraNeverAsk() {}\n");
+
+            assertTrue(emitter, dispatcher.contains(""
+                    + "        if (grantResults.length > 0 && (showCameraStatus & PermissionUtils.STATUS_SHOW_RATIONALE) == 0) {\n"
+                    + "          target.cameraNeverAsk();\n"
+                    + "        } else {\n"
+                    + "          target.cameraDenied();\n"
+                    + "        }\n"));
+        }
+    }
+
+    @Test
+    public void emptyResultsAreIgnoredWithoutDeniedMethod() {
+        for (String emitter : new String[]{"javapoet", "stream"}) {
+            String dispatcher = generate(emitter, ""
+                    + "    @OnNeverAskAgain(\"android.permission.CAMERA\")\n"
+                    + "    void cameraNeverAsk() {}\n");
+
+            assertTrue(emitter, dispatcher.contains(""
+                    + "        if (grantResults.length > 0 && (showCameraStatus & PermissionUtils.STATUS_SHOW_RATIONALE) == 0) {\n"
+                    + "          target.cameraNeverAsk();\n"
+                    + "        }\n"));
+        }
+    }
+
+    private static String generate(String emitter, String handlers) {
+        List<JavaFileObject> sources = Collections.singletonList(Compilation.source("com.example.CameraActivity", ""
+                + "package com.example;\n"
+                + "import permissions.dispatcher.*;\n"
+                + "@RuntimePermissions\n"
+                + "public class CameraActivity extends android.app.Activity {\n"
+                + "    @NeedsPermission(value = \"android.permission.CAMERA\", timeoutMillis = 1000)\n"
+                + "    void showCamera() {}\n"
+                + handlers
+                + "}\n"));
+        Compilation compilation = Compilation.compile(sources, Constants.OPTION_EMITTER + "=" + emitter);
+
+        assertEquals(Collections.<String>emptyList(), compilation.getErrors());
+        return compilation.getGenerated().get(DISPATCHER);
+    }
+}
@@ -0,0 +1,36 @@
+package permissions.dispatcher.processor;
+
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The priority and timeout of @NeedsPermission are read from the annotation mirrors, including their defaults.
+ */
+public class SchedulingAttributesTest {
+
+    @Test
+    public void attributesArePassedToTheBroker() {
+        Compilation compilation = Compilation.compile(Collections.singletonList(Compilation.source("com.example.CameraActivity", ""
+                + "package com.example;\n"
+                + "import permissions.dispatcher.*;\n"
+                + "@RuntimePermissions\n"
+                + "public class CameraActivity extends android.app.Activity {\n"
+                + "    @NeedsPermission(value = \"android.permission.CAMERA\", priority = 2, timeoutMillis = 1000)\n"
+                + "    void showCamera() {}\n"
+                + "    @NeedsPermission(value = \"android.permission.READ_CONTACTS\", priority = -1)\n"
+                + "    void showContacts() {}\n"
+                + "    @NeedsPermission(\"android.permission.RECORD_AUDIO\")\n"
+                + "    void record() {}\n"
+                + "}\n")));
+
+        assertEquals(Collections.<String>emptyList(), compilation.getErrors());
+        String dispatcher = compilation.getGenerated().get("com.example.CameraActivityPermissionsDispatcher");
+        assertTrue(dispatcher.contains("(target, target, PERMISSION_SHOWCAMERA, REQUEST_SHOWCAMERA, 2, 1000L, BrokerClient.INSTANCE)"));
+        assertTrue(dispatcher.contains("(target, target, PERMISSION_SHOWCONTACTS, REQUEST_SHOWCONTACTS, -1, 0L, BrokerClient.INSTANCE)"));
+        assertTrue(dispatcher.contains("(target, target, PERMISSION_RECORD, REQUEST_RECORD, BrokerClient.INSTANCE)"));
+    }
+}
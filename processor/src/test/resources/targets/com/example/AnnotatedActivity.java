@@ -0,0 +1,10 @@
+package com.example;
+
+import android.app.Activity;
+import permissions.dispatcher.*;
+
+@RuntimePermissions
+public class AnnotatedActivity extends Activity {
+    @NeedsPermission("android.permission.CAMERA")
+    void shoot(@org.x.Outer.Tag String name) {}
+}
@@ -0,0 +1,33 @@
+package com.example;
+
+import android.app.Activity;
+import java.util.List;
+import java.util.Map;
+import permissions.dispatcher.*;
+
+@RuntimePermissions
+public class ConflictActivity extends Activity {
+    @NeedsPermission("android.permission.CAMERA")
+    void shoot(com.foo.Settings settings, com.foo.PermissionBroker broker, List<? extends CharSequence> names,
+               Map<String, ? super Integer> map, org.x.Outer.Holder<int[]>[] holders, com.foo.Settings.Inner inner) {}
+
+    @OnShowRationale("android.permission.CAMERA")
+    void shootRationale(PermissionRequest request) {}
+
+    @NeedsPermission("android.permission.WRITE_SETTINGS")
+    void settings() {}
+
+    @NeedsPermission("android.permission.READ_CONTACTS")
+    void contacts() {}
+
+    @OnNeverAskAgain("android.permission.READ_CONTACTS")
+    void contactsNeverAsk() {}
+
+    public static class Inner extends Activity {}
+}
+
+@RuntimePermissions
+class GenericInnerActivity extends NestedActivity.Inner<String> {
+    @NeedsPermission("android.permission.CAMERA")
+    void shoot(NestedActivity.Inner<Integer> other) {}
+}
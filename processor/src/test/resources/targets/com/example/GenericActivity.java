@@ -0,0 +1,19 @@
+package com.example;
+
+import android.app.Activity;
+import permissions.dispatcher.*;
+
+@RuntimePermissions
+public class GenericActivity<T extends CharSequence> extends Activity {
+    @NeedsPermission("android.permission.CAMERA")
+    void camera(T value) {}
+
+    @OnShowRationale("android.permission.CAMERA")
+    void cameraRationale(PermissionRequest request) {}
+
+    @NeedsPermission("android.permission.RECORD_AUDIO")
+    void record() {}
+
+    @OnShowRationale("android.permission.RECORD_AUDIO")
+    void recordRationale(PermissionRequest request) {}
+}
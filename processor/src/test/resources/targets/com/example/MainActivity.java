@@ -0,0 +1,34 @@
+package com.example;
+
+import android.app.Activity;
+import permissions.dispatcher.*;
+
+@RuntimePermissions
+public class MainActivity extends Activity {
+    @NeedsPermission("android.permission.CAMERA")
+    void showCamera() {}
+
+    @NeedsPermission({"android.permission.READ_CONTACTS", "android.permission.WRITE_CONTACTS"})
+    void showContacts(String query, int limit) {}
+
+    @NeedsPermission("android.permission.SYSTEM_ALERT_WINDOW")
+    void overlay() {}
+
+    @OnPermissionDenied("android.permission.SYSTEM_ALERT_WINDOW")
+    void overlayDenied() {}
+
+    @OnShowRationale("android.permission.CAMERA")
+    void cameraRationale(PermissionRequest request) {}
+
+    @OnShowRationale({"android.permission.WRITE_CONTACTS", "android.permission.READ_CONTACTS"})
+    void contactsRationale(PermissionRequest request) {}
+
+    @OnPermissionDenied("android.permission.CAMERA")
+    void cameraDenied() {}
+
+    @OnNeverAskAgain("android.permission.CAMERA")
+    void cameraNeverAsk() {}
+
+    @OnPermissionDenied({"android.permission.READ_CONTACTS", "android.permission.WRITE_CONTACTS"})
+    void contactsDenied() {}
+}
@@ -0,0 +1,16 @@
+package com.example;
+
+import android.app.Fragment;
+import permissions.dispatcher.*;
+
+@RuntimePermissions
+public class NativeFrag extends Fragment {
+    @NeedsPermission({"android.permission.RECORD_AUDIO", "android.permission.CAMERA"})
+    void record() {}
+
+    @OnShowRationale({"android.permission.CAMERA", "android.permission.RECORD_AUDIO"})
+    void recordRationale(PermissionRequest request) {}
+
+    @OnPermissionDenied({"android.permission.RECORD_AUDIO", "android.permission.CAMERA"})
+    void recordDenied() {}
+}
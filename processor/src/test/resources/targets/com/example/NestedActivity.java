@@ -0,0 +1,21 @@
+package com.example;
+
+import android.app.Activity;
+import permissions.dispatcher.*;
+
+@RuntimePermissions
+public class NestedActivity<K extends Number & Comparable<K>, V> extends Activity {
+    @NeedsPermission("android.permission.CAMERA")
+    void shoot(K key, java.util.List<V> values) {}
+
+    @OnShowRationale("android.permission.CAMERA")
+    void shootRationale(PermissionRequest request) {}
+
+    @NeedsPermission("android.permission.RECORD_AUDIO")
+    void record() {}
+
+    @OnShowRationale("android.permission.RECORD_AUDIO")
+    void recordRationale(PermissionRequest request) {}
+
+    public static class Inner<T> extends Activity {}
+}
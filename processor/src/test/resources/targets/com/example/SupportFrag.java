@@ -0,0 +1,19 @@
+package com.example;
+
+import android.support.v4.app.Fragment;
+import permissions.dispatcher.*;
+
+@RuntimePermissions
+public class SupportFrag extends Fragment {
+    @NeedsPermission("android.permission.CAMERA")
+    void showCamera() {}
+
+    @NeedsPermission("android.permission.ACCESS_FINE_LOCATION")
+    void locate(double accuracy) {}
+
+    @OnShowRationale("android.permission.ACCESS_FINE_LOCATION")
+    void locRationale(PermissionRequest request) {}
+
+    @OnNeverAskAgain("android.permission.ACCESS_FINE_LOCATION")
+    void locNeverAsk() {}
+}
@@ -0,0 +1,2 @@
+package com.foo;
+public class PermissionBroker {}
@@ -0,0 +1,6 @@
+package org.x;
+import java.lang.annotation.*;
+public class Outer {
+    public static class Holder<T> {}
+    @Target(ElementType.TYPE_USE) @Retention(RetentionPolicy.CLASS) public @interface Tag {}
+}